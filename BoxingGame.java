@@ -1,508 +1,909 @@
 import javax.sound.sampled.*;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import com.sun.management.ThreadMXBean;
 
 public class BoxingGame extends JFrame {
-    public BoxingGame() {
+    public BoxingGame(int targetFps, boolean activeRendering, GamePanel.Launch launch) {
         setTitle("Jogo de Boxe");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setResizable(false);
 
-        GamePanel panel = new GamePanel();
+        GamePanel panel = new GamePanel(targetFps, activeRendering, launch);
         add(panel);
 
         pack();
         setLocationRelativeTo(null);
     }
 
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new BoxingGame().setVisible(true));
+    public static void main(String[] args) throws IOException {
+        GameEvents.install();
+        args = startJfrIfRequested(args);
+
+        if (args.length > 0 && args[0].equals("--pack-assets")) {
+            Path out = args.length > 1 ? Paths.get(args[1]) : Assets.baseDir().resolve(AssetBundle.DEFAULT_NAME);
+            AssetBundle.pack(out);
+            System.out.println("Bundle gerado: " + out.toAbsolutePath());
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--bench")) {
+            Bench.main(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--alloc-check")) {
+            AllocationCheck.main(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--mcts-bench")) {
+            MctsBench.main(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--bt-batch")) {
+            BehaviorTreeBatch.main(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--env-bench")) {
+            EnvBench.main(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--balance")) {
+            Balancer.main(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--headless")) {
+            runHeadless(args);
+            return;
+        }
+
+        GamePanel.Launch launch = new GamePanel.Launch();
+
+        // --replay ARQUIVO: reproduz na janela (ou, com --headless, na velocidade máxima)
+        if (args.length > 1 && args[0].equals("--replay")) {
+            Path file = Paths.get(args[1]);
+            if (Arrays.asList(args).contains("--headless")) {
+                Replay.runHeadless(file);
+                return;
+            }
+            launch.replay = Replay.read(file);
+        }
+
+        // --net host PORTA | --net join HOST:PORTA: dois jogadores com rollback (--headless: scriptados)
+        if (args.length > 0 && args[0].equals("--net")) {
+            launch.net = RollbackSession.fromArgs(args);
+            if (Arrays.asList(args).contains("--headless")) {
+                RollbackSession.runHeadless(launch.net);
+                return;
+            }
+        }
+
+        // --server PORTA: partidas autoritativas sem janela; --server-load HOST:PORTA N: teste de carga
+        if (args.length > 0 && args[0].equals("--server")) {
+            MatchServer.main(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--server-load")) {
+            ServerLoadTest.main(args);
+            return;
+        }
+
+        // --broadcast PORTA: partidas scriptadas para espectadores; --broadcast-bench: banda x espectadores
+        if (args.length > 0 && args[0].equals("--broadcast")) {
+            SpectatorBroadcaster.main(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--broadcast-bench")) {
+            SpectatorBench.main(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--broadcast-check")) {
+            SpectatorBench.check();
+            return;
+        }
+
+        // --watch HOST:PORTA: assiste a uma transmissão na janela
+        if (args.length > 0 && args[0].equals("--watch"))
+            launch.watch = SpectatorClient.fromArgs(args);
+
+        // --resume [ARQUIVO]: retoma (pausada) a partida do quick-save
+        if (args.length > 0 && args[0].equals("--resume")) {
+            Path file = args.length > 1 && !args[1].startsWith("--") ? Paths.get(args[1]) : MatchSnapshot.QUICK_SAVE;
+            try {
+                launch.resume = MatchSnapshot.load(file);
+            } catch (IOException e) {
+                System.err.println("Não foi possível retomar a partida: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        int fps = GamePanel.DEFAULT_FPS;
+        boolean active = false;
+        for (String a : args) {
+            if (a.startsWith("--fps="))
+                fps = parseFps(a.substring("--fps=".length()));
+            else if (a.equals("--render=active"))
+                active = true;
+            else if (a.equals("--render=passive"))
+                active = false;
+            else if (a.startsWith("--ai="))
+                launch.ai = a.substring("--ai=".length());
+            else if (a.startsWith("--broadcast="))
+                launch.broadcast = new SpectatorBroadcaster(
+                        new InetSocketAddress(Integer.parseInt(a.substring("--broadcast=".length()))));
+        }
+
+        OpponentAi.create(launch.ai, Difficulty.MEDIUM); // --ai= inválido falha aqui, não no meio do jogo
+
+        int targetFps = fps;
+        boolean activeRendering = active;
+        SwingUtilities.invokeLater(() -> new BoxingGame(targetFps, activeRendering, launch).setVisible(true));
     }
-}
 
-class GamePanel extends JPanel {
+    // --fps=N: ajustado para MIN_FPS..MAX_FPS (0 dividiria o intervalo do frame); não numérico encerra
+    private static int parseFps(String value) {
+        try {
+            return Math.max(GamePanel.MIN_FPS, Math.min(GamePanel.MAX_FPS, Integer.parseInt(value)));
+        } catch (NumberFormatException e) {
+            System.err.println("Uso: --fps=N (" + GamePanel.MIN_FPS + " a " + GamePanel.MAX_FPS + ")");
+            System.exit(1);
+            return GamePanel.DEFAULT_FPS;
+        }
+    }
 
-    // ======= CONFIG GERAL =======
-    private static final int WIDTH = 800;
-    private static final int HEIGHT = 600;
-    private static final int GROUND = 450;
+    // --jfr[=arquivo] em qualquer posição; devolve os argumentos sem ele
+    private static String[] startJfrIfRequested(String[] args) throws IOException {
+        List<String> rest = new ArrayList<>();
+        for (String a : args) {
+            if (a.equals("--jfr"))
+                GameEvents.startContinuousRecording(Paths.get("boxing.jfr"));
+            else if (a.startsWith("--jfr="))
+                GameEvents.startContinuousRecording(Paths.get(a.substring("--jfr=".length())));
+            else
+                rest.add(a);
+        }
+        return rest.toArray(new String[0]);
+    }
 
-    private static final int ROUNDS_TOTAL = 5;
-    private static final int ROUND_SECONDS = 30;
-    private static final long ROUND_MS = ROUND_SECONDS * 1000L;
+    // partidas jogador scriptado x IA sem janela: java BoxingGame --headless [partidas] [EASY|MEDIUM|HARD]
+    private static void runHeadless(String[] args) {
+        int matches = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Difficulty difficulty = args.length > 2 ? Difficulty.valueOf(args[2]) : Difficulty.MEDIUM;
+
+        Random random = new Random();
+        int playerWins = 0;
+        long ticks = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < matches; i++) {
+            GameSimulation sim = new GameSimulation(difficulty, new GameRng(random.nextLong()));
+            ScriptedPlayer script = new ScriptedPlayer(random);
+            // estas são as partidas de verdade: só elas publicam eventos JFR (os lotes e benchmarks não)
+            sim.setListener(GameEvents.MATCH);
+            sim.startMatch();
+            GameState last = sim.getState();
+            while (!sim.isOver()) {
+                sim.tick(script.nextInput(sim));
+                if (GameEvents.enabled && sim.getState() != last)
+                    GameEvents.stateChange(last, sim.getState());
+                last = sim.getState();
+            }
+            ticks += sim.getTicks();
+            if (sim.getPlayerRoundsWon() > sim.getAiRoundsWon())
+                playerWins++;
+        }
+        double secs = (System.nanoTime() - t0) / 1e9;
+        double gameSecs = ticks * GameSimulation.TICK_MS / 1000.0;
 
-    // Stamina
-    private static final int MAX_STAMINA = 100;
-    private static final int COST_JAB = 12;
-    private static final int COST_HOOK = 18;
-    private static final int COST_CROSS = 22;
+        System.out.printf("%d partidas (%s): jogador venceu %d, IA/empate %d%n",
+                matches, difficulty, playerWins, matches - playerWins);
+        System.out.printf("%d ticks em %.3f s (%.0f ticks/s, %.0fx tempo real)%n",
+                ticks, secs, ticks / secs, gameSecs / secs);
+    }
+}
 
-    // >>> ALTERAÇÃO PEDIDA: recarrega após 6s quando zera
-    private static final long STAMINA_RECHARGE_COOLDOWN_MS = 6000;
-    private boolean staminaOnCooldown = false;
-    private long staminaCooldownLeftMs = 0;
+class GamePanel extends JPanel {
 
-    // Intro round
-    private static final long INTRO_TOTAL_MS = 2200; // "ROUND X" -> "FIGHT!"
-    private long introMsLeft = 0;
+    // ======= CONFIG GERAL =======
+    private static final int WIDTH = GameRenderer.WIDTH;
+    private static final int HEIGHT = GameRenderer.HEIGHT;
 
     // Shorts (seleção)
-    private static final int SELECTION_COUNT = 3;
+    private static final int SELECTION_COUNT = GameRenderer.SHORT_COLORS.length;
     private int selectedColor = 0;
-    private final String[] colorNames = { "Preto", "Azul", "Vermelho" };
-    private final Color[] shortColors = { Color.BLACK, new Color(0, 100, 255), new Color(220, 20, 20) };
 
     // Dificuldade (seleção)
     private Difficulty selectedDifficulty = Difficulty.MEDIUM;
 
     // ======= ESTADOS =======
-    private enum GameState {
-        MENU, HOW_TO_PLAY, SETUP, ROUND_INTRO, PLAYING, PAUSED, ROUND_END, GAME_OVER
-    }
-
     private GameState state = GameState.MENU;
 
     // Menu
-    private final String[] menuItems = { "Jogar", "Como jogar", "Sair" };
+    private final String[] menuItems = GameRenderer.MENU_ITEMS;
     private int menuIndex = 0;
 
     // ======= JOGO =======
-    private Fighter player;
-    private Fighter ai;
-
-    private int playerStamina = MAX_STAMINA;
-
-    private final Random random = new Random();
-    private final List<Spectator> spectators = new ArrayList<>();
-    private final List<Particle> particles = new ArrayList<>();
+    // regras da partida (headless); null fora de uma partida
+    private GameSimulation sim;
+
+    private final Random random = new Random(); // só para efeitos visuais
+    private final ParticleSystem particles = new ParticleSystem();
+    private final MatchEffects effects = new MatchEffects(particles, random);
+    private final GameRenderer renderer = new GameRenderer(random);
+
+    // overlay de desempenho (F3): medido sempre, desenhado só quando ligado
+    private final PerfMonitor perf = new PerfMonitor();
+    private final PerfOverlay perfOverlay = new PerfOverlay();
+    private volatile boolean showPerf = false;
+
+    // replay: toda partida é gravada (seed + input por tick); na reprodução o input vem do arquivo
+    private final ReplayRecorder recorder = new ReplayRecorder();
+    private Replay replay;
+
+    // visualizador de replay: velocidade em quartos de tick por tick (1 = 0,25x ... 32 = 8x)
+    private static final int[] REPLAY_SPEEDS = { 1, 2, 4, 8, 16, 32 };
+    private static final int REPLAY_SPEED_NORMAL = 2;
+    private static final long REPLAY_SEEK_TICKS = 5000 / GameSimulation.TICK_MS;
+    private int replaySpeed = REPLAY_SPEED_NORMAL;
+    private int replayQuarters = 0;
+
+    // partida online (rollback); null fora dela
+    private RollbackSession net;
+
+    // espectador de uma transmissão; null fora dela
+    private SpectatorClient watch;
+    // transmite a partida desta janela (--broadcast=PORTA); null se desligado
+    private SpectatorBroadcaster broadcast;
+
+    // IA do oponente (--ai=); null = thinkAI da simulação
+    private String aiKind = "classic";
+    private OpponentAi opponent;
+
+    // quick-save ao pausar: o snapshot é tirado na thread do jogo e gravado nesta, em ordem
+    private final ExecutorService quickSaver = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "quick-save");
+        t.setDaemon(true);
+        return t;
+    });
 
     // Input contínuo
     private boolean leftPressed = false;
     private boolean rightPressed = false;
+    private int pendingPunch = 0; // golpe pedido desde o último tick (bit INPUT_*)
+
+    // Loop: lógica em passo fixo numa thread própria; o EDT só desenha (interpolado)
+    static final int DEFAULT_FPS = 60;
+    static final int MIN_FPS = 30, MAX_FPS = 360; // --fps= fora disso é ajustado
+    private static final long TICK_NS = GameSimulation.TICK_MS * 1_000_000L;
+    private static final long MAX_LAG_NS = 250_000_000L; // evita "espiral da morte" após travadas
+    private static final long SPIN_NS = 1_000_000L; // último 1 ms em espera ativa (precisão)
+    private static final int BUFFERS = 3;
+    private final Thread gameThread;
+    private final int targetFps;
+
+    // render passivo: Timer do Swing pede repaint() e o EDT desenha em paintComponent.
+    // render ativo: um Canvas com BufferStrategy desenhado por uma thread própria no ritmo do fps;
+    // o painel continua sendo o dono das key bindings (o Canvas não recebe foco)
+    private Canvas canvas;
+    private Thread renderThread;
+    private Timer repaintTimer;
+
+    // EDT -> thread do jogo (teclas) e thread do jogo -> EDT (frames)
+    private final InputQueue input = new InputQueue(256);
+    private final TripleBuffer<RenderFrame> frames = new TripleBuffer<>(RenderFrame::new);
 
-    // Timer do round
-    private long roundTimeLeftMs = ROUND_MS;
-    private int currentRound = 1;
+    // Som
+    private final SoundPlayer sounds = new SoundPlayer();
 
-    // Placar de rounds
-    private int playerRoundsWon = 0;
-    private int aiRoundsWon = 0;
+    // eventos da simulação -> som e partículas
+    private final GameSimulation.Listener simEvents = new GameSimulation.Listener() {
+        @Override
+        public void onRoundStart(int round) {
+            effects.onRoundStart(round);
+        }
 
-    // Controle de transições (fim do round)
-    private long roundEndHoldMs = 0;
-    private String roundEndMessage = "";
+        @Override
+        public void onHit(Fighter attacker, Fighter defender, PunchType type, int damage) {
+            effects.onHit(attacker, defender, type, damage);
+            GameEvents.MATCH.onHit(attacker, defender, type, damage);
+        }
 
-    // IA
-    private long lastAIThinkMs = 0;
-    private long nextAIThinkDelayMs = 600;
+        @Override
+        public void onAiDecision(String band, String action, int distance) {
+            GameEvents.MATCH.onAiDecision(band, action, distance);
+        }
 
-    // Loop
-    private final Timer gameTimer;
-    private long lastTickNs = System.nanoTime();
+        @Override
+        public void onRoundEnd(int round, int winner, boolean ko, long roundElapsedMs) {
+            effects.onRoundEnd(round, winner, ko, roundElapsedMs);
+        }
 
-    // Som
-    private final SoundPlayer sounds = new SoundPlayer();
+        @Override
+        public void onSound(Sound sound, float pan) {
+            sounds.play(sound, 1f, pan);
+        }
+    };
+
+    // como a janela começa (no máximo um preenchido; nenhum = menu)
+    static final class Launch {
+        Replay replay;
+        ByteBuffer resume;
+        RollbackSession net;
+        SpectatorClient watch;
+        SpectatorBroadcaster broadcast; // combina com qualquer um dos outros (ou com o menu)
+        String ai = "classic"; // OpponentAi.create das partidas iniciadas pelo menu
+    }
 
-    public GamePanel() {
+    public GamePanel(int targetFps, boolean activeRendering, Launch launch) {
+        this.targetFps = targetFps;
         setPreferredSize(new Dimension(WIDTH, HEIGHT));
-        setBackground(new Color(40, 40, 60));
+        setBackground(GameRenderer.BACKGROUND);
         setFocusable(true);
 
-        generateSpectators();
         setupKeyBindings();
+        aiKind = launch.ai;
+        // antes de a thread do jogo começar
+        if (launch.replay != null)
+            startReplay(launch.replay);
+        else if (launch.resume != null)
+            resumeMatch(launch.resume);
+        else if (launch.net != null)
+            startNet(launch.net);
+        else if (launch.watch != null)
+            startWatch(launch.watch);
+        broadcast = launch.broadcast;
+        if (broadcast != null)
+            broadcast.start();
+        publishFrame();
+
+        gameThread = new Thread(this::runGameLoop, "game-logic");
+        gameThread.setDaemon(true);
+        gameThread.setPriority(Thread.MAX_PRIORITY - 1);
+        gameThread.start();
+
+        if (activeRendering) {
+            setLayout(new BorderLayout());
+            canvas = new Canvas();
+            canvas.setIgnoreRepaint(true);
+            canvas.setFocusable(false);
+            canvas.setBackground(GameRenderer.BACKGROUND);
+            add(canvas, BorderLayout.CENTER);
+            // a BufferStrategy só pode ser criada com o Canvas exibível: ver addNotify
+        } else {
+            startPassiveRendering();
+        }
+    }
+
+    private void startPassiveRendering() {
+        repaintTimer = new Timer(Math.max(1, 1000 / targetFps), e -> repaint());
+        repaintTimer.start();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (canvas == null || renderThread != null)
+            return;
+
+        try {
+            canvas.createBufferStrategy(BUFFERS);
+        } catch (RuntimeException e) {
+            // sem BufferStrategy: volta para o caminho passivo
+            System.err.println("Render ativo indisponível, usando repaint(): " + e);
+            remove(canvas);
+            canvas = null;
+            startPassiveRendering();
+            return;
+        }
+
+        renderThread = new Thread(this::runRenderLoop, "render");
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    // render ativo: desenha, apresenta com show() e espera o próximo frame (sleep + spin)
+    private void runRenderLoop() {
+        BufferStrategy strategy = canvas.getBufferStrategy();
+        long frameNs = 1_000_000_000L / targetFps;
+        long nextFrameNs = System.nanoTime();
+        while (true) {
+            // ciclo padrão de BufferStrategy: refaz o frame se o buffer foi restaurado ou perdido
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        renderLatestFrame(g);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+
+            nextFrameNs += frameNs;
+            long now = System.nanoTime();
+            if (now - nextFrameNs > MAX_LAG_NS)
+                nextFrameNs = now;
+            waitUntil(nextFrameNs);
+        }
+    }
 
-        gameTimer = new Timer(16, e -> {
-            long nowNs = System.nanoTime();
-            long dtNs = nowNs - lastTickNs;
-            lastTickNs = nowNs;
+    // dorme até perto do prazo e completa em espera ativa
+    private static void waitUntil(long deadlineNs) {
+        long wait = deadlineNs - System.nanoTime();
+        if (wait > SPIN_NS)
+            LockSupport.parkNanos(wait - SPIN_NS);
+        while (deadlineNs - System.nanoTime() > 0)
+            Thread.onSpinWait();
+    }
 
-            if (state == GameState.ROUND_INTRO) {
-                updateIntro(dtNs);
-            } else if (state == GameState.PLAYING) {
-                update(dtNs);
-            } else if (state == GameState.ROUND_END) {
-                updateRoundEnd(dtNs);
+    // só a thread do jogo: contagem de ticks e último estado visto (eventos JFR)
+    private long loopTicks = 0;
+    private GameState lastState = GameState.MENU;
+
+    private void runGameLoop() {
+        long nextTickNs = System.nanoTime();
+        while (true) {
+            long now = System.nanoTime();
+            if (now - nextTickNs > MAX_LAG_NS)
+                nextTickNs = now;
+
+            // roda todos os ticks vencidos, depois publica um frame
+            while (now - nextTickNs >= 0) {
+                GameEvents.TickEvent event = GameEvents.enabled ? GameEvents.beginTick() : null;
+                long t0 = System.nanoTime();
+                drainInput();
+                tick();
+                if (broadcast != null && sim != null && watch == null)
+                    broadcast.publish(sim);
+                perf.recordTick(System.nanoTime() - t0);
+                loopTicks++;
+                if (event != null)
+                    GameEvents.endTick(event, loopTicks, state);
+                if (state != lastState) {
+                    if (GameEvents.enabled)
+                        GameEvents.stateChange(lastState, state);
+                    lastState = state;
+                }
+                nextTickNs += TICK_NS;
             }
+            publishFrame();
+            waitUntil(nextTickNs);
+        }
+    }
 
-            repaint();
-        });
-        gameTimer.start();
+    private void drainInput() {
+        int cmd;
+        while ((cmd = input.poll()) != InputQueue.EMPTY)
+            handleCommand(cmd);
+    }
+
+    private void publishFrame() {
+        RenderFrame f = frames.writeSlot();
+        f.capture(state, menuIndex, selectedColor, selectedDifficulty, sim, particles);
+        f.netWaiting = net != null && !net.isConnected() || watch != null && !watch.hasState();
+        f.spectator = watch != null;
+        f.localIsP2 = net != null && !net.isHost();
+        f.replay = replay != null;
+        if (f.replay) {
+            f.replayTick = replay.getTick();
+            f.replayTicks = replay.ticks;
+            f.replaySpeed = replaySpeed;
+        }
+        frames.publish();
+    }
+
+    // um passo fixo de lógica (TICK_MS), independente do fps
+    private void tick() {
+        // guarda a posição anterior para a interpolação do render
+        particles.beginTick();
+
+        if (net != null) {
+            tickNet();
+            return;
+        }
+        if (watch != null) {
+            tickWatch();
+            return;
+        }
+        if (sim == null || state == GameState.PAUSED)
+            return;
+
+        int in = pendingPunch;
+        if (leftPressed)
+            in |= GameSimulation.INPUT_LEFT;
+        if (rightPressed)
+            in |= GameSimulation.INPUT_RIGHT;
+        pendingPunch = 0;
+
+        if (replay != null) {
+            tickReplay();
+            return;
+        }
+        if (recorder.isActive())
+            recorder.record(in, sim);
+
+        sim.tick(in, opponent != null ? opponent.nextInput(sim) : 0);
+        effects.afterTick(sim);
+
+        state = sim.getState();
+
+        if (recorder.isActive() && sim.isOver())
+            saveReplay();
+    }
+
+    // reprodução: 0..8 ticks da simulação por tick, conforme a velocidade; a simulação para no
+    // último tick gravado (partidas abandonadas ficam congeladas), os efeitos continuam
+    private void tickReplay() {
+        replayQuarters += REPLAY_SPEEDS[replaySpeed];
+        while (replayQuarters >= 4) {
+            replayQuarters -= 4;
+            if (!replay.isDone()) {
+                sim.tick(replay.nextInput());
+                if (replay.isDone())
+                    checkReplay();
+            }
+            effects.afterTick(sim);
+        }
+        state = sim.getState();
     }
 
-    // ======= DIFICULDADE =======
-    private enum Difficulty {
-        EASY("Fácil", 760, 1200, 0.45, 0.50, 4, 1),
-        MEDIUM("Médio", 520, 900, 0.60, 0.65, 5, 2),
-        HARD("Difícil", 320, 650, 0.75, 0.78, 6, 3);
+    // online: rede e rollback primeiro, depois (se o outro lado não estiver muito atrás) o input
+    // local deste tick; sem pausa, que só pararia um dos lados
+    private void tickNet() {
+        try {
+            net.poll();
+        } catch (IOException e) {
+            System.err.println("Erro de rede: " + e);
+            resetAllToMenu();
+            return;
+        }
+        if (!net.isConnected())
+            return;
 
-        final String label;
-        final int thinkMinMs;
-        final int thinkMaxMs;
-        final double attackChanceClose;
-        final double attackChanceMid;
-        final int aiSpeed;
-        final int aiDamageBonus;
+        sim = net.getSimulation();
+        if (net.canAdvance()) {
+            int in = pendingPunch;
+            if (leftPressed)
+                in |= GameSimulation.INPUT_LEFT;
+            if (rightPressed)
+                in |= GameSimulation.INPUT_RIGHT;
+            pendingPunch = 0;
+            net.advance(in);
+        }
+        effects.afterTick(sim);
+        state = sim.getState();
+    }
 
-        Difficulty(String label, int thinkMinMs, int thinkMaxMs,
-                double attackChanceClose, double attackChanceMid,
-                int aiSpeed, int aiDamageBonus) {
-            this.label = label;
-            this.thinkMinMs = thinkMinMs;
-            this.thinkMaxMs = thinkMaxMs;
-            this.attackChanceClose = attackChanceClose;
-            this.attackChanceMid = attackChanceMid;
-            this.aiSpeed = aiSpeed;
-            this.aiDamageBonus = aiDamageBonus;
+    // espectador: o estado vem pronto da transmissão; entre pacotes só os efeitos andam
+    private void tickWatch() {
+        try {
+            watch.poll();
+        } catch (IOException e) {
+            System.err.println("Erro na transmissão: " + e);
+            resetAllToMenu();
+            return;
         }
+        if (!watch.hasState())
+            return;
+        sim = watch.getSimulation();
+        effects.afterTick(sim);
+        state = sim.getState();
+    }
+
+    // busca no replay: restaura o keyframe mais próximo e re-simula em silêncio
+    private void seekReplay(long deltaTicks) {
+        sim.setListener(null);
+        replay.seek(sim, replay.getTick() + deltaTicks);
+        sim.setListener(simEvents);
+        effects.resync(sim);
+        replayQuarters = 0;
+        if (state != GameState.PAUSED)
+            state = sim.getState();
     }
 
     // ======= SETUP / RESET =======
     private void resetAllToMenu() {
+        if (recorder.isActive())
+            saveReplay(); // partida abandonada também vira replay
+        replay = null;
+        if (net != null) {
+            try {
+                net.getLink().close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar a conexão: " + e);
+            }
+            net = null;
+        }
+        if (watch != null) {
+            try {
+                watch.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar a conexão: " + e);
+            }
+            watch = null;
+        }
+
         state = GameState.MENU;
         menuIndex = 0;
 
         selectedColor = 0;
         selectedDifficulty = Difficulty.MEDIUM;
 
-        player = null;
-        ai = null;
+        sim = null;
+        opponent = null;
         particles.clear();
 
         leftPressed = false;
         rightPressed = false;
-
-        currentRound = 1;
-        playerRoundsWon = 0;
-        aiRoundsWon = 0;
-        roundTimeLeftMs = ROUND_MS;
-
-        roundEndHoldMs = 0;
-        roundEndMessage = "";
-
-        lastAIThinkMs = 0;
-        nextAIThinkDelayMs = 600;
-
-        // stamina reset
-        playerStamina = MAX_STAMINA;
-        staminaOnCooldown = false;
-        staminaCooldownLeftMs = 0;
-
-        introMsLeft = 0;
+        pendingPunch = 0;
     }
 
     private void startMatch() {
-        playerRoundsWon = 0;
-        aiRoundsWon = 0;
-        currentRound = 1;
-        startRound();
+        leftPressed = false;
+        rightPressed = false;
+        pendingPunch = 0;
+
+        long seed = new Random().nextLong();
+        sim = new GameSimulation(selectedDifficulty, new GameRng(seed));
+        sim.setListener(simEvents);
+        opponent = OpponentAi.create(aiKind, selectedDifficulty);
+        sim.setExternalOpponent(opponent != null);
+        sim.startMatch();
+        state = sim.getState();
+        // o replay guarda só o input do jogador: com IA de fora a partida não se reproduz
+        if (opponent == null)
+            recorder.start(seed, selectedDifficulty, selectedColor);
     }
 
-    private void startRound() {
+    private void startReplay(Replay r) {
+        replay = r;
+        replay.rewind();
+        replaySpeed = REPLAY_SPEED_NORMAL;
+        replayQuarters = 0;
+        selectedColor = r.color;
+        selectedDifficulty = r.difficulty;
         particles.clear();
 
-        player = new Fighter(200, GROUND, shortColors[selectedColor], true);
-        ai = new Fighter(550, GROUND, new Color(100, 100, 100), false);
-
-        // dificuldade
-        ai.setMoveSpeed(selectedDifficulty.aiSpeed);
-        ai.setDamageBonus(selectedDifficulty.aiDamageBonus);
-
-        // stamina e tempo
-        playerStamina = MAX_STAMINA;
-        staminaOnCooldown = false;
-        staminaCooldownLeftMs = 0;
+        sim = r.newSimulation();
+        sim.setListener(simEvents);
+        sim.startMatch();
+        state = sim.getState();
+    }
 
-        roundTimeLeftMs = ROUND_MS;
-        leftPressed = false;
-        rightPressed = false;
+    private void startWatch(SpectatorClient client) {
+        watch = client;
+        watch.setListener(simEvents);
+        sim = null;
+        state = GameState.ROUND_INTRO; // a tela de espera sai pelo frame (netWaiting)
+    }
 
-        lastAIThinkMs = System.currentTimeMillis();
-        nextAIThinkDelayMs = randBetween(selectedDifficulty.thinkMinMs, selectedDifficulty.thinkMaxMs);
+    private void startNet(RollbackSession session) {
+        net = session;
+        net.setListener(simEvents);
+        sim = null;
+        state = GameState.ROUND_INTRO; // a tela de espera sai pelo frame (netWaiting)
+    }
 
-        // intro
-        introMsLeft = INTRO_TOTAL_MS;
-        state = GameState.ROUND_INTRO;
+    // partida retomada de um snapshot: começa pausada e não grava replay (não há seed do início)
+    private void resumeMatch(ByteBuffer snapshot) {
+        selectedColor = MatchSnapshot.color(snapshot, 0);
+        selectedDifficulty = MatchSnapshot.difficulty(snapshot, 0);
+        sim = MatchSnapshot.newSimulation(snapshot, 0);
+        sim.setListener(simEvents);
+        // a IA de fora não vai no snapshot: usa a do --ai atual ou volta ao thinkAI
+        if (sim.hasExternalOpponent()) {
+            opponent = OpponentAi.create(aiKind, selectedDifficulty);
+            sim.setExternalOpponent(opponent != null);
+        }
+        effects.resync(sim);
+        state = GameState.PAUSED;
+    }
 
-        sounds.play("sounds/bell.wav");
+    // disco lento não pode travar o loop: só o snapshot (um buffer novo por pausa) fica nesta thread
+    private void quickSave() {
+        ByteBuffer snapshot = ByteBuffer.allocate(MatchSnapshot.SIZE);
+        MatchSnapshot.write(sim, selectedColor, snapshot, 0);
+        quickSaver.execute(() -> {
+            try {
+                MatchSnapshot.save(snapshot, MatchSnapshot.QUICK_SAVE);
+            } catch (IOException e) {
+                System.err.println("Não foi possível salvar a partida: " + e);
+            }
+        });
     }
 
-    private void updateIntro(long dtNs) {
-        long dtMs = dtNs / 1_000_000L;
-        introMsLeft -= dtMs;
-        if (introMsLeft <= 0) {
-            introMsLeft = 0;
-            state = GameState.PLAYING;
+    // grava em disco na thread do jogo: acontece uma vez por partida
+    private void saveReplay() {
+        byte[] bytes = recorder.finish(sim.stateHash());
+        try {
+            Path file = ReplayRecorder.save(bytes, Replay.DEFAULT_DIR);
+            System.out.println("Replay salvo: " + file + " (" + bytes.length + " bytes)");
+        } catch (IOException e) {
+            System.err.println("Não foi possível salvar o replay: " + e);
         }
     }
 
-    private void endRound(String message) {
-        state = GameState.ROUND_END;
-        roundEndMessage = message;
-        roundEndHoldMs = 0;
+    private void checkReplay() {
+        long hash = sim.stateHash();
+        System.out.printf("Replay terminou no tick %d: %s (hash %016x)%n", replay.getTick(),
+                hash == replay.finalHash ? "OK" : "DIVERGIU", hash);
     }
 
-    private void finishGame(String message) {
-        state = GameState.GAME_OVER;
-        roundEndMessage = message;
+    // ======= RENDER =======
+    @Override
+    protected void paintComponent(Graphics g) {
+        // no modo ativo quem desenha é a thread "render" (o Canvas cobre o painel)
+        if (canvas == null)
+            renderLatestFrame((Graphics2D) g);
     }
 
-    // ======= UPDATE =======
-    private void update(long dtNs) {
-        if (player == null || ai == null)
-            return;
-
-        long dtMs = dtNs / 1_000_000L;
+    // só lê o último frame publicado pela thread do jogo (EDT no modo passivo, thread "render" no ativo)
+    private void renderLatestFrame(Graphics2D g) {
+        long start = System.nanoTime();
+        perf.beginFrame(start);
 
-        // ===== STAMINA: cooldown de 6s quando zera =====
-        if (staminaOnCooldown) {
-            staminaCooldownLeftMs -= dtMs;
-            if (staminaCooldownLeftMs <= 0) {
-                staminaCooldownLeftMs = 0;
-                staminaOnCooldown = false;
-                playerStamina = MAX_STAMINA; // recarrega 100%
-            }
-        }
+        RenderFrame f = frames.read();
+        float alpha = f.state == GameState.PAUSED ? 1f
+                : Math.max(0f, Math.min(1f, (start - f.publishedNs) / (float) TICK_NS));
+        renderer.render(g, f, alpha);
 
-        // tempo
-        roundTimeLeftMs -= dtMs;
-        if (roundTimeLeftMs < 0)
-            roundTimeLeftMs = 0;
+        perf.endFrame(System.nanoTime() - start);
+        if (showPerf)
+            perfOverlay.draw(g, perf, f);
+    }
 
-        // movimento player
-        if (leftPressed)
-            player.move(-1, WIDTH);
-        if (rightPressed)
-            player.move(+1, WIDTH);
+    // ======= INPUT (KEY BINDINGS) =======
+    // comandos enviados do EDT para a thread do jogo
+    private static final int CMD_UP = 1;
+    private static final int CMD_DOWN = 2;
+    private static final int CMD_LEFT = 3;
+    private static final int CMD_RIGHT = 4;
+    private static final int CMD_ENTER = 5;
+    private static final int CMD_ESC = 6;
+    private static final int CMD_PAUSE = 7;
+    private static final int CMD_PRESS_A = 8;
+    private static final int CMD_RELEASE_A = 9;
+    private static final int CMD_PRESS_D = 10;
+    private static final int CMD_RELEASE_D = 11;
+    private static final int CMD_JAB = 12;
+    private static final int CMD_HOOK = 13;
+    private static final int CMD_CROSS = 14;
 
-        player.update();
-        ai.update();
+    private void setupKeyBindings() {
+        int cond = JComponent.WHEN_IN_FOCUSED_WINDOW;
+        InputMap im = getInputMap(cond);
+        ActionMap am = getActionMap();
 
-        player.setFacing(ai.getX() >= player.getX());
-        ai.setFacing(player.getX() >= ai.getX());
+        bind(im, am, "UP", "up", CMD_UP);
+        bind(im, am, "DOWN", "down", CMD_DOWN);
+        bind(im, am, "ENTER", "enter", CMD_ENTER);
+        bind(im, am, "ESCAPE", "esc", CMD_ESC);
+        bind(im, am, "P", "pause", CMD_PAUSE);
 
-        // IA
-        long now = System.currentTimeMillis();
-        if (now - lastAIThinkMs >= nextAIThinkDelayMs) {
-            thinkAI();
-            lastAIThinkMs = now;
-            nextAIThinkDelayMs = randBetween(selectedDifficulty.thinkMinMs, selectedDifficulty.thinkMaxMs);
-        }
+        bind(im, am, "pressed A", "pressA", CMD_PRESS_A);
+        bind(im, am, "released A", "releaseA", CMD_RELEASE_A);
+        bind(im, am, "pressed D", "pressD", CMD_PRESS_D);
+        bind(im, am, "released D", "releaseD", CMD_RELEASE_D);
 
-        // hits
-        checkHits(player, ai);
-        checkHits(ai, player);
+        bind(im, am, "J", "jab", CMD_JAB);
+        bind(im, am, "K", "hook", CMD_HOOK);
+        bind(im, am, "L", "cross", CMD_CROSS);
 
-        // partículas
-        for (int i = particles.size() - 1; i >= 0; i--) {
-            Particle p = particles.get(i);
-            p.update();
-            if (!p.isAlive())
-                particles.remove(i);
-        }
+        bind(im, am, "LEFT", "left", CMD_LEFT);
+        bind(im, am, "RIGHT", "right", CMD_RIGHT);
 
-        // KO?
-        if (player.isDead() || ai.isDead()) {
-            sounds.play("sounds/ko.wav");
-            if (player.isDead() && ai.isDead()) {
-                awardRoundByHealth("Round " + currentRound + ": Double KO! (empate)");
-            } else if (player.isDead()) {
-                aiRoundsWon++;
-                if (aiRoundsWon >= 3 || currentRound >= ROUNDS_TOTAL)
-                    finishGame("Você perdeu por KO!");
-                else
-                    endRound("Round " + currentRound + ": Você levou KO!");
-            } else {
-                playerRoundsWon++;
-                if (playerRoundsWon >= 3 || currentRound >= ROUNDS_TOTAL)
-                    finishGame("Você venceu por KO!");
-                else
-                    endRound("Round " + currentRound + ": KO! Você venceu!");
+        // só visual: alterna direto no EDT, sem passar pela thread do jogo
+        im.put(KeyStroke.getKeyStroke("F3"), "perf");
+        am.put("perf", new AbstractAction() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                showPerf = !showPerf;
             }
-            return;
-        }
-
-        // tempo acabou
-        if (roundTimeLeftMs == 0) {
-            awardRoundByHealth("Round " + currentRound + ": Tempo esgotado");
-        }
+        });
     }
 
-    private void awardRoundByHealth(String baseMsg) {
-        int ph = player.getHealth();
-        int ah = ai.getHealth();
+    private void bind(InputMap im, ActionMap am, String key, String name, int cmd) {
+        im.put(KeyStroke.getKeyStroke(key), name);
+        am.put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                input.offer(cmd);
+            }
+        });
+    }
 
-        if (ph > ah) {
-            playerRoundsWon++;
-            if (playerRoundsWon >= 3 || currentRound >= ROUNDS_TOTAL)
-                finishGame(baseMsg + " — Você venceu por pontos!");
-            else
-                endRound(baseMsg + " — Você venceu por pontos!");
-        } else if (ah > ph) {
-            aiRoundsWon++;
-            if (aiRoundsWon >= 3 || currentRound >= ROUNDS_TOTAL)
-                finishGame(baseMsg + " — Você perdeu por pontos!");
-            else
-                endRound(baseMsg + " — Você perdeu por pontos!");
-        } else {
-            if (currentRound >= ROUNDS_TOTAL) {
-                if (playerRoundsWon > aiRoundsWon)
-                    finishGame(baseMsg + " — Empate no round. Você vence no total!");
-                else if (aiRoundsWon > playerRoundsWon)
-                    finishGame(baseMsg + " — Empate no round. IA vence no total!");
-                else
-                    finishGame(baseMsg + " — Empate geral!");
-            } else {
-                endRound(baseMsg + " — Empate no round!");
-            }
-        }
-    }
-
-    private void updateRoundEnd(long dtNs) {
-        long dtMs = dtNs / 1_000_000L;
-        roundEndHoldMs += dtMs;
-
-        if (roundEndHoldMs >= 2000) {
-            currentRound++;
-            if (currentRound > ROUNDS_TOTAL) {
-                if (playerRoundsWon > aiRoundsWon)
-                    finishGame("Fim dos rounds — Você venceu!");
-                else if (aiRoundsWon > playerRoundsWon)
-                    finishGame("Fim dos rounds — Você perdeu!");
-                else
-                    finishGame("Fim dos rounds — Empate!");
-            } else {
-                startRound();
-            }
-        }
-    }
-
-    // ======= IA =======
-    private void thinkAI() {
-        if (player == null || ai == null)
-            return;
-
-        int dist = player.getX() - ai.getX();
-        int abs = Math.abs(dist);
-
-        boolean far = abs > 200;
-        boolean mid = abs > 120 && abs <= 200;
-        boolean close = abs <= 120;
-
-        if (far) {
-            ai.move(dist > 0 ? +1 : -1, WIDTH);
-            return;
-        }
-
-        if (mid) {
-            if (random.nextDouble() < selectedDifficulty.attackChanceMid) {
-                ai.punch(randomPunch());
-            } else {
-                int dir = dist > 0 ? +1 : -1;
-                if (random.nextBoolean())
-                    ai.move(dir, WIDTH);
-                else
-                    ai.move(-dir, WIDTH);
-            }
+    // roda na thread do jogo, no início do tick
+    private void handleCommand(int cmd) {
+        if (replay != null && handleReplayCommand(cmd))
             return;
-        }
-
-        if (close) {
-            if (random.nextDouble() < selectedDifficulty.attackChanceClose) {
-                ai.punch(randomPunch());
-            } else {
-                int dirAway = dist > 0 ? -1 : +1;
-                ai.move(dirAway, WIDTH);
-            }
-        }
-    }
-
-    private PunchType randomPunch() {
-        int r = random.nextInt(3);
-        return switch (r) {
-            case 0 -> PunchType.JAB;
-            case 1 -> PunchType.HOOK;
-            default -> PunchType.CROSS;
-        };
-    }
-
-    private void checkHits(Fighter attacker, Fighter defender) {
-        if (!attacker.isPunching())
+        if (net != null && handleNetCommand(cmd))
             return;
-        if (attacker.isHitRegistered())
+        if (watch != null && handleWatchCommand(cmd))
             return;
 
-        Rectangle hitBox = attacker.getHitBox();
-        Rectangle hurtBox = defender.getHurtBox();
-
-        if (hitBox.intersects(hurtBox)) {
-            int damage = 5 + random.nextInt(10) + attacker.getDamageBonus();
-            defender.takeDamage(damage);
-            attacker.setHitRegistered(true);
-            createHitEffect(defender.getX(), defender.getY() - 50);
-            sounds.play("sounds/punch.wav");
-        }
-    }
-
-    private void createHitEffect(int x, int y) {
-        for (int i = 0; i < 15; i++)
-            particles.add(new Particle(x, y, random));
-    }
-
-    private int randBetween(int a, int b) {
-        return a + random.nextInt(Math.max(1, (b - a + 1)));
-    }
-
-    // ======= INPUT (KEY BINDINGS) =======
-    private void setupKeyBindings() {
-        int cond = JComponent.WHEN_IN_FOCUSED_WINDOW;
-        InputMap im = getInputMap(cond);
-        ActionMap am = getActionMap();
-
-        im.put(KeyStroke.getKeyStroke("UP"), "up");
-        im.put(KeyStroke.getKeyStroke("DOWN"), "down");
-        im.put(KeyStroke.getKeyStroke("ENTER"), "enter");
-        im.put(KeyStroke.getKeyStroke("ESCAPE"), "esc");
-        im.put(KeyStroke.getKeyStroke("P"), "pause");
-
-        im.put(KeyStroke.getKeyStroke("pressed A"), "pressA");
-        im.put(KeyStroke.getKeyStroke("released A"), "releaseA");
-        im.put(KeyStroke.getKeyStroke("pressed D"), "pressD");
-        im.put(KeyStroke.getKeyStroke("released D"), "releaseD");
-
-        im.put(KeyStroke.getKeyStroke("J"), "jab");
-        im.put(KeyStroke.getKeyStroke("K"), "hook");
-        im.put(KeyStroke.getKeyStroke("L"), "cross");
-
-        im.put(KeyStroke.getKeyStroke("LEFT"), "left");
-        im.put(KeyStroke.getKeyStroke("RIGHT"), "right");
-
-        am.put("up", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+        switch (cmd) {
+            case CMD_UP -> {
                 if (state == GameState.MENU)
                     menuIndex = (menuIndex - 1 + menuItems.length) % menuItems.length;
                 else if (state == GameState.SETUP)
                     menuIndex = (menuIndex - 1 + 2) % 2;
             }
-        });
-
-        am.put("down", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+            case CMD_DOWN -> {
                 if (state == GameState.MENU)
                     menuIndex = (menuIndex + 1) % menuItems.length;
                 else if (state == GameState.SETUP)
                     menuIndex = (menuIndex + 1) % 2;
             }
-        });
-
-        am.put("left", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+            case CMD_LEFT -> {
                 if (state == GameState.SETUP) {
                     if (menuIndex == 0)
                         selectedColor = (selectedColor - 1 + SELECTION_COUNT) % SELECTION_COUNT;
@@ -510,11 +911,7 @@ class GamePanel extends JPanel {
                         selectedDifficulty = prevDifficulty(selectedDifficulty);
                 }
             }
-        });
-
-        am.put("right", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+            case CMD_RIGHT -> {
                 if (state == GameState.SETUP) {
                     if (menuIndex == 0)
                         selectedColor = (selectedColor + 1) % SELECTION_COUNT;
@@ -522,11 +919,7 @@ class GamePanel extends JPanel {
                         selectedDifficulty = nextDifficulty(selectedDifficulty);
                 }
             }
-        });
-
-        am.put("enter", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+            case CMD_ENTER -> {
                 if (state == GameState.MENU) {
                     String item = menuItems[menuIndex];
                     if (item.equals("Jogar")) {
@@ -545,112 +938,88 @@ class GamePanel extends JPanel {
                     resetAllToMenu();
                 }
             }
-        });
-
-        am.put("esc", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+            case CMD_ESC -> {
                 if (state == GameState.HOW_TO_PLAY || state == GameState.SETUP || state == GameState.GAME_OVER) {
                     resetAllToMenu();
                 } else if (state == GameState.PAUSED) {
                     resetAllToMenu();
                 }
             }
-        });
-
-        am.put("pause", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
-                if (state == GameState.PLAYING)
+            case CMD_PAUSE -> {
+                if (state == GameState.PLAYING) {
                     state = GameState.PAUSED;
-                else if (state == GameState.PAUSED)
-                    state = GameState.PLAYING;
+                    quickSave();
+                } else if (state == GameState.PAUSED)
+                    state = sim.getState();
             }
-        });
-
-        am.put("pressA", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+            case CMD_PRESS_A -> {
                 if (state == GameState.PLAYING)
                     leftPressed = true;
             }
-        });
-        am.put("releaseA", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
-                leftPressed = false;
-            }
-        });
-
-        am.put("pressD", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
+            case CMD_RELEASE_A -> leftPressed = false;
+            case CMD_PRESS_D -> {
                 if (state == GameState.PLAYING)
                     rightPressed = true;
             }
-        });
-        am.put("releaseD", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
-                rightPressed = false;
+            case CMD_RELEASE_D -> rightPressed = false;
+            case CMD_JAB -> queuePunch(GameSimulation.INPUT_JAB);
+            case CMD_HOOK -> queuePunch(GameSimulation.INPUT_HOOK);
+            case CMD_CROSS -> queuePunch(GameSimulation.INPUT_CROSS);
+            default -> {
             }
-        });
+        }
+    }
 
-        am.put("jab", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
-                if (state == GameState.PLAYING && player != null)
-                    tryPunch(PunchType.JAB);
-            }
-        });
-        am.put("hook", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
-                if (state == GameState.PLAYING && player != null)
-                    tryPunch(PunchType.HOOK);
+    // no replay: ← → voltam/avançam 5 s, ↑ ↓ mudam a velocidade, P pausa em qualquer estado;
+    // devolve false para os comandos que seguem o fluxo normal (ENTER/ESC)
+    private boolean handleReplayCommand(int cmd) {
+        switch (cmd) {
+            case CMD_LEFT -> seekReplay(-REPLAY_SEEK_TICKS);
+            case CMD_RIGHT -> seekReplay(REPLAY_SEEK_TICKS);
+            case CMD_UP -> replaySpeed = Math.min(REPLAY_SPEEDS.length - 1, replaySpeed + 1);
+            case CMD_DOWN -> replaySpeed = Math.max(0, replaySpeed - 1);
+            case CMD_PAUSE -> state = state == GameState.PAUSED ? sim.getState() : GameState.PAUSED;
+            case CMD_ENTER, CMD_ESC -> {
+                return false;
             }
-        });
-        am.put("cross", new AbstractAction() {
-            @Override
-            public void actionPerformed(java.awt.event.ActionEvent e) {
-                if (state == GameState.PLAYING && player != null)
-                    tryPunch(PunchType.CROSS);
+            default -> {
             }
-        });
+        }
+        return true;
     }
 
-    private void tryPunch(PunchType type) {
-        // se estiver em recarga, não deixa bater
-        if (staminaOnCooldown)
-            return;
-
-        int cost = switch (type) {
-            case JAB -> COST_JAB;
-            case HOOK -> COST_HOOK;
-            case CROSS -> COST_CROSS;
-        };
-
-        // evita golpe durante animação atual
-        if (player.isPunching())
-            return;
-
-        // sem stamina = inicia cooldown de 6s
-        if (playerStamina < cost) {
-            if (playerStamina <= 0 && !staminaOnCooldown) {
-                staminaOnCooldown = true;
-                staminaCooldownLeftMs = STAMINA_RECHARGE_COOLDOWN_MS;
+    // online: sem pausa; ESC (ou ENTER no fim) encerra a conexão e volta ao menu
+    private boolean handleNetCommand(int cmd) {
+        switch (cmd) {
+            case CMD_PAUSE -> {
+                return true;
+            }
+            case CMD_ESC -> {
+                resetAllToMenu();
+                return true;
+            }
+            case CMD_ENTER -> {
+                if (state == GameState.GAME_OVER)
+                    resetAllToMenu();
+                return true;
+            }
+            default -> {
+                return false;
             }
-            return;
         }
+    }
 
-        playerStamina -= cost;
-        if (playerStamina <= 0) {
-            playerStamina = 0;
-            staminaOnCooldown = true;
-            staminaCooldownLeftMs = STAMINA_RECHARGE_COOLDOWN_MS;
-        }
+    // espectador: só ESC (volta ao menu); o resto não mexe na partida de ninguém
+    private boolean handleWatchCommand(int cmd) {
+        if (cmd == CMD_ESC)
+            resetAllToMenu();
+        return true;
+    }
 
-        player.punch(type);
+    // só o primeiro golpe entre dois ticks conta (os outros cairiam na animação)
+    private void queuePunch(int punchBit) {
+        if (state == GameState.PLAYING && pendingPunch == 0)
+            pendingPunch = punchBit;
     }
 
     private Difficulty nextDifficulty(Difficulty d) {
@@ -669,136 +1038,242 @@ class GamePanel extends JPanel {
         };
     }
 
-    // ======= RENDER =======
-    @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        Graphics2D gg = (Graphics2D) g;
+}
+
+// ======= RENDER (desenha um RenderFrame; usado pelo painel e pelo benchmark) =======
+final class GameRenderer {
+    static final int WIDTH = GameSimulation.ARENA_WIDTH;
+    static final int HEIGHT = 600;
+    private static final int GROUND = GameSimulation.GROUND;
+
+    static final Color BACKGROUND = new Color(40, 40, 60);
+
+    static final String[] MENU_ITEMS = { "Jogar", "Como jogar", "Sair" };
+    static final String[] COLOR_NAMES = { "Preto", "Azul", "Vermelho" };
+    static final Color[] SHORT_COLORS = { Color.BLACK, new Color(0, 100, 255), new Color(220, 20, 20) };
+    static final Color AI_SHORT_COLOR = new Color(100, 100, 100);
+
+    private final List<Spectator> spectators = new ArrayList<>();
+    private final RenderResources res = new RenderResources();
+
+    // camada estática (fundo + torcida + ringue): rasterizada uma vez e copiada inteira a cada frame.
+    // VolatileImage quando há tela (pode ser perdida e refeita), BufferedImage no modo headless
+    private VolatileImage volatileLayer;
+    private BufferedImage bufferedLayer;
+    private boolean layerDirty = true;
+
+    public GameRenderer(Random random) {
+        generateSpectators(random);
+    }
+
+    // desenha um frame completo (fundo incluído); alpha = fração do tick para interpolar
+    public void render(Graphics2D gg, RenderFrame f, float alpha) {
         gg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-        switch (state) {
-            case MENU -> drawMenu(gg);
-            case HOW_TO_PLAY -> drawHowTo(gg);
-            case SETUP -> drawSetup(gg);
-            default -> drawGame(gg);
+        if (f.netWaiting) {
+            fillBackground(gg);
+            RenderResources.Label waiting = f.spectator ? res.watchWaiting : res.netWaiting;
+            waiting.draw(gg, WIDTH / 2 - waiting.width() / 2, HEIGHT / 2);
+            res.netWaitingEsc.draw(gg, WIDTH / 2 - res.netWaitingEsc.width() / 2, HEIGHT / 2 + 40);
+            return;
+        }
+
+        switch (f.state) {
+            case MENU -> {
+                fillBackground(gg);
+                drawMenu(gg, f);
+            }
+            case HOW_TO_PLAY -> {
+                fillBackground(gg);
+                drawHowTo(gg);
+            }
+            case SETUP -> {
+                fillBackground(gg);
+                drawSetup(gg, f);
+            }
+            default -> drawGame(gg, f, alpha);
         }
 
-        if (state == GameState.ROUND_INTRO)
-            drawIntroOverlay(gg);
-        if (state == GameState.PAUSED)
+        if (f.state == GameState.ROUND_INTRO)
+            drawIntroOverlay(gg, f);
+        if (f.state == GameState.PAUSED)
             drawPauseOverlay(gg);
-        if (state == GameState.ROUND_END)
-            drawRoundEndOverlay(gg);
-        if (state == GameState.GAME_OVER)
-            drawGameOverOverlay(gg);
+        if (f.state == GameState.ROUND_END)
+            drawRoundEndOverlay(gg, f);
+        if (f.state == GameState.GAME_OVER)
+            drawGameOverOverlay(gg, f);
     }
 
-    private void drawMenu(Graphics2D g) {
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.BOLD, 54));
-        g.drawString("BOXING GAME", WIDTH / 2 - 210, 120);
+    private static void fillBackground(Graphics2D g) {
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+    }
 
-        g.setFont(new Font("Arial", Font.PLAIN, 18));
-        g.drawString("Use ↑ ↓ e ENTER", WIDTH / 2 - 80, 160);
+    private void drawMenu(Graphics2D g, RenderFrame f) {
+        res.title.draw(g, WIDTH / 2 - 210, 120);
+        res.menuHint.draw(g, WIDTH / 2 - 80, 160);
 
         int startY = 250;
-        for (int i = 0; i < menuItems.length; i++) {
-            boolean selected = (i == menuIndex);
-            g.setFont(new Font("Arial", selected ? Font.BOLD : Font.PLAIN, selected ? 34 : 28));
-            g.setColor(selected ? Color.YELLOW : Color.WHITE);
-            g.drawString(menuItems[i], WIDTH / 2 - 60, startY + i * 60);
+        for (int i = 0; i < MENU_ITEMS.length; i++) {
+            boolean selected = (i == f.menuIndex);
+            (selected ? res.menuSelected[i] : res.menuItems[i]).draw(g, WIDTH / 2 - 60, startY + i * 60);
         }
 
-        g.setFont(new Font("Arial", Font.PLAIN, 14));
-        g.setColor(new Color(220, 220, 220));
-        g.drawString("No jogo: A/D mover | J/K/L golpes | P pausar | ESC menu", 180, HEIGHT - 30);
+        res.menuControls.draw(g, 180, HEIGHT - 30);
     }
 
     private void drawHowTo(Graphics2D g) {
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.BOLD, 42));
-        g.drawString("COMO JOGAR", WIDTH / 2 - 160, 100);
+        res.howToTitle.draw(g, WIDTH / 2 - 160, 100);
 
-        g.setFont(new Font("Arial", Font.PLAIN, 20));
         int y = 170;
-        g.drawString("• A / D: mover", 120, y);
-        y += 35;
-        g.drawString("• J: Jab | K: Gancho | L: Cruzado", 120, y);
-        y += 35;
-        g.drawString("• Stamina: ao zerar, recarrega 100% após 6 segundos", 120, y);
-        y += 35;
-        g.drawString("• P: Pausar / Retomar", 120, y);
-        y += 35;
-        g.drawString("• 5 rounds de 30s (melhor de 5: primeiro a 3 vence)", 120, y);
-        y += 35;
-        g.drawString("• KO vence o round na hora; senão, vence por mais vida", 120, y);
-        y += 35;
-
-        g.setFont(new Font("Arial", Font.BOLD, 18));
-        g.setColor(Color.YELLOW);
-        g.drawString("Pressione ENTER para voltar", WIDTH / 2 - 130, HEIGHT - 80);
-    }
+        for (RenderResources.Label line : res.howToLines) {
+            line.draw(g, 120, y);
+            y += 35;
+        }
 
-    private void drawSetup(Graphics2D g) {
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.BOLD, 42));
-        g.drawString("CONFIGURAR PARTIDA", WIDTH / 2 - 240, 100);
+        res.howToBack.draw(g, WIDTH / 2 - 130, HEIGHT - 80);
+    }
 
-        g.setFont(new Font("Arial", Font.PLAIN, 18));
-        g.drawString("Use ↑ ↓ para escolher linha, ← → para alterar, ENTER para iniciar", WIDTH / 2 - 280, 145);
+    private void drawSetup(Graphics2D g, RenderFrame f) {
+        res.setupTitle.draw(g, WIDTH / 2 - 240, 100);
+        res.setupHint.draw(g, WIDTH / 2 - 280, 145);
 
         int boxX = 120, boxW = 560, boxH = 90;
 
-        drawSetupRow(g, boxX, 210, boxW, boxH, "Calção", colorNames[selectedColor], menuIndex == 0);
-        drawSetupRow(g, boxX, 320, boxW, boxH, "Dificuldade", selectedDifficulty.label, menuIndex == 1);
+        drawSetupRow(g, boxX, 210, boxW, boxH, res.setupColor, res.colorNames[f.selectedColor], f.menuIndex == 0);
+        drawSetupRow(g, boxX, 320, boxW, boxH, res.setupDifficulty,
+                res.difficultyNames[f.selectedDifficulty.ordinal()], f.menuIndex == 1);
 
         int px = 650;
         int py = 260;
-        g.setColor(new Color(255, 220, 177));
-        g.fillOval(px - 15, py - 60, 30, 30);
+        g.drawImage(RenderResources.HEAD, px - 15, py - 60, null);
+        g.setColor(RenderResources.SKIN);
         g.fillRect(px - 15, py - 30, 30, 50);
-        g.setColor(shortColors[selectedColor]);
+        g.setColor(SHORT_COLORS[f.selectedColor]);
         g.fillRect(px - 20, py + 20, 40, 35);
 
-        g.setFont(new Font("Arial", Font.PLAIN, 16));
-        g.setColor(new Color(230, 230, 230));
-        g.drawString("Configuração: 5 rounds | 30s cada | Melhor de 5", 190, 460);
+        res.setupInfo.draw(g, 190, 460);
+        res.setupBack.draw(g, WIDTH / 2 - 120, HEIGHT - 60);
+    }
+
+    private void drawSetupRow(Graphics2D g, int x, int y, int w, int h, RenderResources.Label label,
+            RenderResources.Label value, boolean selected) {
+        // moldura pronta (w x h fixos em 560 x 90)
+        g.drawImage(selected ? RenderResources.ROW_FRAME_SELECTED : RenderResources.ROW_FRAME,
+                x - RenderResources.ROW_FRAME_MARGIN, y - RenderResources.ROW_FRAME_MARGIN, null);
 
-        g.setFont(new Font("Arial", Font.BOLD, 18));
-        g.setColor(Color.YELLOW);
-        g.drawString("ESC para voltar ao menu", WIDTH / 2 - 120, HEIGHT - 60);
+        label.draw(g, x + 20, y + 35);
+        value.draw(g, x + 190, y + 35);
+        res.setupRowHint.draw(g, x + 20, y + 65);
     }
 
-    private void drawSetupRow(Graphics2D g, int x, int y, int w, int h, String label, String value, boolean selected) {
-        g.setColor(selected ? new Color(255, 230, 120) : new Color(255, 255, 255, 120));
-        g.setStroke(new BasicStroke(selected ? 4 : 2));
-        g.drawRoundRect(x, y, w, h, 18, 18);
+    private void drawGame(Graphics2D g, RenderFrame f, float alpha) {
+        drawBackgroundLayer(g);
 
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.BOLD, 22));
-        g.drawString(label + ":", x + 20, y + 35);
+        if (f.hasFighters) {
+            drawFighter(g, f.player, SHORT_COLORS[f.selectedColor], alpha);
+            drawFighter(g, f.ai, AI_SHORT_COLOR, alpha);
+        }
 
-        g.setFont(new Font("Arial", Font.PLAIN, 22));
-        g.drawString(value, x + 190, y + 35);
+        f.particles.draw(g, alpha);
 
-        g.setFont(new Font("Arial", Font.PLAIN, 14));
-        g.setColor(new Color(220, 220, 220));
-        g.drawString("← → para alterar", x + 20, y + 65);
+        drawHUD(g, f);
     }
 
-    private void drawGame(Graphics2D g) {
-        drawSpectators(g);
-        drawRing(g);
+    // alpha: fração (0..1) do tick atual já decorrida, para interpolar entre prevX e x
+    private void drawFighter(Graphics2D g, Fighter f, Color shortColor, float alpha) {
+        int x = Math.round(f.getPrevX() + (f.getX() - f.getPrevX()) * alpha);
+        int y = f.getY();
+        boolean facingRight = f.isFacingRight();
+        PunchType punchType = f.getPunchType();
+
+        g.drawImage(RenderResources.HEAD, x - 15, y - 110, null);
+
+        g.setColor(RenderResources.SKIN);
+        g.fillRect(x - 15, y - 80, 30, 50);
+
+        g.setColor(shortColor);
+        g.fillRect(x - 20, y - 30, 40, 35);
+
+        g.setColor(RenderResources.SKIN);
+        g.fillRect(x - 15, y + 5, 12, 50);
+        g.fillRect(x + 3, y + 5, 12, 50);
+
+        int leftArmX = x - 30;
+        int rightArmX = x + 30;
+        int armY = y - 70;
+
+        if (f.isPunching()) {
+            int t = Math.min(f.getPunchFrame(), 8);
+            int push = t * 5;
+
+            if (punchType == PunchType.JAB) {
+                if (facingRight)
+                    rightArmX = x + 30 + push;
+                else
+                    leftArmX = x - 30 - push;
+            } else if (punchType == PunchType.HOOK) {
+                armY = y - 80;
+                if (facingRight)
+                    rightArmX = x + 25 + push;
+                else
+                    leftArmX = x - 25 - push;
+            } else if (punchType == PunchType.CROSS) {
+                armY = y - 60;
+                if (facingRight)
+                    rightArmX = x + 35 + push;
+                else
+                    leftArmX = x - 35 - push;
+            }
+        }
+
+        g.setColor(RenderResources.SKIN);
+        g.setStroke(RenderResources.STROKE_8);
+        g.drawLine(x - 10, y - 75, leftArmX, armY);
+        g.drawLine(x + 10, y - 75, rightArmX, armY);
+
+        g.drawImage(RenderResources.GLOVE, leftArmX - 8, armY - 8, null);
+        g.drawImage(RenderResources.GLOVE, rightArmX - 8, armY - 8, null);
+    }
 
-        if (player != null)
-            player.draw(g);
-        if (ai != null)
-            ai.draw(g);
+    private void drawBackgroundLayer(Graphics2D g) {
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        if (GraphicsEnvironment.isHeadless() || gc == null) {
+            if (bufferedLayer == null) {
+                bufferedLayer = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+                layerDirty = true;
+            }
+            if (layerDirty)
+                paintLayer(bufferedLayer);
+            g.drawImage(bufferedLayer, 0, 0, null);
+            return;
+        }
 
-        for (Particle p : particles)
-            p.draw(g);
+        // ciclo padrão de VolatileImage: valida, refaz se foi perdida, desenha, confere de novo
+        do {
+            int status = volatileLayer == null ? VolatileImage.IMAGE_INCOMPATIBLE : volatileLayer.validate(gc);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                if (volatileLayer != null)
+                    volatileLayer.flush();
+                volatileLayer = gc.createCompatibleVolatileImage(WIDTH, HEIGHT);
+                layerDirty = true;
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                layerDirty = true;
+            }
+            if (layerDirty)
+                paintLayer(volatileLayer);
+            g.drawImage(volatileLayer, 0, 0, null);
+        } while (volatileLayer.contentsLost());
+    }
 
-        drawHUD(g);
+    private void paintLayer(Image layer) {
+        Graphics2D lg = (Graphics2D) layer.getGraphics();
+        lg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        fillBackground(lg);
+        drawSpectators(lg);
+        drawRing(lg);
+        lg.dispose();
+        layerDirty = false;
     }
 
     private void drawSpectators(Graphics2D g) {
@@ -810,11 +1285,11 @@ class GamePanel extends JPanel {
     }
 
     private void drawRing(Graphics2D g) {
-        g.setColor(new Color(180, 140, 100));
+        g.setColor(RenderResources.CANVAS);
         g.fillRect(0, GROUND, WIDTH, HEIGHT - GROUND);
 
         g.setColor(Color.RED);
-        g.setStroke(new BasicStroke(3));
+        g.setStroke(RenderResources.STROKE_3);
         for (int i = 0; i < 3; i++) {
             int y = GROUND - 100 + i * 40;
             g.drawLine(50, y, WIDTH - 50, y);
@@ -825,37 +1300,55 @@ class GamePanel extends JPanel {
         g.fillRect(WIDTH - 60, GROUND - 120, 10, 120);
     }
 
-    private void drawHUD(Graphics2D g) {
-        if (player == null || ai == null)
+    private void drawHUD(Graphics2D g, RenderFrame f) {
+        if (!f.hasFighters)
             return;
 
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.BOLD, 18));
-        g.drawString("VOCÊ", 20, 30);
-        g.drawString("OPONENTE", WIDTH - 150, 30);
+        // online, quem joga do lado direito vê "VOCÊ" sobre o seu lutador
+        res.hudPlayer.draw(g, f.localIsP2 ? WIDTH - 150 : 20, 30);
+        res.hudOpponent.draw(g, f.localIsP2 ? 20 : WIDTH - 150, 30);
 
-        drawHealthBar(g, 20, 40, 200, 20, player.getHealth(), Fighter.MAX_HEALTH);
-        drawHealthBar(g, WIDTH - 220, 40, 200, 20, ai.getHealth(), Fighter.MAX_HEALTH);
+        drawHealthBar(g, 20, 40, 200, 20, f.player.getHealth(), Fighter.MAX_HEALTH);
+        drawHealthBar(g, WIDTH - 220, 40, 200, 20, f.ai.getHealth(), Fighter.MAX_HEALTH);
 
         // stamina bar
-        g.setFont(new Font("Arial", Font.BOLD, 14));
-        g.setColor(Color.WHITE);
-        g.drawString("STAMINA", 20, 78);
-        drawStaminaBar(g, 20, 86, 200, 12);
+        res.hudStamina.draw(g, 20, 78);
+        drawStaminaBar(g, f.playerStamina, f.staminaOnCooldown, f.staminaCooldownLeftMs, 20, 86, 200, 12);
+        if (f.versus) {
+            res.hudStamina.draw(g, WIDTH - 220, 78);
+            drawStaminaBar(g, f.opponentStamina, f.opponentStaminaOnCooldown, f.opponentStaminaCooldownLeftMs,
+                    WIDTH - 220, 86, 200, 12);
+        }
 
-        g.setFont(new Font("Arial", Font.BOLD, 16));
-        g.setColor(Color.WHITE);
-        g.drawString("Round: " + currentRound + "/" + ROUNDS_TOTAL, WIDTH / 2 - 70, 30);
-        g.drawString("Tempo: " + formatTime(roundTimeLeftMs), WIDTH / 2 - 55, 55);
+        res.roundLabels[f.currentRound].draw(g, WIDTH / 2 - 70, 30);
+        res.timeLabels[(int) (f.roundTimeLeftMs / 1000 % 60)].draw(g, WIDTH / 2 - 55, 55);
+        (f.versus ? res.versusScoreLabels : res.scoreLabels)[f.playerRoundsWon][f.aiRoundsWon]
+                .draw(g, WIDTH / 2 - 105, 78);
+
+        if (f.versus) {
+            (f.spectator ? res.watchControls : res.versusControls).draw(g, 270, HEIGHT - 20);
+            return;
+        }
+        res.hudDifficulty[f.difficulty.ordinal()].draw(g, 20, HEIGHT - 40);
+        if (f.spectator)
+            res.watchControls.draw(g, 270, HEIGHT - 20);
+        else if (f.replay)
+            drawReplayBar(g, f);
+        else
+            res.hudControls.draw(g, 250, HEIGHT - 20);
+    }
 
-        g.setFont(new Font("Arial", Font.BOLD, 16));
-        g.setColor(new Color(240, 240, 240));
-        g.drawString("Rounds (Você x IA): " + playerRoundsWon + " x " + aiRoundsWon, WIDTH / 2 - 105, 78);
+    private void drawReplayBar(Graphics2D g, RenderFrame f) {
+        res.replayTitle.draw(g, 250, HEIGHT - 38);
+        res.replaySpeeds[f.replaySpeed].draw(g, 330, HEIGHT - 38);
 
-        g.setFont(new Font("Arial", Font.PLAIN, 13));
-        g.setColor(new Color(220, 220, 220));
-        g.drawString("Dificuldade: " + selectedDifficulty.label, 20, HEIGHT - 40);
-        g.drawString("A/D mover | J/K/L golpes | P pausar | ESC menu", 250, HEIGHT - 20);
+        int x = 390, y = HEIGHT - 50, w = WIDTH - 20 - x, h = 10;
+        g.setColor(RenderResources.BAR_BACKGROUND);
+        g.fillRect(x, y, w, h);
+        g.setColor(Color.YELLOW);
+        g.fillRect(x, y, (int) (w * f.replayTick / Math.max(1, f.replayTicks)), h);
+
+        res.replayControls.draw(g, 250, HEIGHT - 20);
     }
 
     private void drawHealthBar(Graphics2D g, int x, int y, int w, int h, int hp, int max) {
@@ -872,368 +1365,7657 @@ class GamePanel extends JPanel {
         g.drawRect(x, y, w, h);
     }
 
-    private void drawStaminaBar(Graphics2D g, int x, int y, int w, int h) {
+    private void drawStaminaBar(Graphics2D g, int stamina, boolean onCooldown, long cooldownLeftMs,
+            int x, int y, int w, int h) {
         // fundo
-        g.setColor(new Color(60, 60, 60));
+        g.setColor(RenderResources.BAR_BACKGROUND);
         g.fillRect(x, y, w, h);
 
-        int fill = (int) Math.round((playerStamina / (double) MAX_STAMINA) * w);
-        fill = Math.max(0, Math.min(w, fill));
+        int fill = (int) Math.round((stamina / (double) GameSimulation.MAX_STAMINA) * w);
+        fill = Math.max(0, Math.min(w, fill));
+
+        // cor muda se estiver em cooldown
+        if (onCooldown)
+            g.setColor(RenderResources.STAMINA_COOLDOWN);
+        else
+            g.setColor(RenderResources.STAMINA);
+
+        g.fillRect(x, y, fill, h);
+
+        g.setColor(Color.WHITE);
+        g.drawRect(x, y, w, h);
+
+        // texto cooldown
+        if (onCooldown) {
+            int sec = (int) ((cooldownLeftMs + 999) / 1000);
+            res.cooldownLabels[sec].draw(g, x + 70, y + 11);
+        }
+    }
+
+    private void drawIntroOverlay(Graphics2D g, RenderFrame f) {
+        g.setColor(RenderResources.SHADE_170);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+
+        RenderResources.Label text = (f.introMsLeft > 900) ? res.introRound[f.currentRound] : res.introFight;
+
+        text.draw(g, WIDTH / 2 - text.width() / 2, HEIGHT / 2);
+    }
+
+    private void drawPauseOverlay(Graphics2D g) {
+        g.setColor(RenderResources.SHADE_160);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+
+        res.pauseTitle.draw(g, WIDTH / 2 - 150, HEIGHT / 2 - 20);
+        res.pauseResume.draw(g, WIDTH / 2 - 120, HEIGHT / 2 + 30);
+        res.pauseExit.draw(g, WIDTH / 2 - 120, HEIGHT / 2 + 60);
+    }
+
+    private void drawRoundEndOverlay(Graphics2D g, RenderFrame f) {
+        g.setColor(RenderResources.SHADE_170);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+
+        res.roundEndMessage.draw(g, f.roundEndMessage, 70, HEIGHT / 2 - 10);
+        res.roundEndNext.draw(g, WIDTH / 2 - 140, HEIGHT / 2 + 40);
+    }
+
+    private void drawGameOverOverlay(Graphics2D g, RenderFrame f) {
+        g.setColor(RenderResources.SHADE_190);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+
+        res.gameOverMessage.draw(g, f.roundEndMessage, 70, HEIGHT / 2 - 40);
+        (f.versus ? res.versusFinalScoreLabels : res.finalScoreLabels)[f.playerRoundsWon][f.aiRoundsWon]
+                .draw(g, 220, HEIGHT / 2 + 10);
+        if (!f.spectator)
+            res.gameOverEnter.draw(g, 250, HEIGHT / 2 + 55);
+        res.gameOverEsc.draw(g, 260, HEIGHT / 2 + 85);
+    }
+
+    private void generateSpectators(Random random) {
+        layerDirty = true;
+        spectators.clear();
+        for (int row = 0; row < 3; row++) {
+            for (int i = 0; i < 20; i++) {
+                int x = i * 40 + (row % 2) * 20;
+                int y = 50 + row * 30;
+                Color c = new Color(
+                        random.nextInt(100) + 100,
+                        random.nextInt(100) + 50,
+                        random.nextInt(100) + 50);
+                spectators.add(new Spectator(x, y, c));
+            }
+        }
+    }
+
+    private static class Spectator {
+        final int x, y;
+        final Color color;
+
+        Spectator(int x, int y, Color color) {
+            this.x = x;
+            this.y = y;
+            this.color = color;
+        }
+    }
+}
+
+// ======= RECURSOS DE RENDER (fontes, cores, traços, sprites e textos prontos) =======
+// nada disso é criado por frame. Formas redondas e textos viram sprites: fillOval,
+// drawRoundRect e drawString com troca de fonte alocam a cada chamada no Java2D, drawImage não
+final class RenderResources {
+    static final Font TITLE = new Font("Arial", Font.BOLD, 54);
+    static final Font HEADING = new Font("Arial", Font.BOLD, 42);
+    static final Font MENU_ITEM = new Font("Arial", Font.PLAIN, 28);
+    static final Font MENU_ITEM_SELECTED = new Font("Arial", Font.BOLD, 34);
+    static final Font PLAIN_22 = new Font("Arial", Font.PLAIN, 22);
+    static final Font BOLD_22 = new Font("Arial", Font.BOLD, 22);
+    static final Font PLAIN_20 = new Font("Arial", Font.PLAIN, 20);
+    static final Font PLAIN_18 = new Font("Arial", Font.PLAIN, 18);
+    static final Font BOLD_18 = new Font("Arial", Font.BOLD, 18);
+    static final Font PLAIN_16 = new Font("Arial", Font.PLAIN, 16);
+    static final Font BOLD_16 = new Font("Arial", Font.BOLD, 16);
+    static final Font PLAIN_14 = new Font("Arial", Font.PLAIN, 14);
+    static final Font BOLD_14 = new Font("Arial", Font.BOLD, 14);
+    static final Font PLAIN_13 = new Font("Arial", Font.PLAIN, 13);
+    static final Font BOLD_12 = new Font("Arial", Font.BOLD, 12);
+    static final Font INTRO = new Font("Arial", Font.BOLD, 70);
+    static final Font PAUSE = new Font("Arial", Font.BOLD, 60);
+    static final Font ROUND_END = new Font("Arial", Font.BOLD, 34);
+    static final Font GAME_OVER = new Font("Arial", Font.BOLD, 48);
+
+    static final Color SKIN = new Color(255, 220, 177);
+    static final Color CANVAS = new Color(180, 140, 100);
+    static final Color LIGHT_GRAY = new Color(220, 220, 220);
+    static final Color PALE_GRAY = new Color(230, 230, 230);
+    static final Color NEAR_WHITE = new Color(240, 240, 240);
+    static final Color ROW_SELECTED = new Color(255, 230, 120);
+    static final Color ROW_IDLE = new Color(255, 255, 255, 120);
+    static final Color BAR_BACKGROUND = new Color(60, 60, 60);
+    static final Color STAMINA = new Color(80, 170, 255);
+    static final Color STAMINA_COOLDOWN = new Color(255, 190, 70);
+    static final Color SHADE_160 = new Color(0, 0, 0, 160);
+    static final Color SHADE_170 = new Color(0, 0, 0, 170);
+    static final Color SHADE_190 = new Color(0, 0, 0, 190);
+
+    static final Stroke STROKE_2 = new BasicStroke(2);
+    static final Stroke STROKE_3 = new BasicStroke(3);
+    static final Stroke STROKE_4 = new BasicStroke(4);
+    static final Stroke STROKE_8 = new BasicStroke(8);
+
+    static final BufferedImage HEAD = ovalSprite(30, SKIN);
+    static final BufferedImage GLOVE = ovalSprite(16, Color.RED);
+    static final BufferedImage ROW_FRAME = roundRectSprite(560, 90, 18, STROKE_2, ROW_IDLE);
+    static final BufferedImage ROW_FRAME_SELECTED = roundRectSprite(560, 90, 18, STROKE_4, ROW_SELECTED);
+    static final int ROW_FRAME_MARGIN = 3;
+
+    static BufferedImage ovalSprite(int size, Color color) {
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(color);
+        g.fillOval(0, 0, size, size);
+        g.dispose();
+        return img;
+    }
+
+    // desenhado com ROW_FRAME_MARGIN de folga para o traço
+    private static BufferedImage roundRectSprite(int w, int h, int arc, Stroke stroke, Color color) {
+        int m = ROW_FRAME_MARGIN;
+        BufferedImage img = new BufferedImage(w + 2 * m + 1, h + 2 * m + 1, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(color);
+        g.setStroke(stroke);
+        g.drawRoundRect(m, m, w, h, arc, arc);
+        g.dispose();
+        return img;
+    }
+
+    // ======= TEXTOS FIXOS =======
+    final Label title = new Label("BOXING GAME", TITLE, Color.WHITE);
+    final Label menuHint = new Label("Use ↑ ↓ e ENTER", PLAIN_18, Color.WHITE);
+    final Label[] menuItems = labels(GameRenderer.MENU_ITEMS, MENU_ITEM, Color.WHITE);
+    final Label[] menuSelected = labels(GameRenderer.MENU_ITEMS, MENU_ITEM_SELECTED, Color.YELLOW);
+    final Label menuControls = new Label("No jogo: A/D mover | J/K/L golpes | P pausar | ESC menu", PLAIN_14,
+            LIGHT_GRAY);
+
+    final Label howToTitle = new Label("COMO JOGAR", HEADING, Color.WHITE);
+    final Label[] howToLines = labels(new String[] {
+            "• A / D: mover",
+            "• J: Jab | K: Gancho | L: Cruzado",
+            "• Stamina: ao zerar, recarrega 100% após 6 segundos",
+            "• P: Pausar / Retomar",
+            "• 5 rounds de 30s (melhor de 5: primeiro a 3 vence)",
+            "• KO vence o round na hora; senão, vence por mais vida" }, PLAIN_20, Color.WHITE);
+    final Label howToBack = new Label("Pressione ENTER para voltar", BOLD_18, Color.YELLOW);
+
+    final Label setupTitle = new Label("CONFIGURAR PARTIDA", HEADING, Color.WHITE);
+    final Label setupHint = new Label("Use ↑ ↓ para escolher linha, ← → para alterar, ENTER para iniciar", PLAIN_18,
+            Color.WHITE);
+    final Label setupColor = new Label("Calção:", BOLD_22, Color.WHITE);
+    final Label setupDifficulty = new Label("Dificuldade:", BOLD_22, Color.WHITE);
+    final Label setupRowHint = new Label("← → para alterar", PLAIN_14, LIGHT_GRAY);
+    final Label setupInfo = new Label("Configuração: 5 rounds | 30s cada | Melhor de 5", PLAIN_16, PALE_GRAY);
+    final Label setupBack = new Label("ESC para voltar ao menu", BOLD_18, Color.YELLOW);
+    final Label[] colorNames = labels(GameRenderer.COLOR_NAMES, PLAIN_22, Color.WHITE);
+    final Label[] difficultyNames = new Label[Difficulty.values().length];
+
+    final Label hudPlayer = new Label("VOCÊ", BOLD_18, Color.WHITE);
+    final Label hudOpponent = new Label("OPONENTE", BOLD_18, Color.WHITE);
+    final Label hudStamina = new Label("STAMINA", BOLD_14, Color.WHITE);
+    final Label hudControls = new Label("A/D mover | J/K/L golpes | P pausar | ESC menu", PLAIN_13, LIGHT_GRAY);
+    final Label[] hudDifficulty = new Label[Difficulty.values().length];
+    final Label replayTitle = new Label("REPLAY", BOLD_16, Color.YELLOW);
+    final Label[] replaySpeeds = labels(new String[] { "0.25x", "0.5x", "1x", "2x", "4x", "8x" }, BOLD_16,
+            Color.WHITE);
+    final Label netWaiting = new Label("Aguardando o outro jogador...", PLAIN_22, Color.WHITE);
+    final Label netWaitingEsc = new Label("ESC para voltar ao menu", PLAIN_18, LIGHT_GRAY);
+    final Label watchWaiting = new Label("Aguardando a transmissão...", PLAIN_22, Color.WHITE);
+    final Label watchControls = new Label("Assistindo (ao vivo) | ESC menu", PLAIN_13, LIGHT_GRAY);
+    final Label versusControls = new Label("A/D mover | J/K/L golpes | ESC sair", PLAIN_13, LIGHT_GRAY);
+    final Label replayControls = new Label("← → 5s | ↑ ↓ velocidade | P pausar | ESC menu", PLAIN_13, LIGHT_GRAY);
+
+    final Label introFight = new Label("FIGHT!", INTRO, Color.YELLOW);
+    final Label pauseTitle = new Label("PAUSADO", PAUSE, Color.YELLOW);
+    final Label pauseResume = new Label("Pressione P para voltar", PLAIN_20, Color.WHITE);
+    final Label pauseExit = new Label("ESC para sair ao menu", PLAIN_20, Color.WHITE);
+    final Label roundEndNext = new Label("Próximo round em instantes...", PLAIN_18, PALE_GRAY);
+    final Label gameOverEnter = new Label("ENTER para voltar ao menu", PLAIN_22, LIGHT_GRAY);
+    final Label gameOverEsc = new Label("ESC para voltar ao menu", PLAIN_22, LIGHT_GRAY);
+
+    // ======= TEXTOS COM NÚMERO (todas as combinações possíveis, rasterizadas uma vez) =======
+    final Label[] roundLabels = new Label[GameSimulation.ROUNDS_TOTAL + 1];
+    final Label[] introRound = new Label[GameSimulation.ROUNDS_TOTAL + 1];
+    final Label[] timeLabels = new Label[60];
+    final Label[][] scoreLabels = new Label[GameSimulation.ROUNDS_TOTAL + 1][GameSimulation.ROUNDS_TOTAL + 1];
+    final Label[][] finalScoreLabels = new Label[GameSimulation.ROUNDS_TOTAL + 1][GameSimulation.ROUNDS_TOTAL + 1];
+    final Label[][] versusScoreLabels = new Label[GameSimulation.ROUNDS_TOTAL + 1][GameSimulation.ROUNDS_TOTAL + 1];
+    final Label[][] versusFinalScoreLabels = new Label[GameSimulation.ROUNDS_TOTAL + 1][GameSimulation.ROUNDS_TOTAL + 1];
+    final Label[] cooldownLabels = new Label[(int) ((GameSimulation.STAMINA_RECHARGE_COOLDOWN_MS + 999) / 1000) + 1];
+
+    // mensagens de fim de round vêm prontas da simulação; refaz o sprite só quando mudam
+    final MessageLabel roundEndMessage = new MessageLabel(ROUND_END, Color.WHITE);
+    final MessageLabel gameOverMessage = new MessageLabel(GAME_OVER, Color.WHITE);
+
+    RenderResources() {
+        for (Difficulty d : Difficulty.values()) {
+            difficultyNames[d.ordinal()] = new Label(d.label, PLAIN_22, Color.WHITE);
+            hudDifficulty[d.ordinal()] = new Label("Dificuldade: " + d.label, PLAIN_13, LIGHT_GRAY);
+        }
+        for (int r = 0; r <= GameSimulation.ROUNDS_TOTAL; r++) {
+            roundLabels[r] = new Label("Round: " + r + "/" + GameSimulation.ROUNDS_TOTAL, BOLD_16, Color.WHITE);
+            introRound[r] = new Label("ROUND " + r, INTRO, Color.YELLOW);
+            for (int a = 0; a <= GameSimulation.ROUNDS_TOTAL; a++) {
+                scoreLabels[r][a] = new Label("Rounds (Você x IA): " + r + " x " + a, BOLD_16, NEAR_WHITE);
+                finalScoreLabels[r][a] = new Label("Placar final (Você x IA): " + r + " x " + a, PLAIN_22,
+                        LIGHT_GRAY);
+                versusScoreLabels[r][a] = new Label("Rounds (P1 x P2): " + r + " x " + a, BOLD_16, NEAR_WHITE);
+                versusFinalScoreLabels[r][a] = new Label("Placar final (P1 x P2): " + r + " x " + a, PLAIN_22,
+                        LIGHT_GRAY);
+            }
+        }
+        for (int s = 0; s < timeLabels.length; s++)
+            timeLabels[s] = new Label("Tempo: " + (s < 10 ? "0" : "") + s, BOLD_16, Color.WHITE);
+        for (int s = 0; s < cooldownLabels.length; s++)
+            cooldownLabels[s] = new Label("Recarregando: " + s + "s", BOLD_12, Color.WHITE);
+    }
+
+    private static Label[] labels(String[] texts, Font font, Color color) {
+        Label[] out = new Label[texts.length];
+        for (int i = 0; i < texts.length; i++)
+            out[i] = new Label(texts[i], font, color);
+        return out;
+    }
+
+    // texto fixo (fonte e cor fixas) desenhado uma vez num sprite, já na criação (nada é
+    // rasterizado no meio da partida); draw(x, y) usa a linha de base, como drawString.
+    // Evita também a troca de fonte no Graphics, que aloca a cada drawString
+    static final class Label {
+        private static final int PAD = 2;
+        private static final Graphics2D MEASURE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+
+        private final BufferedImage sprite;
+        private final int ascent, width;
+
+        Label(String text, Font font, Color color) {
+            FontMetrics fm = MEASURE.getFontMetrics(font);
+            width = fm.stringWidth(text);
+            ascent = fm.getMaxAscent();
+            sprite = new BufferedImage(width + 2 * PAD, ascent + fm.getMaxDescent() + 2 * PAD,
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = sprite.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setFont(font);
+            g.setColor(color);
+            g.drawString(text, PAD, PAD + ascent);
+            g.dispose();
+        }
+
+        void draw(Graphics2D g, int x, int y) {
+            g.drawImage(sprite, x - PAD, y - ascent - PAD, null);
+        }
+
+        int width() {
+            return width;
+        }
+    }
+
+    // texto que muda raramente (compara por referência: as mensagens são constantes da simulação)
+    static final class MessageLabel {
+        private final Font font;
+        private final Color color;
+        private String text;
+        private Label label;
+
+        MessageLabel(Font font, Color color) {
+            this.font = font;
+            this.color = color;
+        }
+
+        void draw(Graphics2D g, String message, int x, int y) {
+            if (message == null)
+                return;
+            if (message != text) {
+                text = message;
+                label = new Label(message, font, color);
+            }
+            label.draw(g, x, y);
+        }
+    }
+}
+
+// ======= FRAME DE RENDER (cópia do estado, lida só por quem desenha) =======
+final class RenderFrame {
+    long publishedNs;
+    GameState state = GameState.MENU;
+    int menuIndex;
+    int selectedColor;
+    Difficulty selectedDifficulty = Difficulty.MEDIUM;
+
+    boolean hasFighters;
+    final Fighter player = new Fighter(0, GameSimulation.GROUND, true);
+    final Fighter ai = new Fighter(0, GameSimulation.GROUND, false);
+    final ParticleSystem particles = new ParticleSystem();
+
+    int playerStamina;
+    boolean staminaOnCooldown;
+    long staminaCooldownLeftMs;
+    long introMsLeft;
+    int currentRound;
+    long roundTimeLeftMs;
+    int playerRoundsWon;
+    int aiRoundsWon;
+    String roundEndMessage = "";
+    Difficulty difficulty = Difficulty.MEDIUM;
+
+    // versus (rede): stamina do lado direito e de que lado está quem joga nesta máquina
+    boolean versus;
+    int opponentStamina;
+    boolean opponentStaminaOnCooldown;
+    long opponentStaminaCooldownLeftMs;
+    boolean localIsP2;
+    boolean netWaiting;
+    boolean spectator; // assistindo a uma transmissão
+
+    // visualizador de replay (preenchido pelo painel depois do capture)
+    boolean replay;
+    long replayTick;
+    long replayTicks;
+    int replaySpeed;
+
+    // sim pode ser null (menus); liveParticles é o sistema de partículas de quem chama
+    void capture(GameState state, int menuIndex, int selectedColor, Difficulty selectedDifficulty,
+            GameSimulation sim, ParticleSystem liveParticles) {
+        publishedNs = System.nanoTime();
+        this.state = state;
+        this.menuIndex = menuIndex;
+        this.selectedColor = selectedColor;
+        this.selectedDifficulty = selectedDifficulty;
+
+        hasFighters = sim != null;
+        if (hasFighters) {
+            player.copyFrom(sim.getPlayer());
+            ai.copyFrom(sim.getAi());
+
+            playerStamina = sim.getPlayerStamina();
+            staminaOnCooldown = sim.isStaminaOnCooldown();
+            staminaCooldownLeftMs = sim.getStaminaCooldownLeftMs();
+            introMsLeft = sim.getIntroMsLeft();
+            currentRound = sim.getCurrentRound();
+            roundTimeLeftMs = sim.getRoundTimeLeftMs();
+            playerRoundsWon = sim.getPlayerRoundsWon();
+            aiRoundsWon = sim.getAiRoundsWon();
+            roundEndMessage = sim.getRoundEndMessage();
+            difficulty = sim.getDifficulty();
+
+            versus = sim.isVersus();
+            opponentStamina = sim.getStamina(GameSimulation.SIDE_OPPONENT);
+            opponentStaminaOnCooldown = sim.isStaminaOnCooldown(GameSimulation.SIDE_OPPONENT);
+            opponentStaminaCooldownLeftMs = sim.getStaminaCooldownLeftMs(GameSimulation.SIDE_OPPONENT);
+        }
+
+        particles.copyFrom(liveParticles);
+    }
+}
+
+// ======= HISTOGRAMA DE LATÊNCIA (log-linear, estilo HDR; sem alocação) =======
+// valores em ns; cada potência de 2 é dividida em SUB faixas lineares (erro relativo < 1/SUB)
+final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB];
+    private long total;
+    private long max;
+
+    void record(long ns) {
+        if (ns < 0)
+            ns = 0;
+        counts[index(ns)]++;
+        total++;
+        if (ns > max)
+            max = ns;
+    }
+
+    // valor (meio da faixa) abaixo do qual estão p (0..1) das amostras
+    long percentile(double p) {
+        if (total == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(total * p));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(max, value(i));
+        }
+        return max;
+    }
+
+    long count() {
+        return total;
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        max = 0;
+    }
+
+    private static int index(long v) {
+        if (v < SUB)
+            return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        int group = exp - SUB_BITS + 1;
+        return group * SUB + (int) ((v >>> (exp - SUB_BITS)) - SUB);
+    }
+
+    private static long value(int index) {
+        int group = index / SUB;
+        long m = index % SUB;
+        if (group == 0)
+            return m;
+        long low = (SUB + m) << (group - 1);
+        return low + ((1L << (group - 1)) >> 1);
+    }
+}
+
+// ======= MÉTRICAS DE DESEMPENHO (overlay F3) =======
+// cada série é escrita por uma thread só: tick pela thread do jogo, render/frame por quem desenha.
+// a cada janela de 1 s o dono calcula os percentis e publica em campos volatile
+final class PerfMonitor {
+    static final int GRAPH_SAMPLES = 240;
+    static final int GC_HISTORY = 4;
+    private static final long WINDOW_NS = 1_000_000_000L;
+
+    // ---- thread do jogo
+    private final LatencyHistogram tickHist = new LatencyHistogram();
+    private long tickWindowStart = System.nanoTime();
+    private long tickAllocStart = Bench.allocatedBytes();
+    volatile long tickP50, tickP95, tickP99;
+    private volatile long tickAllocPerSec;
+
+    // ---- thread de render
+    private final LatencyHistogram renderHist = new LatencyHistogram();
+    private final LatencyHistogram frameHist = new LatencyHistogram();
+    final long[] frameTimes = new long[GRAPH_SAMPLES]; // anel, em ns
+    int frameHead; // próxima posição do anel
+    private long lastFrameStart;
+    private long frameWindowStart = System.nanoTime();
+    private long renderAllocStart = Bench.allocatedBytes();
+    private int framesInWindow;
+    int fps;
+    long renderP50, renderP95, renderP99;
+    long frameP50, frameP95, frameP99;
+    long allocPerSec; // jogo + render, bytes/s
+
+    // ---- GC (lido pela thread de render, uma vez por janela)
+    private final GarbageCollectorMXBean[] collectors;
+    private final long[] gcCounts, gcTimes;
+    final long[] gcPausesMs = new long[GC_HISTORY]; // anel das pausas recentes
+    int gcHead;
+    long gcTotal;
+
+    PerfMonitor() {
+        collectors = ManagementFactory.getGarbageCollectorMXBeans().toArray(new GarbageCollectorMXBean[0]);
+        gcCounts = new long[collectors.length];
+        gcTimes = new long[collectors.length];
+        for (int i = 0; i < collectors.length; i++) {
+            gcCounts[i] = Math.max(0, collectors[i].getCollectionCount());
+            gcTimes[i] = Math.max(0, collectors[i].getCollectionTime());
+        }
+    }
+
+    // thread do jogo: duração de um tick
+    void recordTick(long ns) {
+        tickHist.record(ns);
+        long now = System.nanoTime();
+        if (now - tickWindowStart >= WINDOW_NS) {
+            tickP50 = tickHist.percentile(0.50);
+            tickP95 = tickHist.percentile(0.95);
+            tickP99 = tickHist.percentile(0.99);
+            tickHist.reset();
+
+            long alloc = Bench.allocatedBytes();
+            tickAllocPerSec = (alloc - tickAllocStart) * WINDOW_NS / (now - tickWindowStart);
+            tickAllocStart = alloc;
+            tickWindowStart = now;
+        }
+    }
+
+    // thread de render: início do frame (para o intervalo entre frames)
+    void beginFrame(long now) {
+        if (lastFrameStart != 0) {
+            long frameNs = now - lastFrameStart;
+            frameHist.record(frameNs);
+            frameTimes[frameHead] = frameNs;
+            frameHead = (frameHead + 1) % GRAPH_SAMPLES;
+        }
+        lastFrameStart = now;
+        framesInWindow++;
+    }
+
+    // thread de render: duração do desenho do frame
+    void endFrame(long renderNs) {
+        renderHist.record(renderNs);
+        long now = System.nanoTime();
+        if (now - frameWindowStart < WINDOW_NS)
+            return;
+
+        long elapsed = now - frameWindowStart;
+        fps = (int) (framesInWindow * WINDOW_NS / elapsed);
+        renderP50 = renderHist.percentile(0.50);
+        renderP95 = renderHist.percentile(0.95);
+        renderP99 = renderHist.percentile(0.99);
+        frameP50 = frameHist.percentile(0.50);
+        frameP95 = frameHist.percentile(0.95);
+        frameP99 = frameHist.percentile(0.99);
+        renderHist.reset();
+        frameHist.reset();
+
+        long alloc = Bench.allocatedBytes();
+        allocPerSec = (alloc - renderAllocStart) * WINDOW_NS / elapsed + tickAllocPerSec;
+        renderAllocStart = alloc;
+
+        pollGc();
+        framesInWindow = 0;
+        frameWindowStart = now;
+    }
+
+    // pausa de cada coleta nova ≈ tempo acumulado / coletas desde a última leitura
+    private void pollGc() {
+        for (int i = 0; i < collectors.length; i++) {
+            long count = collectors[i].getCollectionCount();
+            long time = collectors[i].getCollectionTime();
+            long newCount = count - gcCounts[i];
+            if (newCount > 0) {
+                gcPausesMs[gcHead] = (time - gcTimes[i]) / newCount;
+                gcHead = (gcHead + 1) % GC_HISTORY;
+                gcTotal += newCount;
+            }
+            gcCounts[i] = count;
+            gcTimes[i] = time;
+        }
+    }
+}
+
+// ======= OVERLAY DE DESEMPENHO (F3; números desenhados dígito a dígito, sem String) =======
+final class PerfOverlay {
+    private static final int X = GameRenderer.WIDTH - 330;
+    private static final int Y = 110;
+    private static final int W = 320;
+    private static final int H = 225;
+    private static final int LINE = 17;
+    private static final int GRAPH_H = 50;
+    private static final long GRAPH_MAX_NS = 50_000_000L; // topo do gráfico = 50 ms
+    private static final long TARGET_NS = 16_666_667L;
+
+    private static final Color PANEL = new Color(0, 0, 0, 180);
+    private static final Color GRAPH_OK = new Color(90, 220, 120);
+    private static final Color GRAPH_SLOW = new Color(255, 90, 70);
+    private static final Color GRAPH_TARGET = new Color(255, 255, 255, 90);
+
+    private static final Font FONT = RenderResources.BOLD_12;
+    private final RenderResources.Label[] digits = new RenderResources.Label[10];
+    private final RenderResources.Label dot = label(".");
+    private final RenderResources.Label slash = label("/");
+    private final RenderResources.Label fpsLabel = label("FPS");
+    private final RenderResources.Label frameLabel = label("frame");
+    private final RenderResources.Label renderLabel = label("render");
+    private final RenderResources.Label tickLabel = label("tick");
+    private final RenderResources.Label p50 = label("p50 ms");
+    private final RenderResources.Label p95 = label("p95");
+    private final RenderResources.Label p99 = label("p99");
+    private final RenderResources.Label particlesLabel = label("partículas");
+    private final RenderResources.Label allocLabel = label("alocação KB/s");
+    private final RenderResources.Label gcLabel = label("GC coletas");
+    private final RenderResources.Label gcPausesLabel = label("GC pausas ms");
+
+    private final int[] scratch = new int[20];
+
+    PerfOverlay() {
+        for (int i = 0; i < 10; i++)
+            digits[i] = label(String.valueOf(i));
+    }
+
+    private static RenderResources.Label label(String text) {
+        return new RenderResources.Label(text, FONT, Color.WHITE);
+    }
+
+    void draw(Graphics2D g, PerfMonitor m, RenderFrame f) {
+        g.setColor(PANEL);
+        g.fillRect(X, Y, W, H);
+
+        int x = X + 10, col = X + 120;
+        int y = Y + 18;
+        drawLong(g, draw(g, fpsLabel, x, y) + 6, y, m.fps);
+        p50.draw(g, col, y);
+        p95.draw(g, col + 60, y);
+        p99.draw(g, col + 120, y);
+
+        y += LINE;
+        frameLabel.draw(g, x, y);
+        drawTriple(g, col, y, m.frameP50, m.frameP95, m.frameP99);
+        y += LINE;
+        renderLabel.draw(g, x, y);
+        drawTriple(g, col, y, m.renderP50, m.renderP95, m.renderP99);
+        y += LINE;
+        tickLabel.draw(g, x, y);
+        drawTriple(g, col, y, m.tickP50, m.tickP95, m.tickP99);
+
+        y += LINE;
+        particlesLabel.draw(g, x, y);
+        int px = drawLong(g, col, y, f.particles.size());
+        px = draw(g, slash, px, y);
+        drawLong(g, px, y, f.particles.capacity());
+
+        y += LINE;
+        allocLabel.draw(g, x, y);
+        drawLong(g, col, y, m.allocPerSec / 1024);
+
+        y += LINE;
+        gcLabel.draw(g, x, y);
+        drawLong(g, col, y, m.gcTotal);
+
+        y += LINE;
+        gcPausesLabel.draw(g, x, y);
+        px = col;
+        for (int i = 1; i <= PerfMonitor.GC_HISTORY; i++) {
+            int idx = (m.gcHead - i + PerfMonitor.GC_HISTORY) % PerfMonitor.GC_HISTORY;
+            px = drawLong(g, px, y, m.gcPausesMs[idx]) + 8;
+        }
+
+        drawGraph(g, m, X + 10, Y + H - 10, W - 20);
+    }
+
+    // barras dos últimos frames (mais antigo à esquerda); vermelho acima do alvo de 60 fps
+    private void drawGraph(Graphics2D g, PerfMonitor m, int x, int bottom, int width) {
+        int n = PerfMonitor.GRAPH_SAMPLES;
+        int barW = Math.max(1, width / n);
+        for (int i = 0; i < n; i++) {
+            long ns = m.frameTimes[(m.frameHead + i) % n];
+            int h = (int) (Math.min(ns, GRAPH_MAX_NS) * GRAPH_H / GRAPH_MAX_NS);
+            g.setColor(ns > TARGET_NS + 2_000_000L ? GRAPH_SLOW : GRAPH_OK);
+            g.fillRect(x + i * barW, bottom - h, barW, h);
+        }
+        g.setColor(GRAPH_TARGET);
+        g.fillRect(x, bottom - (int) (TARGET_NS * GRAPH_H / GRAPH_MAX_NS), n * barW, 1);
+    }
+
+    private void drawTriple(Graphics2D g, int x, int y, long a, long b, long c) {
+        drawMs(g, x, y, a);
+        drawMs(g, x + 60, y, b);
+        drawMs(g, x + 120, y, c);
+    }
+
+    // ns -> "ms.cc"
+    private int drawMs(Graphics2D g, int x, int y, long ns) {
+        long centi = ns / 10_000;
+        x = drawLong(g, x, y, centi / 100);
+        x = draw(g, dot, x, y);
+        x = draw(g, digits[(int) (centi / 10 % 10)], x, y);
+        return draw(g, digits[(int) (centi % 10)], x, y);
+    }
+
+    // desenha v >= 0 e devolve o x depois do último dígito
+    private int drawLong(Graphics2D g, int x, int y, long v) {
+        if (v < 0)
+            v = 0;
+        int n = 0;
+        do {
+            scratch[n++] = (int) (v % 10);
+            v /= 10;
+        } while (v > 0);
+        while (n > 0)
+            x = draw(g, digits[scratch[--n]], x, y);
+        return x;
+    }
+
+    private static int draw(Graphics2D g, RenderResources.Label l, int x, int y) {
+        l.draw(g, x, y);
+        return x + l.width();
+    }
+}
+
+// ======= ESTADOS =======
+enum GameState {
+    MENU, HOW_TO_PLAY, SETUP, ROUND_INTRO, PLAYING, PAUSED, ROUND_END, GAME_OVER
+}
+
+// ======= DIFICULDADE =======
+enum Difficulty {
+    EASY("Fácil", 760, 1200, 0.45, 0.50, 4, 1),
+    MEDIUM("Médio", 520, 900, 0.60, 0.65, 5, 2),
+    HARD("Difícil", 320, 650, 0.75, 0.78, 6, 3);
+
+    final String label;
+    final int thinkMinMs;
+    final int thinkMaxMs;
+    final double attackChanceClose;
+    final double attackChanceMid;
+    final int aiSpeed;
+    final int aiDamageBonus;
+
+    Difficulty(String label, int thinkMinMs, int thinkMaxMs,
+            double attackChanceClose, double attackChanceMid,
+            int aiSpeed, int aiDamageBonus) {
+        this.label = label;
+        this.thinkMinMs = thinkMinMs;
+        this.thinkMaxMs = thinkMaxMs;
+        this.attackChanceClose = attackChanceClose;
+        this.attackChanceMid = attackChanceMid;
+        this.aiSpeed = aiSpeed;
+        this.aiDamageBonus = aiDamageBonus;
+    }
+}
+
+// ======= SIMULAÇÃO (regras da partida, sem Swing/AWT) =======
+// Avança em ticks fixos de TICK_MS; não dorme nem lê relógio, então roda
+// tão rápido quanto a CPU permitir quando não há tela.
+final class GameSimulation {
+    static final int ARENA_WIDTH = 800;
+    static final int GROUND = 450;
+    static final long TICK_MS = 16; // 62.5 ticks/s, o ritmo original do jogo
+
+    static final int ROUNDS_TOTAL = 5;
+    static final int ROUNDS_TO_WIN = 3;
+    static final int ROUND_SECONDS = 30;
+    static final long ROUND_MS = ROUND_SECONDS * 1000L;
+
+    // Stamina
+    static final int MAX_STAMINA = 100;
+    static final int COST_JAB = 12;
+    static final int COST_HOOK = 18;
+    static final int COST_CROSS = 22;
+
+    // >>> ALTERAÇÃO PEDIDA: recarrega após 6s quando zera
+    static final long STAMINA_RECHARGE_COOLDOWN_MS = 6000;
+
+    static final long INTRO_TOTAL_MS = 2200; // "ROUND X" -> "FIGHT!"
+    static final long ROUND_END_HOLD_MS = 2000;
+
+    // Input do jogador por tick (bits)
+    static final int INPUT_LEFT = 1;
+    static final int INPUT_RIGHT = 2;
+    static final int INPUT_JAB = 4;
+    static final int INPUT_HOOK = 8;
+    static final int INPUT_CROSS = 16;
+
+    // eventos para quem apresenta a partida (som, partículas); padrão: ignora
+    interface Listener {
+        default void onRoundStart(int round) {
+        }
+
+        default void onHit(Fighter attacker, Fighter defender, PunchType type, int damage) {
+        }
+
+        default void onSound(Sound sound, float pan) {
+        }
+
+        // decisão do thinkAI: faixa de distância e ação (rótulos constantes, sem alocar)
+        default void onAiDecision(String band, String action, int distance) {
+        }
+
+        // winner: +1 jogador, -1 IA, 0 empate
+        default void onRoundEnd(int round, int winner, boolean ko, long roundElapsedMs) {
+        }
+    }
+
+    private static final Listener NO_LISTENER = new Listener() {
+    };
+
+    // ======= MENSAGENS (montadas uma vez: o tick não concatena strings) =======
+    private static final int BASE_DOUBLE_KO = 0;
+    private static final int BASE_TIME_UP = 1;
+    private static final String[] BASES = { ": Double KO! (empate)", ": Tempo esgotado" };
+
+    private static final int SUFFIX_PLAYER_POINTS = 0;
+    private static final int SUFFIX_AI_POINTS = 1;
+    private static final int SUFFIX_TIE_PLAYER_TOTAL = 2;
+    private static final int SUFFIX_TIE_AI_TOTAL = 3;
+    private static final int SUFFIX_TIE_OVERALL = 4;
+    private static final int SUFFIX_TIE_ROUND = 5;
+    private static final String[] SUFFIXES = {
+            " — Você venceu por pontos!",
+            " — Você perdeu por pontos!",
+            " — Empate no round. Você vence no total!",
+            " — Empate no round. IA vence no total!",
+            " — Empate geral!",
+            " — Empate no round!" };
+
+    // [base][round][sufixo] e [round]
+    private static final String[][][] POINTS_MESSAGES = new String[BASES.length][ROUNDS_TOTAL + 1][SUFFIXES.length];
+    private static final String[] KO_LOSS_MESSAGES = new String[ROUNDS_TOTAL + 1];
+    private static final String[] KO_WIN_MESSAGES = new String[ROUNDS_TOTAL + 1];
+
+    private static final String KO_LOSS_FINAL = "Você perdeu por KO!";
+    private static final String KO_WIN_FINAL = "Você venceu por KO!";
+    private static final String ROUNDS_OVER_WIN = "Fim dos rounds — Você venceu!";
+    private static final String ROUNDS_OVER_LOSS = "Fim dos rounds — Você perdeu!";
+    private static final String ROUNDS_OVER_TIE = "Fim dos rounds — Empate!";
+
+    // todas as mensagens possíveis, indexadas (o estado serializado guarda o índice)
+    private static final String[] MESSAGES;
+
+    static {
+        List<String> all = new ArrayList<>(List.of("", KO_LOSS_FINAL, KO_WIN_FINAL,
+                ROUNDS_OVER_WIN, ROUNDS_OVER_LOSS, ROUNDS_OVER_TIE));
+        for (int r = 1; r <= ROUNDS_TOTAL; r++) {
+            for (int b = 0; b < BASES.length; b++)
+                for (int x = 0; x < SUFFIXES.length; x++)
+                    all.add(POINTS_MESSAGES[b][r][x] = "Round " + r + BASES[b] + SUFFIXES[x]);
+            all.add(KO_LOSS_MESSAGES[r] = "Round " + r + ": Você levou KO!");
+            all.add(KO_WIN_MESSAGES[r] = "Round " + r + ": KO! Você venceu!");
+        }
+        MESSAGES = all.toArray(new String[0]);
+    }
+
+    // compara por referência: as mensagens de fim de round são sempre as constantes acima
+    static int messageId(String message) {
+        for (int i = 0; i < MESSAGES.length; i++)
+            if (MESSAGES[i] == message)
+                return i;
+        throw new IllegalStateException("Mensagem desconhecida: " + message);
+    }
+
+    private final Difficulty difficulty;
+    private final GameRng random;
+    private Listener listener = NO_LISTENER;
+
+    // custos de golpe (ajustáveis para balanceamento)
+    private int costJab = COST_JAB;
+    private int costHook = COST_HOOK;
+    private int costCross = COST_CROSS;
+
+    private GameState state = GameState.ROUND_INTRO;
+    private boolean started = false;
+
+    private final Fighter player = new Fighter(200, GROUND, true);
+    private final Fighter ai = new Fighter(550, GROUND, false);
+
+    // caixas reutilizadas pelo checkHits
+    private final Box hitBox = new Box();
+    private final Box hurtBox = new Box();
+
+    // dois jogadores humanos (rede): o lutador da direita segue o input do jogador 2, sem IA
+    private boolean versus = false;
+    // IA de fora (OpponentAi): o lutador da direita também segue p2 e paga stamina, mas mantém a
+    // velocidade e o bônus de dano da dificuldade
+    private boolean externalOpponent = false;
+
+    // stamina por lado (SIDE_*); contra o thinkAI só o lado do jogador é usado
+    static final int SIDE_PLAYER = 0;
+    static final int SIDE_OPPONENT = 1;
+    private final int[] stamina = { MAX_STAMINA, MAX_STAMINA };
+    private final boolean[] staminaOnCooldown = new boolean[2];
+    private final long[] staminaCooldownLeftMs = new long[2];
+
+    private long introMsLeft = 0;
+
+    // Timer do round
+    private long roundTimeLeftMs = ROUND_MS;
+    private int currentRound = 1;
+
+    // Placar de rounds
+    private int playerRoundsWon = 0;
+    private int aiRoundsWon = 0;
+
+    // Controle de transições (fim do round)
+    private long roundEndHoldMs = 0;
+    private int roundEndMessageId = 0; // índice em MESSAGES ("" no início)
+
+    // IA
+    private long aiThinkElapsedMs = 0;
+    private long nextAIThinkDelayMs = 600;
+
+    private long ticks = 0;
+
+    public GameSimulation(Difficulty difficulty, GameRng random) {
+        this.difficulty = difficulty;
+        this.random = random;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener != null ? listener : NO_LISTENER;
+    }
+
+    // antes de startMatch
+    public void setVersus(boolean versus) {
+        this.versus = versus;
+    }
+
+    public boolean isVersus() {
+        return versus;
+    }
+
+    public void setExternalOpponent(boolean external) {
+        this.externalOpponent = external;
+    }
+
+    public boolean hasExternalOpponent() {
+        return externalOpponent;
+    }
+
+    // o lutador da direita segue p2 (versus ou IA de fora) em vez do thinkAI
+    private boolean opponentFromInput() {
+        return versus || externalOpponent;
+    }
+
+    public void setStaminaCosts(int jab, int hook, int cross) {
+        costJab = jab;
+        costHook = hook;
+        costCross = cross;
+    }
+
+    // ======= SETUP =======
+    public void startMatch() {
+        started = true;
+        playerRoundsWon = 0;
+        aiRoundsWon = 0;
+        currentRound = 1;
+        startRound();
+    }
+
+    private void startRound() {
+        player.reset(200);
+        ai.reset(550);
+
+        // dificuldade (no versus, o lutador da direita é igual ao do jogador)
+        ai.setMoveSpeed(versus ? Fighter.DEFAULT_MOVE_SPEED : difficulty.aiSpeed);
+        ai.setDamageBonus(versus ? 0 : difficulty.aiDamageBonus);
+
+        // stamina e tempo
+        for (int side = SIDE_PLAYER; side <= SIDE_OPPONENT; side++) {
+            stamina[side] = MAX_STAMINA;
+            staminaOnCooldown[side] = false;
+            staminaCooldownLeftMs[side] = 0;
+        }
+
+        roundTimeLeftMs = ROUND_MS;
+
+        aiThinkElapsedMs = 0;
+        nextAIThinkDelayMs = randBetween(difficulty.thinkMinMs, difficulty.thinkMaxMs);
+
+        // intro
+        introMsLeft = INTRO_TOTAL_MS;
+        state = GameState.ROUND_INTRO;
+
+        listener.onRoundStart(currentRound);
+        listener.onSound(Sound.BELL, 0f);
+    }
+
+    private void endRound(String message) {
+        state = GameState.ROUND_END;
+        roundEndMessageId = messageId(message);
+        roundEndHoldMs = 0;
+    }
+
+    private void finishGame(String message) {
+        state = GameState.GAME_OVER;
+        roundEndMessageId = messageId(message);
+    }
+
+    // ======= TICK =======
+    // input: bits INPUT_* do jogador neste tick (ignorado fora de PLAYING)
+    public void tick(int input) {
+        tick(input, 0);
+    }
+
+    // p2: input do lutador da direita (versus ou IA de fora; contra o thinkAI é ignorado)
+    public void tick(int input, int p2) {
+        if (!started)
+            return;
+
+        // guarda a posição anterior para a interpolação do render
+        player.beginTick();
+        ai.beginTick();
+
+        switch (state) {
+            case ROUND_INTRO -> updateIntro();
+            case PLAYING -> update(input, p2);
+            case ROUND_END -> updateRoundEnd();
+            default -> {
+            }
+        }
+        ticks++;
+    }
+
+    private void updateIntro() {
+        introMsLeft -= TICK_MS;
+        if (introMsLeft <= 0) {
+            introMsLeft = 0;
+            state = GameState.PLAYING;
+        }
+    }
+
+    private void update(int input, int p2) {
+        punchInput(SIDE_PLAYER, input);
+        if (opponentFromInput())
+            punchInput(SIDE_OPPONENT, p2);
+
+        // ===== STAMINA: cooldown de 6s quando zera =====
+        for (int side = SIDE_PLAYER; side <= SIDE_OPPONENT; side++) {
+            if (staminaOnCooldown[side]) {
+                staminaCooldownLeftMs[side] -= TICK_MS;
+                if (staminaCooldownLeftMs[side] <= 0) {
+                    staminaCooldownLeftMs[side] = 0;
+                    staminaOnCooldown[side] = false;
+                    stamina[side] = MAX_STAMINA; // recarrega 100%
+                }
+            }
+        }
+
+        // tempo
+        roundTimeLeftMs -= TICK_MS;
+        if (roundTimeLeftMs < 0)
+            roundTimeLeftMs = 0;
+
+        // movimento player
+        if ((input & INPUT_LEFT) != 0)
+            player.move(-1, ARENA_WIDTH);
+        if ((input & INPUT_RIGHT) != 0)
+            player.move(+1, ARENA_WIDTH);
+        if (opponentFromInput()) {
+            if ((p2 & INPUT_LEFT) != 0)
+                ai.move(-1, ARENA_WIDTH);
+            if ((p2 & INPUT_RIGHT) != 0)
+                ai.move(+1, ARENA_WIDTH);
+        }
+
+        player.update();
+        ai.update();
+
+        player.setFacing(ai.getX() >= player.getX());
+        ai.setFacing(player.getX() >= ai.getX());
+
+        // IA
+        aiThinkElapsedMs += TICK_MS;
+        if (!opponentFromInput() && aiThinkElapsedMs >= nextAIThinkDelayMs) {
+            thinkAI();
+            aiThinkElapsedMs = 0;
+            nextAIThinkDelayMs = randBetween(difficulty.thinkMinMs, difficulty.thinkMaxMs);
+        }
+
+        // hits
+        checkHits(player, ai);
+        checkHits(ai, player);
+
+        // KO?
+        if (player.isDead() || ai.isDead()) {
+            listener.onSound(Sound.KO, 0f);
+            if (player.isDead() && ai.isDead()) {
+                awardRoundByHealth(BASE_DOUBLE_KO, true);
+            } else if (player.isDead()) {
+                listener.onRoundEnd(currentRound, -1, true, ROUND_MS - roundTimeLeftMs);
+                aiRoundsWon++;
+                if (aiRoundsWon >= ROUNDS_TO_WIN || currentRound >= ROUNDS_TOTAL)
+                    finishGame(KO_LOSS_FINAL);
+                else
+                    endRound(KO_LOSS_MESSAGES[currentRound]);
+            } else {
+                listener.onRoundEnd(currentRound, +1, true, ROUND_MS - roundTimeLeftMs);
+                playerRoundsWon++;
+                if (playerRoundsWon >= ROUNDS_TO_WIN || currentRound >= ROUNDS_TOTAL)
+                    finishGame(KO_WIN_FINAL);
+                else
+                    endRound(KO_WIN_MESSAGES[currentRound]);
+            }
+            return;
+        }
+
+        // tempo acabou
+        if (roundTimeLeftMs == 0) {
+            awardRoundByHealth(BASE_TIME_UP, false);
+        }
+    }
+
+    private void awardRoundByHealth(int base, boolean ko) {
+        int ph = player.getHealth();
+        int ah = ai.getHealth();
+        listener.onRoundEnd(currentRound, Integer.compare(ph, ah), ko, ROUND_MS - roundTimeLeftMs);
+        String[] msg = POINTS_MESSAGES[base][currentRound];
+
+        if (ph > ah) {
+            playerRoundsWon++;
+            if (playerRoundsWon >= ROUNDS_TO_WIN || currentRound >= ROUNDS_TOTAL)
+                finishGame(msg[SUFFIX_PLAYER_POINTS]);
+            else
+                endRound(msg[SUFFIX_PLAYER_POINTS]);
+        } else if (ah > ph) {
+            aiRoundsWon++;
+            if (aiRoundsWon >= ROUNDS_TO_WIN || currentRound >= ROUNDS_TOTAL)
+                finishGame(msg[SUFFIX_AI_POINTS]);
+            else
+                endRound(msg[SUFFIX_AI_POINTS]);
+        } else {
+            if (currentRound >= ROUNDS_TOTAL) {
+                if (playerRoundsWon > aiRoundsWon)
+                    finishGame(msg[SUFFIX_TIE_PLAYER_TOTAL]);
+                else if (aiRoundsWon > playerRoundsWon)
+                    finishGame(msg[SUFFIX_TIE_AI_TOTAL]);
+                else
+                    finishGame(msg[SUFFIX_TIE_OVERALL]);
+            } else {
+                endRound(msg[SUFFIX_TIE_ROUND]);
+            }
+        }
+    }
+
+    private void updateRoundEnd() {
+        roundEndHoldMs += TICK_MS;
+
+        if (roundEndHoldMs >= ROUND_END_HOLD_MS) {
+            currentRound++;
+            if (currentRound > ROUNDS_TOTAL) {
+                if (playerRoundsWon > aiRoundsWon)
+                    finishGame(ROUNDS_OVER_WIN);
+                else if (aiRoundsWon > playerRoundsWon)
+                    finishGame(ROUNDS_OVER_LOSS);
+                else
+                    finishGame(ROUNDS_OVER_TIE);
+            } else {
+                startRound();
+            }
+        }
+    }
+
+    // ======= IA =======
+    // (visível no pacote para o benchmark)
+    void thinkAI() {
+        int dist = player.getX() - ai.getX();
+        int abs = Math.abs(dist);
+
+        boolean far = abs > 200;
+        boolean mid = abs > 120 && abs <= 200;
+        boolean close = abs <= 120;
+
+        if (far) {
+            ai.move(dist > 0 ? +1 : -1, ARENA_WIDTH);
+            listener.onAiDecision(BAND_FAR, ACTION_APPROACH, abs);
+            return;
+        }
+
+        if (mid) {
+            String action;
+            if (random.nextDouble() < difficulty.attackChanceMid) {
+                PunchType p = randomPunch();
+                ai.punch(p);
+                action = p.name();
+            } else {
+                int dir = dist > 0 ? +1 : -1;
+                boolean forward = random.nextBoolean();
+                ai.move(forward ? dir : -dir, ARENA_WIDTH);
+                action = forward ? ACTION_APPROACH : ACTION_RETREAT;
+            }
+            listener.onAiDecision(BAND_MID, action, abs);
+            return;
+        }
+
+        if (close) {
+            String action;
+            if (random.nextDouble() < difficulty.attackChanceClose) {
+                PunchType p = randomPunch();
+                ai.punch(p);
+                action = p.name();
+            } else {
+                int dirAway = dist > 0 ? -1 : +1;
+                ai.move(dirAway, ARENA_WIDTH);
+                action = ACTION_RETREAT;
+            }
+            listener.onAiDecision(BAND_CLOSE, action, abs);
+        }
+    }
+
+    // rótulos dos eventos de decisão da IA
+    private static final String BAND_FAR = "far";
+    private static final String BAND_MID = "mid";
+    private static final String BAND_CLOSE = "close";
+    private static final String ACTION_APPROACH = "approach";
+    private static final String ACTION_RETREAT = "retreat";
+
+    private PunchType randomPunch() {
+        int r = random.nextInt(3);
+        return switch (r) {
+            case 0 -> PunchType.JAB;
+            case 1 -> PunchType.HOOK;
+            default -> PunchType.CROSS;
+        };
+    }
+
+    void checkHits(Fighter attacker, Fighter defender) {
+        if (!attacker.isPunching())
+            return;
+        if (attacker.isHitRegistered())
+            return;
+
+        attacker.getHitBox(hitBox);
+        defender.getHurtBox(hurtBox);
+
+        if (hitBox.intersects(hurtBox)) {
+            int damage = 5 + random.nextInt(10) + attacker.getDamageBonus();
+            defender.takeDamage(damage);
+            attacker.setHitRegistered(true);
+            listener.onHit(attacker, defender, attacker.getPunchType(), damage);
+
+            // pan pela posição de quem apanhou
+            float pan = (defender.getX() - ARENA_WIDTH / 2f) / (ARENA_WIDTH / 2f);
+            listener.onSound(Sound.PUNCH, pan);
+        }
+    }
+
+    private int randBetween(int a, int b) {
+        return a + random.nextInt(Math.max(1, (b - a + 1)));
+    }
+
+    // ======= STAMINA =======
+    private void punchInput(int side, int input) {
+        if ((input & INPUT_JAB) != 0)
+            tryPunch(side, PunchType.JAB);
+        else if ((input & INPUT_HOOK) != 0)
+            tryPunch(side, PunchType.HOOK);
+        else if ((input & INPUT_CROSS) != 0)
+            tryPunch(side, PunchType.CROSS);
+    }
+
+    private void tryPunch(int side, PunchType type) {
+        Fighter f = side == SIDE_PLAYER ? player : ai;
+
+        // se estiver em recarga, não deixa bater
+        if (staminaOnCooldown[side])
+            return;
+
+        int cost = switch (type) {
+            case JAB -> costJab;
+            case HOOK -> costHook;
+            case CROSS -> costCross;
+        };
+
+        // evita golpe durante animação atual
+        if (f.isPunching())
+            return;
+
+        // sem stamina = inicia cooldown de 6s
+        if (stamina[side] < cost) {
+            if (stamina[side] <= 0 && !staminaOnCooldown[side]) {
+                staminaOnCooldown[side] = true;
+                staminaCooldownLeftMs[side] = STAMINA_RECHARGE_COOLDOWN_MS;
+            }
+            return;
+        }
+
+        stamina[side] -= cost;
+        if (stamina[side] <= 0) {
+            stamina[side] = 0;
+            staminaOnCooldown[side] = true;
+            staminaCooldownLeftMs[side] = STAMINA_RECHARGE_COOLDOWN_MS;
+        }
+
+        f.punch(type);
+    }
+
+    // ======= GETTERS =======
+    public GameState getState() {
+        return state;
+    }
+
+    public boolean isOver() {
+        return state == GameState.GAME_OVER;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    public Fighter getPlayer() {
+        return player;
+    }
+
+    public Fighter getAi() {
+        return ai;
+    }
+
+    public int getPlayerStamina() {
+        return stamina[SIDE_PLAYER];
+    }
+
+    public boolean isStaminaOnCooldown() {
+        return staminaOnCooldown[SIDE_PLAYER];
+    }
+
+    public long getStaminaCooldownLeftMs() {
+        return staminaCooldownLeftMs[SIDE_PLAYER];
+    }
+
+    public int getStamina(int side) {
+        return stamina[side];
+    }
+
+    public boolean isStaminaOnCooldown(int side) {
+        return staminaOnCooldown[side];
+    }
+
+    public long getStaminaCooldownLeftMs(int side) {
+        return staminaCooldownLeftMs[side];
+    }
+
+    public long getIntroMsLeft() {
+        return introMsLeft;
+    }
+
+    public int getCurrentRound() {
+        return currentRound;
+    }
+
+    // estado do GameRng (conferência do BatchEnv)
+    long getRngState() {
+        return random.getState();
+    }
+
+    public long getRoundTimeLeftMs() {
+        return roundTimeLeftMs;
+    }
+
+    public int getPlayerRoundsWon() {
+        return playerRoundsWon;
+    }
+
+    public int getAiRoundsWon() {
+        return aiRoundsWon;
+    }
+
+    public String getRoundEndMessage() {
+        return MESSAGES[roundEndMessageId];
+    }
+
+    int getRoundEndMessageId() {
+        return roundEndMessageId;
+    }
+
+    static int messageCount() {
+        return MESSAGES.length;
+    }
+
+    // hash de todo o estado que afeta a partida (confere replays e sincronia)
+    public long stateHash() {
+        long h = FNV_OFFSET;
+        h = mix(h, state.ordinal());
+        h = mix(h, started ? 1 : 0);
+        h = mix(h, costJab);
+        h = mix(h, costHook);
+        h = mix(h, costCross);
+        h = mix(h, stamina[SIDE_PLAYER]);
+        h = mix(h, staminaOnCooldown[SIDE_PLAYER] ? 1 : 0);
+        h = mix(h, staminaCooldownLeftMs[SIDE_PLAYER]);
+        h = mix(h, versus ? 1 : 0);
+        h = mix(h, externalOpponent ? 1 : 0);
+        h = mix(h, stamina[SIDE_OPPONENT]);
+        h = mix(h, staminaOnCooldown[SIDE_OPPONENT] ? 1 : 0);
+        h = mix(h, staminaCooldownLeftMs[SIDE_OPPONENT]);
+        h = mix(h, introMsLeft);
+        h = mix(h, roundTimeLeftMs);
+        h = mix(h, currentRound);
+        h = mix(h, playerRoundsWon);
+        h = mix(h, aiRoundsWon);
+        h = mix(h, roundEndHoldMs);
+        h = mix(h, aiThinkElapsedMs);
+        h = mix(h, nextAIThinkDelayMs);
+        h = mix(h, ticks);
+        h = mix(h, random.getState());
+        h = player.hash(h);
+        return ai.hash(h);
+    }
+
+    // ======= SNAPSHOT (layout em MatchSnapshot; gets/puts absolutos a partir de at, sem alocar) =======
+    // o listener não é chamado na restauração
+    void writeSnapshot(ByteBuffer b, int at) {
+        b.put(at + MatchSnapshot.STATE, (byte) state.ordinal());
+        b.put(at + MatchSnapshot.STARTED, (byte) (started ? 1 : 0));
+        b.put(at + MatchSnapshot.STAMINA_ON_COOLDOWN, (byte) (staminaOnCooldown[SIDE_PLAYER] ? 1 : 0));
+        b.put(at + MatchSnapshot.OPPONENT_STAMINA_ON_COOLDOWN, (byte) (staminaOnCooldown[SIDE_OPPONENT] ? 1 : 0));
+        b.put(at + MatchSnapshot.VERSUS, (byte) (versus ? 1 : 0));
+        b.put(at + MatchSnapshot.EXTERNAL_OPPONENT, (byte) (externalOpponent ? 1 : 0));
+        b.putShort(at + MatchSnapshot.MESSAGE, (short) roundEndMessageId);
+        b.putInt(at + MatchSnapshot.COST_JAB, costJab);
+        b.putInt(at + MatchSnapshot.COST_HOOK, costHook);
+        b.putInt(at + MatchSnapshot.COST_CROSS, costCross);
+        b.putInt(at + MatchSnapshot.PLAYER_STAMINA, stamina[SIDE_PLAYER]);
+        b.putInt(at + MatchSnapshot.OPPONENT_STAMINA, stamina[SIDE_OPPONENT]);
+        b.putInt(at + MatchSnapshot.CURRENT_ROUND, currentRound);
+        b.putInt(at + MatchSnapshot.PLAYER_ROUNDS_WON, playerRoundsWon);
+        b.putInt(at + MatchSnapshot.AI_ROUNDS_WON, aiRoundsWon);
+        b.putLong(at + MatchSnapshot.STAMINA_COOLDOWN_LEFT_MS, staminaCooldownLeftMs[SIDE_PLAYER]);
+        b.putLong(at + MatchSnapshot.OPPONENT_STAMINA_COOLDOWN_LEFT_MS, staminaCooldownLeftMs[SIDE_OPPONENT]);
+        b.putLong(at + MatchSnapshot.INTRO_MS_LEFT, introMsLeft);
+        b.putLong(at + MatchSnapshot.ROUND_TIME_LEFT_MS, roundTimeLeftMs);
+        b.putLong(at + MatchSnapshot.ROUND_END_HOLD_MS, roundEndHoldMs);
+        b.putLong(at + MatchSnapshot.AI_THINK_ELAPSED_MS, aiThinkElapsedMs);
+        b.putLong(at + MatchSnapshot.AI_THINK_DELAY_MS, nextAIThinkDelayMs);
+        b.putLong(at + MatchSnapshot.TICKS, ticks);
+        b.putLong(at + MatchSnapshot.RNG_STATE, random.getState());
+        player.writeSnapshot(b, at + MatchSnapshot.PLAYER);
+        ai.writeSnapshot(b, at + MatchSnapshot.AI);
+    }
+
+    void readSnapshot(ByteBuffer b, int at) {
+        state = STATES[b.get(at + MatchSnapshot.STATE)];
+        started = b.get(at + MatchSnapshot.STARTED) != 0;
+        staminaOnCooldown[SIDE_PLAYER] = b.get(at + MatchSnapshot.STAMINA_ON_COOLDOWN) != 0;
+        staminaOnCooldown[SIDE_OPPONENT] = b.get(at + MatchSnapshot.OPPONENT_STAMINA_ON_COOLDOWN) != 0;
+        versus = b.get(at + MatchSnapshot.VERSUS) != 0;
+        externalOpponent = b.get(at + MatchSnapshot.EXTERNAL_OPPONENT) != 0;
+        roundEndMessageId = b.getShort(at + MatchSnapshot.MESSAGE);
+        costJab = b.getInt(at + MatchSnapshot.COST_JAB);
+        costHook = b.getInt(at + MatchSnapshot.COST_HOOK);
+        costCross = b.getInt(at + MatchSnapshot.COST_CROSS);
+        stamina[SIDE_PLAYER] = b.getInt(at + MatchSnapshot.PLAYER_STAMINA);
+        stamina[SIDE_OPPONENT] = b.getInt(at + MatchSnapshot.OPPONENT_STAMINA);
+        currentRound = b.getInt(at + MatchSnapshot.CURRENT_ROUND);
+        playerRoundsWon = b.getInt(at + MatchSnapshot.PLAYER_ROUNDS_WON);
+        aiRoundsWon = b.getInt(at + MatchSnapshot.AI_ROUNDS_WON);
+        staminaCooldownLeftMs[SIDE_PLAYER] = b.getLong(at + MatchSnapshot.STAMINA_COOLDOWN_LEFT_MS);
+        staminaCooldownLeftMs[SIDE_OPPONENT] = b.getLong(at + MatchSnapshot.OPPONENT_STAMINA_COOLDOWN_LEFT_MS);
+        introMsLeft = b.getLong(at + MatchSnapshot.INTRO_MS_LEFT);
+        roundTimeLeftMs = b.getLong(at + MatchSnapshot.ROUND_TIME_LEFT_MS);
+        roundEndHoldMs = b.getLong(at + MatchSnapshot.ROUND_END_HOLD_MS);
+        aiThinkElapsedMs = b.getLong(at + MatchSnapshot.AI_THINK_ELAPSED_MS);
+        nextAIThinkDelayMs = b.getLong(at + MatchSnapshot.AI_THINK_DELAY_MS);
+        ticks = b.getLong(at + MatchSnapshot.TICKS);
+        random.setState(b.getLong(at + MatchSnapshot.RNG_STATE));
+        player.readSnapshot(b, at + MatchSnapshot.PLAYER);
+        ai.readSnapshot(b, at + MatchSnapshot.AI);
+    }
+
+    private static final GameState[] STATES = GameState.values(); // values() clona a cada chamada
+
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    static long mix(long h, long v) {
+        return (h ^ v) * FNV_PRIME;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+}
+
+// ======= RNG DA SIMULAÇÃO (mesmo LCG de java.util.Random, com estado exposto) =======
+// gera a mesma sequência que new Random(seed); o estado pode ser lido e restaurado (replay, hash)
+final class GameRng extends Random {
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state; // sem inicializador: o construtor de Random já chama setSeed
+
+    GameRng(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    long getState() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state & MASK;
+    }
+}
+
+// ======= SNAPSHOT DA PARTIDA (layout fixo; ordem de bytes do próprio ByteBuffer) =======
+// todo o estado que decide a partida, num bloco de SIZE bytes a partir de uma posição qualquer
+// de um ByteBuffer (heap ou direto). Só gets/puts absolutos: nada é alocado e a posição/limite
+// do buffer não mudam, então o mesmo buffer pode guardar vários snapshots (keyframes)
+final class MatchSnapshot {
+    static final int MAGIC = 0x4258534E; // "BXSN"
+    static final short VERSION = 1;
+
+    // cabeçalho
+    static final int OFF_MAGIC = 0;
+    static final int OFF_VERSION = 4;
+    static final int OFF_DIFFICULTY = 6;
+    static final int OFF_COLOR = 7;
+
+    // simulação (longs alinhados em 8)
+    static final int STATE = 8;
+    static final int STARTED = 9;
+    static final int STAMINA_ON_COOLDOWN = 10;
+    static final int OPPONENT_STAMINA_ON_COOLDOWN = 11;
+    static final int MESSAGE = 12; // short: índice da mensagem de fim de round
+    static final int VERSUS = 14;
+    static final int EXTERNAL_OPPONENT = 15; // oponente de fora (OpponentAi) no lugar do thinkAI
+    static final int COST_JAB = 16;
+    static final int COST_HOOK = 20;
+    static final int COST_CROSS = 24;
+    static final int PLAYER_STAMINA = 28;
+    static final int CURRENT_ROUND = 32;
+    static final int PLAYER_ROUNDS_WON = 36;
+    static final int AI_ROUNDS_WON = 40;
+    static final int OPPONENT_STAMINA = 44;
+    static final int STAMINA_COOLDOWN_LEFT_MS = 48;
+    static final int INTRO_MS_LEFT = 56;
+    static final int ROUND_TIME_LEFT_MS = 64;
+    static final int ROUND_END_HOLD_MS = 72;
+    static final int AI_THINK_ELAPSED_MS = 80;
+    static final int AI_THINK_DELAY_MS = 88;
+    static final int TICKS = 96;
+    static final int RNG_STATE = 104;
+    static final int OPPONENT_STAMINA_COOLDOWN_LEFT_MS = 112;
+    static final int PLAYER = 120;
+    static final int AI = PLAYER + 32;
+
+    // lutador (relativo a PLAYER / AI)
+    static final int FIGHTER_X = 0;
+    static final int FIGHTER_PREV_X = 4;
+    static final int FIGHTER_Y = 8;
+    static final int FIGHTER_HEALTH = 12;
+    static final int FIGHTER_PUNCH_FRAME = 16;
+    static final int FIGHTER_MOVE_SPEED = 20;
+    static final int FIGHTER_DAMAGE_BONUS = 24;
+    static final int FIGHTER_FACING_RIGHT = 28;
+    static final int FIGHTER_PUNCHING = 29;
+    static final int FIGHTER_HIT_REGISTERED = 30;
+    static final int FIGHTER_PUNCH_TYPE = 31;
+
+    static final int SIZE = AI + 32;
+
+    static final Path QUICK_SAVE = Paths.get("quicksave.bxs");
+
+    private static final Difficulty[] DIFFICULTIES = Difficulty.values();
+
+    // faixa de cada campo que o jogo usa como índice (enums, mensagens, rótulos do HUD), por offset;
+    // load() confere todos e a transmissão (SpectatorCodec) tira daqui a faixa dos mesmos campos
+    private static final byte[] WIDTH = new byte[SIZE]; // bytes do campo; 0 = sem faixa
+    private static final long[] MIN = new long[SIZE];
+    private static final long[] MAX = new long[SIZE];
+
+    static {
+        bound(OFF_DIFFICULTY, 1, 0, DIFFICULTIES.length - 1);
+        bound(OFF_COLOR, 1, 0, GameRenderer.SHORT_COLORS.length - 1);
+        bound(STATE, 1, 0, GameState.values().length - 1);
+        bound(MESSAGE, 2, 0, GameSimulation.messageCount() - 1);
+        bound(CURRENT_ROUND, 4, 1, GameSimulation.ROUNDS_TOTAL);
+        bound(PLAYER_ROUNDS_WON, 4, 0, GameSimulation.ROUNDS_TOTAL);
+        bound(AI_ROUNDS_WON, 4, 0, GameSimulation.ROUNDS_TOTAL);
+        bound(ROUND_TIME_LEFT_MS, 8, 0, GameSimulation.ROUND_MS);
+        bound(STAMINA_COOLDOWN_LEFT_MS, 8, 0, GameSimulation.STAMINA_RECHARGE_COOLDOWN_MS);
+        bound(OPPONENT_STAMINA_COOLDOWN_LEFT_MS, 8, 0, GameSimulation.STAMINA_RECHARGE_COOLDOWN_MS);
+        bound(PLAYER + FIGHTER_PUNCH_TYPE, 1, 0, PunchType.values().length - 1);
+        bound(AI + FIGHTER_PUNCH_TYPE, 1, 0, PunchType.values().length - 1);
+    }
+
+    private static void bound(int offset, int width, long min, long max) {
+        WIDTH[offset] = (byte) width;
+        MIN[offset] = min;
+        MAX[offset] = max;
+    }
+
+    static long min(int offset) {
+        return MIN[offset];
+    }
+
+    static long max(int offset) {
+        return MAX[offset];
+    }
+
+    private MatchSnapshot() {
+    }
+
+    // color: calção do jogador (só apresentação, mas volta junto ao retomar)
+    static void write(GameSimulation sim, int color, ByteBuffer b, int at) {
+        b.putInt(at + OFF_MAGIC, MAGIC);
+        b.putShort(at + OFF_VERSION, VERSION);
+        b.put(at + OFF_DIFFICULTY, (byte) sim.getDifficulty().ordinal());
+        b.put(at + OFF_COLOR, (byte) color);
+        sim.writeSnapshot(b, at);
+    }
+
+    // restaura numa simulação existente (a dificuldade é final na simulação e precisa bater)
+    static void read(ByteBuffer b, int at, GameSimulation sim) {
+        check(b, at);
+        if (b.get(at + OFF_DIFFICULTY) != sim.getDifficulty().ordinal())
+            throw new IllegalArgumentException("Snapshot de outra dificuldade");
+        sim.readSnapshot(b, at);
+    }
+
+    // nova simulação a partir do snapshot (retomar, análise "e se")
+    static GameSimulation newSimulation(ByteBuffer b, int at) {
+        check(b, at);
+        GameSimulation sim = new GameSimulation(difficulty(b, at), new GameRng(0));
+        sim.readSnapshot(b, at);
+        return sim;
+    }
+
+    static Difficulty difficulty(ByteBuffer b, int at) {
+        return DIFFICULTIES[b.get(at + OFF_DIFFICULTY)];
+    }
+
+    static int color(ByteBuffer b, int at) {
+        return b.get(at + OFF_COLOR);
+    }
+
+    private static void check(ByteBuffer b, int at) {
+        if (b.getInt(at + OFF_MAGIC) != MAGIC || b.getShort(at + OFF_VERSION) != VERSION)
+            throw new IllegalArgumentException("Snapshot inválido ou de outra versão");
+    }
+
+    // grava os SIZE bytes a partir de 0
+    static void save(ByteBuffer b, Path file) throws IOException {
+        ByteBuffer src = b.duplicate();
+        src.clear().limit(SIZE);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (src.hasRemaining())
+                ch.write(src);
+        }
+    }
+
+    static ByteBuffer load(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < SIZE)
+            throw new IOException("Snapshot truncado: " + file);
+        ByteBuffer b = ByteBuffer.wrap(bytes);
+        try {
+            check(b, 0);
+            checkBounds(b, 0);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + ": " + file);
+        }
+        return b;
+    }
+
+    // o arquivo vem de fora: cabeçalho certo não garante que os índices caibam nos arrays
+    private static void checkBounds(ByteBuffer b, int at) {
+        for (int off = 0; off < SIZE; off++) {
+            if (WIDTH[off] == 0)
+                continue;
+            long v = switch (WIDTH[off]) {
+                case 1 -> b.get(at + off);
+                case 2 -> b.getShort(at + off);
+                case 4 -> b.getInt(at + off);
+                default -> b.getLong(at + off);
+            };
+            if (v < MIN[off] || v > MAX[off])
+                throw new IllegalArgumentException("Snapshot corrompido (offset " + off + " = " + v + ")");
+        }
+    }
+}
+
+// ======= REPLAY (seed + input do jogador por tick; reproduz a partida bit a bit) =======
+// formato: "BXRP" | versão | seed (8 bytes) | dificuldade | cor do short
+//          | a cada mudança de input: varint ticks desde a mudança anterior, varint input
+//          | fim: varint ticks restantes, varint END | hash do estado final (8 bytes)
+//          | keyframes, um a cada KEYFRAME_TICKS, todos do mesmo tamanho:
+//            tick (8) | posição do próximo registro (4) | tick da última mudança (8) | input (4)
+//            | MatchSnapshot
+//          | índice: intervalo (4) | quantidade (4) | posição do 1º keyframe (4) | "BXKF"
+// o keyframe k é o tick k * intervalo: achar o mais próximo é uma divisão
+final class Replay {
+    static final int MAGIC = 0x42585250; // "BXRP"
+    static final int INDEX_MAGIC = 0x42584B46; // "BXKF"
+    static final int VERSION = 1;
+    static final int END = 0x7F; // fora dos bits INPUT_*
+    static final String EXTENSION = ".bxr";
+    static final Path DEFAULT_DIR = Paths.get("replays");
+
+    static final int KEYFRAME_TICKS = 300; // ~5 s de jogo
+    static final int KEYFRAME_TICK = 0;
+    static final int KEYFRAME_RECORD_POS = 8;
+    static final int KEYFRAME_CHANGE_TICK = 12;
+    static final int KEYFRAME_INPUT = 20;
+    static final int KEYFRAME_SNAPSHOT = 24;
+    static final int KEYFRAME_BYTES = KEYFRAME_SNAPSHOT + MatchSnapshot.SIZE;
+    static final int INDEX_BYTES = 16;
+
+    final long seed;
+    final Difficulty difficulty;
+    final int color;
+    final long ticks;
+    final long finalHash;
+
+    private final byte[] data;
+    private final ByteBuffer view; // leituras absolutas dos keyframes
+    private final int recordsStart;
+    private final int keyframeInterval;
+    private final int keyframeCount;
+    private final int keyframesStart;
+
+    // leitura dos registros durante a reprodução
+    private int pos;
+    private long tick;
+    private long nextChangeTick;
+    private int nextChangeInput;
+    private int input;
+
+    private Replay(byte[] data) throws IOException {
+        this.data = data;
+        this.view = ByteBuffer.wrap(data);
+        try {
+            ByteBuffer b = ByteBuffer.wrap(data);
+            if (b.getInt() != MAGIC)
+                throw new IOException("Não é um replay (cabeçalho inválido)");
+            int version = b.get();
+            if (version != VERSION)
+                throw new IOException("Versão de replay não suportada: " + version);
+            seed = b.getLong();
+            difficulty = Difficulty.values()[b.get()];
+            color = b.get();
+            if (color < 0 || color >= GameRenderer.SHORT_COLORS.length)
+                throw new IOException("Cor do short inválida no replay: " + color);
+            recordsStart = b.position();
+
+            // percorre os registros uma vez: total de ticks e hash final
+            pos = recordsStart;
+            long t = 0;
+            while (true) {
+                t += readVarint();
+                if (readVarint() == END)
+                    break;
+            }
+            ticks = t;
+            finalHash = ByteBuffer.wrap(data, pos, 8).getLong();
+
+            b.position(data.length - INDEX_BYTES);
+            keyframeInterval = b.getInt();
+            keyframeCount = b.getInt();
+            keyframesStart = b.getInt();
+            if (b.getInt() != INDEX_MAGIC || keyframeInterval <= 0
+                    || keyframesStart + (long) keyframeCount * KEYFRAME_BYTES > data.length - INDEX_BYTES)
+                throw new IOException("Índice de keyframes inválido");
+        } catch (RuntimeException e) {
+            throw new IOException("Replay corrompido", e);
+        }
+        rewind();
+    }
+
+    static Replay read(Path file) throws IOException {
+        return new Replay(Files.readAllBytes(file));
+    }
+
+    static Replay parse(byte[] data) throws IOException {
+        return new Replay(data.clone());
+    }
+
+    GameSimulation newSimulation() {
+        return new GameSimulation(difficulty, new GameRng(seed));
+    }
+
+    void rewind() {
+        pos = recordsStart;
+        tick = 0;
+        input = 0;
+        nextChangeTick = 0;
+        readNextChange();
+    }
+
+    boolean isDone() {
+        return tick >= ticks;
+    }
+
+    long getTick() {
+        return tick;
+    }
+
+    int getKeyframeCount() {
+        return keyframeCount;
+    }
+
+    // input do próximo tick (0 depois do fim)
+    int nextInput() {
+        if (isDone())
+            return 0;
+        if (tick == nextChangeTick) {
+            input = nextChangeInput;
+            readNextChange();
+        }
+        tick++;
+        return input;
+    }
+
+    // leva a simulação (desta partida) ao tick pedido: restaura o keyframe anterior mais próximo
+    // e simula só o resto (no máximo KEYFRAME_TICKS - 1 ticks). Eventos saem no listener da
+    // simulação: quem chama decide se silencia
+    void seek(GameSimulation sim, long target) {
+        target = Math.max(0, Math.min(ticks, target));
+        if (keyframeCount == 0) { // partida salva antes do primeiro tick: não há keyframe
+            if (target < tick || !sim.isStarted()) {
+                rewind();
+                sim.startMatch();
+            }
+        } else if (target < tick || target - tick >= keyframeInterval || !sim.isStarted()) {
+            int k = (int) Math.min(target / keyframeInterval, keyframeCount - 1);
+            restoreKeyframe(k, sim);
+        }
+        while (tick < target)
+            sim.tick(nextInput());
+    }
+
+    private void restoreKeyframe(int k, GameSimulation sim) {
+        int at = keyframesStart + k * KEYFRAME_BYTES;
+        tick = view.getLong(at + KEYFRAME_TICK);
+        pos = view.getInt(at + KEYFRAME_RECORD_POS);
+        nextChangeTick = view.getLong(at + KEYFRAME_CHANGE_TICK);
+        input = view.getInt(at + KEYFRAME_INPUT);
+        MatchSnapshot.read(view, at + KEYFRAME_SNAPSHOT, sim);
+        readNextChange();
+    }
+
+    private void readNextChange() {
+        long delta = readVarint();
+        int in = (int) readVarint();
+        nextChangeTick += delta;
+        if (in == END) {
+            nextChangeTick = Long.MAX_VALUE; // nada mais a ler
+        } else {
+            nextChangeInput = in;
+        }
+    }
+
+    private long readVarint() {
+        long v = 0;
+        int shift = 0;
+        while (true) {
+            byte b = data[pos++];
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return v;
+            shift += 7;
+        }
+    }
+
+    // reproduz na simulação até o fim; devolve o hash do estado final
+    static long play(Replay replay, GameSimulation sim) {
+        replay.rewind();
+        sim.startMatch();
+        while (!replay.isDone())
+            sim.tick(replay.nextInput());
+        return sim.stateHash();
+    }
+
+    // java BoxingGame --replay ARQUIVO --headless: reproduz na velocidade máxima e confere o hash
+    // (e, se houver keyframes, que cada um bate com a simulação contínua)
+    static void runHeadless(Path file) throws IOException {
+        Replay replay = read(file);
+        GameSimulation sim = replay.newSimulation();
+        long t0 = System.nanoTime();
+        long hash = play(replay, sim);
+        double ms = (System.nanoTime() - t0) / 1e6;
+
+        System.out.printf("%s: %d ticks (%s) em %.1f ms, placar %d x %d, %s, %d keyframes%n",
+                file, replay.ticks, replay.difficulty, ms,
+                sim.getPlayerRoundsWon(), sim.getAiRoundsWon(), sim.getState(), replay.keyframeCount);
+        if (hash != replay.finalHash) {
+            System.out.printf("DIVERGIU: hash %016x, gravado %016x%n", hash, replay.finalHash);
+            System.exit(1);
+        }
+
+        if (replay.keyframeCount > 0) {
+            GameSimulation seeker = replay.newSimulation();
+            long worstNs = 0;
+            for (int k = replay.keyframeCount - 1; k >= 0; k--) {
+                long s0 = System.nanoTime();
+                replay.seek(seeker, k * (long) replay.keyframeInterval + replay.keyframeInterval / 2);
+                worstNs = Math.max(worstNs, System.nanoTime() - s0);
+            }
+            replay.seek(seeker, replay.ticks);
+            if (seeker.stateHash() != replay.finalHash) {
+                System.out.printf("DIVERGIU após busca: hash %016x, gravado %016x%n", seeker.stateHash(),
+                        replay.finalHash);
+                System.exit(1);
+            }
+            System.out.printf("busca para trás: pior caso %.2f ms%n", worstNs / 1e6);
+        }
+        System.out.printf("OK: hash %016x%n", hash);
+    }
+}
+
+// grava o replay de uma partida; só a thread do jogo usa
+final class ReplayRecorder {
+    private byte[] buf = new byte[4096];
+    private int len;
+    private ByteBuffer keyframes = ByteBuffer.allocate(64 * Replay.KEYFRAME_BYTES);
+    private boolean active = false;
+    private int color;
+
+    private long tick;
+    private long lastChangeTick;
+    private int lastInput;
+
+    void start(long seed, Difficulty difficulty, int color) {
+        len = 0;
+        ByteBuffer header = ByteBuffer.wrap(buf);
+        header.putInt(Replay.MAGIC).put((byte) Replay.VERSION).putLong(seed)
+                .put((byte) difficulty.ordinal()).put((byte) color);
+        len = header.position();
+        keyframes.clear();
+        this.color = color;
+        tick = 0;
+        lastChangeTick = 0;
+        lastInput = 0;
+        active = true;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    // chamado antes de sim.tick(input): keyframe do estado atual a cada KEYFRAME_TICKS
+    // e o input deste tick (só as mudanças vão para o arquivo)
+    void record(int input, GameSimulation sim) {
+        if (tick % Replay.KEYFRAME_TICKS == 0)
+            writeKeyframe(sim);
+        if (input != lastInput) {
+            writeVarint(tick - lastChangeTick);
+            writeVarint(input);
+            lastChangeTick = tick;
+            lastInput = input;
+        }
+        tick++;
+    }
+
+    private void writeKeyframe(GameSimulation sim) {
+        if (keyframes.remaining() < Replay.KEYFRAME_BYTES) {
+            ByteBuffer bigger = ByteBuffer.allocate(keyframes.capacity() * 2);
+            keyframes.flip();
+            keyframes = bigger.put(keyframes);
+        }
+        int at = keyframes.position();
+        keyframes.putLong(at + Replay.KEYFRAME_TICK, tick);
+        keyframes.putInt(at + Replay.KEYFRAME_RECORD_POS, len);
+        keyframes.putLong(at + Replay.KEYFRAME_CHANGE_TICK, lastChangeTick);
+        keyframes.putInt(at + Replay.KEYFRAME_INPUT, lastInput);
+        MatchSnapshot.write(sim, color, keyframes, at + Replay.KEYFRAME_SNAPSHOT);
+        keyframes.position(at + Replay.KEYFRAME_BYTES);
+    }
+
+    // fecha o replay com o hash do estado final, keyframes e índice; devolve os bytes
+    byte[] finish(long finalHash) {
+        writeVarint(tick - lastChangeTick);
+        writeVarint(Replay.END);
+        ensure(8 + keyframes.position() + Replay.INDEX_BYTES);
+        ByteBuffer out = ByteBuffer.wrap(buf, len, buf.length - len);
+        out.putLong(finalHash);
+        int keyframesStart = out.position();
+        keyframes.flip();
+        int count = keyframes.remaining() / Replay.KEYFRAME_BYTES;
+        out.put(keyframes);
+        out.putInt(Replay.KEYFRAME_TICKS).putInt(count).putInt(keyframesStart).putInt(Replay.INDEX_MAGIC);
+        len = out.position();
+        active = false;
+        return Arrays.copyOf(buf, len);
+    }
+
+    private void writeVarint(long v) {
+        ensure(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[len++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[len++] = (byte) v;
+    }
+
+    private void ensure(int n) {
+        if (len + n > buf.length)
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+    }
+
+    static Path save(byte[] replay, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        // milissegundos mantêm a ordem por nome; CREATE_NEW garante que nenhum replay sobrescreve outro
+        String name = "replay-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS"));
+        for (int n = 1;; n++) {
+            Path file = dir.resolve(n == 1 ? name + Replay.EXTENSION : name + "-" + n + Replay.EXTENSION);
+            try {
+                Files.write(file, replay, StandardOpenOption.CREATE_NEW);
+                return file;
+            } catch (FileAlreadyExistsException e) {
+                // mesmo milissegundo: tenta o próximo sufixo
+            }
+        }
+    }
+}
+
+// ======= NETCODE: TRANSPORTE (UDP não bloqueante; latência e perda simuladas na saída) =======
+final class NetLink implements Closeable {
+    static final int MAX_PACKET = 512;
+    private static final int QUEUE = 256;
+
+    private final DatagramChannel channel;
+    private final long latencyNs;
+    private final double loss;
+    private final Random random = new Random();
+
+    // pacotes atrasados pela latência simulada (anel de buffers reaproveitados)
+    private final ByteBuffer[] queue = new ByteBuffer[QUEUE];
+    private final long[] due = new long[QUEUE];
+    private int head, size;
+
+    long sent, received, dropped;
+
+    private NetLink(DatagramChannel channel, int latencyMs, double loss) throws IOException {
+        this.channel = channel;
+        this.latencyNs = latencyMs * 1_000_000L;
+        this.loss = loss;
+        channel.configureBlocking(false);
+        for (int i = 0; i < QUEUE; i++)
+            queue[i] = ByteBuffer.allocateDirect(MAX_PACKET);
+    }
+
+    // host: escuta na porta; o primeiro pacote que chegar define o par
+    static NetLink host(int port, int latencyMs, double loss) throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        ch.bind(new InetSocketAddress(port));
+        return new NetLink(ch, latencyMs, loss);
+    }
+
+    static NetLink join(InetSocketAddress host, int latencyMs, double loss) throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        ch.bind(null);
+        ch.connect(host);
+        return new NetLink(ch, latencyMs, loss);
+    }
+
+    // devolve o tamanho do pacote lido em dst (pronto para leitura) ou 0 se não havia nada
+    int receive(ByteBuffer dst) throws IOException {
+        dst.clear();
+        try {
+            if (channel.isConnected()) {
+                if (channel.read(dst) <= 0)
+                    return 0;
+            } else {
+                SocketAddress from = channel.receive(dst);
+                if (from == null)
+                    return 0;
+                channel.connect(from); // daqui em diante read/write, sem alocar endereço
+            }
+        } catch (PortUnreachableException e) {
+            return 0; // o outro lado ainda não abriu a porta
+        }
+        received++;
+        dst.flip();
+        return dst.remaining();
+    }
+
+    // src pronto para leitura; sem par ainda, o pacote é descartado
+    void send(ByteBuffer src) throws IOException {
+        if (!channel.isConnected())
+            return;
+        if (loss > 0 && random.nextDouble() < loss) {
+            dropped++;
+            return;
+        }
+        if (latencyNs == 0) {
+            write(src);
+            return;
+        }
+        if (size == QUEUE) {
+            dropped++;
+            return;
+        }
+        int slot = (head + size) % QUEUE;
+        queue[slot].clear();
+        queue[slot].put(src).flip();
+        due[slot] = System.nanoTime() + latencyNs;
+        size++;
+    }
+
+    // envia os pacotes atrasados cujo tempo chegou
+    void flush() throws IOException {
+        long now = System.nanoTime();
+        while (size > 0 && due[head] - now <= 0) {
+            write(queue[head]);
+            head = (head + 1) % QUEUE;
+            size--;
+        }
+    }
+
+    private void write(ByteBuffer src) throws IOException {
+        try {
+            channel.write(src);
+            sent++;
+        } catch (PortUnreachableException e) {
+            dropped++;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+// ======= NETCODE: ROLLBACK (estilo GGPO) =======
+// cada lado aplica o próprio input na hora (com inputDelay ticks de atraso) e prevê o do outro
+// (repete o último movimento, sem golpe). Quando o input real chega e difere do previsto, restaura
+// o snapshot daquele tick e re-simula até o presente dentro do mesmo tick. Cada pacote repete todos
+// os inputs que o outro lado ainda não confirmou, então perder pacotes só atrasa a confirmação.
+// O host é o jogador 1 (esquerda) e sorteia a seed; só a thread do jogo usa a sessão
+final class RollbackSession {
+    static final int MAX_ROLLBACK = 15; // ticks de previsão; além disso espera o outro lado
+    static final int MAX_INPUT_DELAY = 8;
+    private static final int RING = 64; // > 2 * (MAX_ROLLBACK + MAX_INPUT_DELAY)
+    private static final int MAX_SEND = 48;
+    private static final int SYNC_INTERVAL = 10; // no máximo um tick segurado a cada 10
+    private static final int HELLO_INTERVAL = 10;
+
+    // pacotes: magic | tipo | ...
+    private static final int MAGIC = 0x42584E54; // "BXNT"
+    private static final byte HELLO = 1;
+    private static final byte START = 2; // seed (8)
+    private static final byte INPUT = 3; // ack (4) | tick (4) | vantagem (2) | 1º tick (4) | n (1) | n inputs
+
+    private static final int PREDICTED_BITS = GameSimulation.INPUT_LEFT | GameSimulation.INPUT_RIGHT;
+
+    private final NetLink link;
+    private final boolean host;
+    private final int inputDelay;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(NetLink.MAX_PACKET);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(NetLink.MAX_PACKET);
+
+    private GameSimulation sim; // null até conectar
+    private GameSimulation.Listener listener;
+
+    // por tick (índice tick % RING): snapshot antes do tick, inputs locais, remotos confirmados
+    // e o remoto usado na simulação (confirmado ou previsto)
+    private final ByteBuffer snapshots = ByteBuffer.allocateDirect(RING * MatchSnapshot.SIZE);
+    private final int[] localInputs = new int[RING];
+    private final int[] remoteInputs = new int[RING];
+    private final int[] usedRemote = new int[RING];
+
+    private long tick; // próximo tick a simular
+    private long localInputTick; // inputs locais definidos para ticks < isso
+    private long remoteConfirmed; // inputs remotos conhecidos para ticks < isso
+    private long localAcked; // o outro lado já tem nossos inputs < isso
+    private long remoteTickSeen; // último tick informado pelo outro lado
+    private int remoteAdvantage;
+    private long rollbackFrom = -1;
+    private long lastSyncSkip = Long.MIN_VALUE / 2;
+    private boolean peerSeen; // host: já recebeu input do outro lado (para de mandar START)
+    private long seed;
+    private long polls;
+
+    // estatísticas
+    long rollbacks, rolledBackTicks, maxRollback, maxRollbackNs, stalls, syncSkips;
+
+    RollbackSession(NetLink link, boolean host, int inputDelay) {
+        this.link = link;
+        this.host = host;
+        this.inputDelay = Math.max(0, Math.min(MAX_INPUT_DELAY, inputDelay));
+    }
+
+    boolean isHost() {
+        return host;
+    }
+
+    // lado controlado por esta máquina (GameSimulation.SIDE_*)
+    int localSide() {
+        return host ? GameSimulation.SIDE_PLAYER : GameSimulation.SIDE_OPPONENT;
+    }
+
+    boolean isConnected() {
+        return sim != null;
+    }
+
+    GameSimulation getSimulation() {
+        return sim;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    NetLink getLink() {
+        return link;
+    }
+
+    void setListener(GameSimulation.Listener listener) {
+        this.listener = listener;
+        if (sim != null)
+            sim.setListener(listener);
+    }
+
+    private void start(long seed) {
+        this.seed = seed;
+        sim = new GameSimulation(Difficulty.MEDIUM, new GameRng(seed));
+        sim.setVersus(true);
+        sim.setListener(listener);
+        sim.startMatch();
+        tick = 0;
+        localInputTick = inputDelay; // os primeiros inputDelay ticks não têm input
+        remoteConfirmed = 0;
+        localAcked = 0;
+    }
+
+    // uma vez por tick do jogo: rede, rollback se preciso e envio
+    void poll() throws IOException {
+        polls++;
+        link.flush();
+        while (link.receive(in) > 0)
+            handle(in);
+        if (rollbackFrom >= 0)
+            rollback();
+        send();
+    }
+
+    private void handle(ByteBuffer p) {
+        if (p.remaining() < 5 || p.getInt() != MAGIC)
+            return;
+        byte type = p.get();
+        if (type == HELLO) {
+            if (host && sim == null)
+                start(new Random().nextLong());
+        } else if (type == START) {
+            if (!host && sim == null && p.remaining() >= 8)
+                start(p.getLong());
+        } else if (type == INPUT && sim != null && p.remaining() >= 15) {
+            peerSeen = true;
+            localAcked = Math.max(localAcked, p.getInt());
+            remoteTickSeen = Math.max(remoteTickSeen, p.getInt());
+            remoteAdvantage = p.getShort();
+            long first = p.getInt();
+            int n = p.get() & 0xFF;
+            for (int i = 0; i < n && p.hasRemaining(); i++) {
+                long t = first + i;
+                int input = p.get();
+                // só aceita em sequência; o que falta vem repetido no próximo pacote
+                if (t != remoteConfirmed || t >= tick + RING - MAX_ROLLBACK)
+                    continue;
+                int slot = (int) (t % RING);
+                remoteInputs[slot] = input;
+                if (t < tick && usedRemote[slot] != input && (rollbackFrom < 0 || t < rollbackFrom))
+                    rollbackFrom = t;
+                remoteConfirmed++;
+            }
+        }
+    }
+
+    // pode simular mais um tick? (não passa de MAX_ROLLBACK ticks sem confirmação, segura um
+    // tick de vez em quando se estiver adiantado em relação ao outro lado, para no fim da partida)
+    boolean canAdvance() {
+        if (sim == null || sim.isOver())
+            return false;
+        if (tick - remoteConfirmed >= MAX_ROLLBACK) {
+            stalls++;
+            return false;
+        }
+        // os dois veem o outro atrasado pela latência; a diferença entre as vantagens é o
+        // quanto este lado está na frente
+        long ahead = ((tick - remoteTickSeen) - remoteAdvantage) / 2;
+        if (ahead >= 2 && tick - lastSyncSkip >= SYNC_INTERVAL) {
+            lastSyncSkip = tick;
+            syncSkips++;
+            return false;
+        }
+        return true;
+    }
+
+    // input local deste tick (aplicado daqui a inputDelay ticks) e um passo da simulação
+    void advance(int localInput) {
+        localInputs[(int) ((tick + inputDelay) % RING)] = localInput;
+        localInputTick = tick + inputDelay + 1;
+        MatchSnapshot.write(sim, 0, snapshots, slot(tick));
+        simulate(tick);
+        tick++;
+    }
+
+    // volta ao primeiro tick previsto errado e re-simula até o presente, sem eventos
+    private void rollback() {
+        long t0 = System.nanoTime();
+        long from = rollbackFrom;
+        rollbackFrom = -1;
+
+        sim.setListener(null);
+        MatchSnapshot.read(snapshots, slot(from), sim);
+        for (long t = from; t < tick; t++) {
+            if (t > from)
+                MatchSnapshot.write(sim, 0, snapshots, slot(t));
+            simulate(t);
+        }
+        sim.setListener(listener);
+
+        rollbacks++;
+        rolledBackTicks += tick - from;
+        maxRollback = Math.max(maxRollback, tick - from);
+        maxRollbackNs = Math.max(maxRollbackNs, System.nanoTime() - t0);
+    }
+
+    // depois do fim a simulação fica parada: o tick do fim (e o hash) é o mesmo nos dois lados,
+    // mesmo que uma re-simulação passe do ponto onde a partida corrigida acabou
+    private void simulate(long t) {
+        int slot = (int) (t % RING);
+        int remote = t < remoteConfirmed ? remoteInputs[slot] : predictRemote();
+        usedRemote[slot] = remote;
+        int local = localInputs[slot];
+        if (sim.isOver())
+            return;
+        if (host)
+            sim.tick(local, remote);
+        else
+            sim.tick(remote, local);
+    }
+
+    private int predictRemote() {
+        if (remoteConfirmed == 0)
+            return 0;
+        return remoteInputs[(int) ((remoteConfirmed - 1) % RING)] & PREDICTED_BITS;
+    }
+
+    private int slot(long t) {
+        return (int) (t % RING) * MatchSnapshot.SIZE;
+    }
+
+    private void send() throws IOException {
+        out.clear();
+        out.putInt(MAGIC);
+        if (sim == null) {
+            if (!host && polls % HELLO_INTERVAL == 1) {
+                out.put(HELLO).flip();
+                link.send(out);
+            }
+            return;
+        }
+        if (host && !peerSeen) {
+            out.put(START).putLong(seed).flip();
+            link.send(out);
+            out.clear();
+            out.putInt(MAGIC);
+        }
+
+        long first = Math.max(localAcked, localInputTick - MAX_SEND);
+        int n = (int) (localInputTick - first);
+        long advantage = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tick - remoteTickSeen));
+        out.put(INPUT).putInt((int) remoteConfirmed).putInt((int) tick).putShort((short) advantage)
+                .putInt((int) first).put((byte) n);
+        for (long t = first; t < localInputTick; t++)
+            out.put((byte) localInputs[(int) (t % RING)]);
+        out.flip();
+        link.send(out);
+    }
+
+    // partida acabou numa linha do tempo toda confirmada (os dois lados chegam ao mesmo estado).
+    // Basta confirmar até o tick do fim (sim.getTicks(): a simulação para de contar ali), não até
+    // o tick previsto: este lado pode estar alguns ticks à frente do último input que o outro
+    // mandou, e o outro para de mandar ticks novos quando também vê o fim
+    boolean isFinished() {
+        return sim != null && sim.isOver() && remoteConfirmed >= sim.getTicks();
+    }
+
+    // o outro lado já tem todos os nossos inputs
+    boolean isPeerCaughtUp() {
+        return localAcked >= localInputTick;
+    }
+
+    long getTick() {
+        return tick;
+    }
+
+    long getRemoteConfirmed() {
+        return remoteConfirmed;
+    }
+
+    // java BoxingGame --net host PORTA --headless / --net join HOST:PORTA --headless
+    // um jogador scriptado em cada processo, em tempo real; imprime o hash final para comparar
+    static void runHeadless(RollbackSession session) throws IOException {
+        ScriptedPlayer bot = new ScriptedPlayer(new Random(), session.localSide());
+        long tickNs = GameSimulation.TICK_MS * 1_000_000L;
+        long connectDeadline = System.nanoTime() + 30_000_000_000L;
+        long lingerTicks = 3000 / GameSimulation.TICK_MS;
+        long unconfirmedTicks = 10_000 / GameSimulation.TICK_MS; // fim visto, confirmação sem chegar
+        long next = System.nanoTime();
+        System.out.println(session.host ? "Aguardando o outro jogador..." : "Conectando...");
+
+        while (true) {
+            session.poll();
+            if (!session.isConnected()) {
+                if (System.nanoTime() - connectDeadline > 0) {
+                    System.out.println("Ninguém conectou em 30 s");
+                    System.exit(1);
+                }
+            } else if (session.isFinished()) {
+                // continua respondendo até o outro lado ter todos os nossos inputs
+                if (session.isPeerCaughtUp() || --lingerTicks <= 0)
+                    break;
+            } else if (session.canAdvance()) {
+                session.advance(bot.nextInput(session.sim));
+            } else if (session.sim.isOver() && --unconfirmedTicks <= 0) {
+                System.out.println("O outro lado parou antes de confirmar o fim da partida (10 s)");
+                System.exit(1);
+            }
+            next += tickNs;
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+        }
+
+        GameSimulation sim = session.sim;
+        NetLink link = session.link;
+        System.out.printf("%s: partida terminou no tick %d, placar %d x %d (seed %d)%n",
+                session.host ? "host" : "join", sim.getTicks(), sim.getPlayerRoundsWon(), sim.getAiRoundsWon(),
+                session.seed);
+        System.out.printf("rollbacks %d (%d ticks re-simulados, maior %d ticks / %.2f ms), esperas %d, "
+                + "ajustes de sincronia %d%n", session.rollbacks, session.rolledBackTicks, session.maxRollback,
+                session.maxRollbackNs / 1e6, session.stalls, session.syncSkips);
+        System.out.printf("pacotes: enviados %d, recebidos %d, perdidos (simulado) %d%n",
+                link.sent, link.received, link.dropped);
+        System.out.printf("hash %016x%n", sim.stateHash());
+        link.close();
+    }
+
+    // --net host PORTA | --net join HOST:PORTA, com --delay=TICKS --lag=MS --loss=0..1
+    static RollbackSession fromArgs(String[] args) throws IOException {
+        int delay = 2, lag = 0;
+        double loss = 0;
+        for (String a : args) {
+            if (a.startsWith("--delay="))
+                delay = Integer.parseInt(a.substring("--delay=".length()));
+            else if (a.startsWith("--lag="))
+                lag = Integer.parseInt(a.substring("--lag=".length()));
+            else if (a.startsWith("--loss="))
+                loss = Double.parseDouble(a.substring("--loss=".length()));
+        }
+        if (args.length < 3)
+            throw new IllegalArgumentException("Uso: --net host PORTA | --net join HOST:PORTA");
+        if (args[1].equals("host"))
+            return new RollbackSession(NetLink.host(Integer.parseInt(args[2]), lag, loss), true, delay);
+        if (args[1].equals("join")) {
+            int colon = args[2].lastIndexOf(':');
+            InetSocketAddress addr = new InetSocketAddress(args[2].substring(0, colon),
+                    Integer.parseInt(args[2].substring(colon + 1)));
+            return new RollbackSession(NetLink.join(addr, lag, loss), false, delay);
+        }
+        throw new IllegalArgumentException("Uso: --net host PORTA | --net join HOST:PORTA");
+    }
+}
+
+// ======= SERVIDOR DEDICADO (partidas autoritativas; uma thread de rede, poucas de tick) =======
+// O cliente só manda input; a simulação roda aqui e o estado volta a cada tick.
+// Protocolo TCP com mensagens de tamanho fixo (sem framing de comprimento):
+//   cliente -> servidor, 4 bytes: [op][arg][seq (short)]
+//     OP_JOIN   arg = Difficulty.ordinal(): começa uma partida nova contra a IA
+//     OP_INPUT  arg = bits INPUT_* (movimento fica valendo; golpes valem para um tick)
+//     OP_STATS  pede um FRAME_STATS no próximo tick
+//   servidor -> cliente, FRAME bytes: FRAME_STATE a cada tick de partida, FRAME_STATS quando pedido
+// Uma thread com Selector aceita e lê todas as conexões; cada conexão fica presa a um shard, e cada
+// shard é um Runnable agendado a cada TICK_MS num pool pequeno que simula e escreve as suas
+// conexões. Só o shard escreve no socket, então não há disputa pela saída.
+final class MatchServer {
+    static final int OP_JOIN = 1;
+    static final int OP_INPUT = 2;
+    static final int OP_STATS = 3;
+    static final int MESSAGE = 4;
+
+    static final int FRAME = 24;
+    static final int FRAME_STATE = 1;
+    static final int FRAME_STATS = 2;
+
+    // FRAME_STATE
+    static final int STATE_GAME_STATE = 1;
+    static final int STATE_ROUND = 2;
+    static final int STATE_ROUNDS_WON = 3; // jogador << 4 | IA
+    static final int STATE_ACK = 4; // seq do último input aplicado (short)
+    static final int STATE_PLAYER_PUNCH = 6; // PunchType.ordinal() + 1, 0 = nenhum
+    static final int STATE_AI_PUNCH = 7;
+    static final int STATE_TICK = 8;
+    static final int STATE_PLAYER_X = 12;
+    static final int STATE_AI_X = 14;
+    static final int STATE_PLAYER_HEALTH = 16;
+    static final int STATE_AI_HEALTH = 17;
+    static final int STATE_PLAYER_STAMINA = 18;
+    static final int STATE_ROUND_TIME_LEFT_MS = 20;
+
+    // FRAME_STATS (latências do tick de um shard, na última janela de ~1 s)
+    static final int STATS_THREADS = 1;
+    static final int STATS_MATCHES = 4;
+    static final int STATS_TICK_P50_NS = 8;
+    static final int STATS_TICK_P99_NS = 12;
+    static final int STATS_TICK_MAX_NS = 16;
+    static final int STATS_NS_PER_MATCH_TICK = 20;
+
+    private static final int PUNCH_BITS = GameSimulation.INPUT_JAB | GameSimulation.INPUT_HOOK
+            | GameSimulation.INPUT_CROSS;
+    private static final int MOVE_BITS = GameSimulation.INPUT_LEFT | GameSimulation.INPUT_RIGHT;
+    private static final int STATS_WINDOW_TICKS = (int) (1000 / GameSimulation.TICK_MS);
+    private static final Difficulty[] DIFFICULTIES = Difficulty.values();
+    private static final GameState[] STATES = GameState.values();
+
+    // uma conexão = um cliente = (no máximo) uma partida por vez
+    private static final class Conn {
+        final SocketChannel channel;
+        final Shard shard;
+        final ByteBuffer in = ByteBuffer.allocate(MESSAGE * 64);
+        final ByteBuffer pending = ByteBuffer.allocateDirect(FRAME).flip(); // resto de um frame que não saiu
+
+        // escritos pela thread de rede, lidos pelo shard
+        volatile int held; // bits de movimento
+        final AtomicInteger punches = new AtomicInteger(); // golpes desde o último tick
+        final AtomicInteger join = new AtomicInteger(-1); // dificuldade pedida, -1 = nenhuma
+        volatile int seq;
+        volatile boolean statsRequested;
+        volatile boolean closed;
+
+        // só o shard usa
+        GameSimulation sim;
+
+        Conn(SocketChannel channel, Shard shard) {
+            this.channel = channel;
+            this.shard = shard;
+        }
+    }
+
+    // um grupo de partidas avançado em sequência pela mesma tarefa agendada
+    private final class Shard implements Runnable {
+        final ConcurrentLinkedQueue<Conn> added = new ConcurrentLinkedQueue<>();
+        final AtomicInteger load = new AtomicInteger(); // conexões atribuídas, inclusive na fila
+        private Conn[] conns = new Conn[256];
+        private int count;
+
+        private final Random seeds = new Random();
+        private final ByteBuffer frame = ByteBuffer.allocateDirect(FRAME);
+        private final LatencyHistogram tickNs = new LatencyHistogram();
+        private long nextTickNs;
+        private int windowTicks;
+        private long windowBusyNs, windowMatchTicks, windowSkipped, windowLateMax;
+
+        // última janela, lida pela thread de rede e pelo relatório
+        volatile int matches;
+        volatile long tickP50Ns, tickP99Ns, tickMaxNs, busyNs, matchTicks, skippedFrames, lateMaxNs;
+
+        @Override
+        public void run() {
+            long t0 = System.nanoTime();
+            if (nextTickNs != 0)
+                windowLateMax = Math.max(windowLateMax, t0 - nextTickNs);
+            nextTickNs = t0 + GameSimulation.TICK_MS * 1_000_000L;
+
+            for (Conn c; (c = added.poll()) != null;) {
+                if (count == conns.length)
+                    conns = Arrays.copyOf(conns, count * 2);
+                conns[count++] = c;
+            }
+
+            int playing = 0;
+            for (int i = 0; i < count; i++) {
+                Conn c = conns[i];
+                if (c.closed) {
+                    conns[i--] = conns[--count];
+                    conns[count] = null;
+                    load.decrementAndGet();
+                    continue;
+                }
+                if (tickConn(c))
+                    playing++;
+            }
+
+            long dt = System.nanoTime() - t0;
+            tickNs.record(dt);
+            windowBusyNs += dt;
+            windowMatchTicks += playing;
+            if (++windowTicks == STATS_WINDOW_TICKS)
+                publish(playing);
+        }
+
+        // true se a partida da conexão avançou neste tick
+        private boolean tickConn(Conn c) {
+            int difficulty = c.join.getAndSet(-1);
+            if (difficulty >= 0)
+                c.sim = startMatch(DIFFICULTIES[difficulty]);
+
+            boolean ticked = false;
+            GameSimulation sim = c.sim;
+            if (sim != null) {
+                // seq antes do input: a rede grava held/punches e só depois seq, então o que for
+                // lido a seguir já inclui o input confirmado (nunca se confirma um que não entrou)
+                int ack = c.seq;
+                int input = c.held | c.punches.getAndSet(0);
+                sim.tick(input);
+                ticked = true;
+                frame.clear();
+                writeState(frame, sim, ack);
+                send(c);
+                if (sim.isOver())
+                    c.sim = null; // o último frame já foi com GAME_OVER; o cliente manda outro JOIN
+            }
+            if (c.statsRequested) {
+                c.statsRequested = false;
+                frame.clear();
+                writeStats(frame);
+                send(c);
+            }
+            return ticked;
+        }
+
+        private GameSimulation startMatch(Difficulty difficulty) {
+            GameSimulation sim = new GameSimulation(difficulty, new GameRng(seeds.nextLong()));
+            sim.startMatch();
+            return sim;
+        }
+
+        // manda o frame montado; se o anterior ainda não saiu inteiro, este é descartado
+        // (o estado é absoluto, o próximo tick traz tudo de novo)
+        private void send(Conn c) {
+            ByteBuffer pending = c.pending;
+            try {
+                if (pending.hasRemaining() && c.channel.write(pending) >= 0 && pending.hasRemaining()) {
+                    windowSkipped++;
+                    return;
+                }
+                frame.flip();
+                c.channel.write(frame);
+                if (frame.hasRemaining())
+                    pending.clear().put(frame).flip();
+            } catch (IOException e) {
+                close(c);
+            }
+        }
+
+        private void publish(int playing) {
+            matches = playing;
+            tickP50Ns = tickNs.percentile(0.50);
+            tickP99Ns = tickNs.percentile(0.99);
+            tickMaxNs = tickNs.percentile(1.0);
+            busyNs = windowBusyNs;
+            matchTicks = windowMatchTicks;
+            skippedFrames = windowSkipped;
+            lateMaxNs = windowLateMax;
+            tickNs.reset();
+            windowTicks = 0;
+            windowBusyNs = 0;
+            windowMatchTicks = 0;
+            windowSkipped = 0;
+            windowLateMax = 0;
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Shard[] shards;
+    private final ScheduledExecutorService scheduler;
+    private final ByteBuffer stats = ByteBuffer.allocate(FRAME);
+
+    MatchServer(int port, int threads) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 4096);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        shards = new Shard[threads];
+        scheduler = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "match-tick");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard();
+            scheduler.scheduleAtFixedRate(shards[i], 0, GameSimulation.TICK_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // laço da thread de rede: aceita, lê e, a cada ~5 s, imprime o relatório
+    void run() throws IOException {
+        Consumer<SelectionKey> handler = this::handle;
+        long nextReport = System.nanoTime() + 5_000_000_000L;
+        while (server.isOpen()) {
+            selector.select(handler, 1000);
+            long now = System.nanoTime();
+            if (now - nextReport >= 0) {
+                report();
+                nextReport = now + 5_000_000_000L;
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        try {
+            if (key.isAcceptable())
+                accept();
+            else if (key.isReadable())
+                read((Conn) key.attachment());
+        } catch (IOException e) {
+            if (key.attachment() != null)
+                close((Conn) key.attachment());
+        }
+    }
+
+    private void accept() throws IOException {
+        for (SocketChannel ch; (ch = server.accept()) != null;) {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Shard shard = shards[0];
+            for (Shard s : shards)
+                if (s.load.get() < shard.load.get())
+                    shard = s;
+            Conn c = new Conn(ch, shard);
+            shard.load.incrementAndGet();
+            ch.register(selector, SelectionKey.OP_READ, c);
+            shard.added.add(c);
+        }
+    }
+
+    private void read(Conn c) throws IOException {
+        if (c.channel.read(c.in) < 0) {
+            close(c);
+            return;
+        }
+        ByteBuffer in = c.in.flip();
+        while (in.remaining() >= MESSAGE) {
+            int op = in.get();
+            int arg = in.get();
+            int seq = in.getShort();
+            switch (op) {
+                case OP_JOIN -> {
+                    if (arg >= 0 && arg < DIFFICULTIES.length)
+                        c.join.set(arg);
+                }
+                case OP_INPUT -> {
+                    c.held = arg & MOVE_BITS;
+                    if ((arg & PUNCH_BITS) != 0)
+                        c.punches.accumulateAndGet(arg & PUNCH_BITS, (a, b) -> a | b);
+                    c.seq = seq; // o próximo estado confirma este input
+                }
+                case OP_STATS -> c.statsRequested = true;
+                default -> {
+                    close(c); // protocolo inválido
+                    return;
+                }
+            }
+        }
+        in.compact();
+    }
+
+    private static void close(Conn c) {
+        c.closed = true;
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    static void writeState(ByteBuffer out, GameSimulation sim, int ack) {
+        Fighter p = sim.getPlayer(), a = sim.getAi();
+        int at = out.position();
+        out.put(at, (byte) FRAME_STATE)
+                .put(at + STATE_GAME_STATE, (byte) sim.getState().ordinal())
+                .put(at + STATE_ROUND, (byte) sim.getCurrentRound())
+                .put(at + STATE_ROUNDS_WON, (byte) (sim.getPlayerRoundsWon() << 4 | sim.getAiRoundsWon()))
+                .putShort(at + STATE_ACK, (short) ack)
+                .put(at + STATE_PLAYER_PUNCH, punchCode(p))
+                .put(at + STATE_AI_PUNCH, punchCode(a))
+                .putInt(at + STATE_TICK, (int) sim.getTicks())
+                .putShort(at + STATE_PLAYER_X, (short) p.getX())
+                .putShort(at + STATE_AI_X, (short) a.getX())
+                .put(at + STATE_PLAYER_HEALTH, (byte) p.getHealth())
+                .put(at + STATE_AI_HEALTH, (byte) a.getHealth())
+                .put(at + STATE_PLAYER_STAMINA, (byte) sim.getPlayerStamina())
+                .putInt(at + STATE_ROUND_TIME_LEFT_MS, (int) sim.getRoundTimeLeftMs());
+        out.position(at + FRAME);
+    }
+
+    private static byte punchCode(Fighter f) {
+        return (byte) (f.isPunching() ? f.getPunchType().ordinal() + 1 : 0);
+    }
+
+    static GameState state(ByteBuffer frame, int at) {
+        return STATES[frame.get(at + STATE_GAME_STATE)];
+    }
+
+    // soma dos shards; chamado pelos shards (cada um no seu frame), só lê campos voláteis
+    private void writeStats(ByteBuffer out) {
+        int matches = 0;
+        long p50 = 0, p99 = 0, max = 0, busy = 0, ticks = 0;
+        for (Shard s : shards) {
+            matches += s.matches;
+            p50 = Math.max(p50, s.tickP50Ns);
+            p99 = Math.max(p99, s.tickP99Ns);
+            max = Math.max(max, s.tickMaxNs);
+            busy += s.busyNs;
+            ticks += s.matchTicks;
+        }
+        int at = out.position();
+        out.put(at, (byte) FRAME_STATS)
+                .put(at + STATS_THREADS, (byte) shards.length)
+                .putInt(at + STATS_MATCHES, matches)
+                .putInt(at + STATS_TICK_P50_NS, (int) Math.min(Integer.MAX_VALUE, p50))
+                .putInt(at + STATS_TICK_P99_NS, (int) Math.min(Integer.MAX_VALUE, p99))
+                .putInt(at + STATS_TICK_MAX_NS, (int) Math.min(Integer.MAX_VALUE, max))
+                .putInt(at + STATS_NS_PER_MATCH_TICK, ticks == 0 ? 0 : (int) (busy / ticks));
+        out.position(at + FRAME);
+    }
+
+    private void report() {
+        stats.clear();
+        writeStats(stats);
+        long late = 0, skipped = 0;
+        int conns = 0;
+        for (Shard s : shards) {
+            late = Math.max(late, s.lateMaxNs);
+            skipped += s.skippedFrames;
+            conns += s.load.get();
+        }
+        int nsPerMatchTick = stats.getInt(STATS_NS_PER_MATCH_TICK);
+        System.out.printf("conexões %d, partidas %d | tick do shard p50 %.1f µs, p99 %.1f µs, máx %.1f µs, "
+                + "maior atraso %.1f ms | %d ns por partida-tick (~%s partidas por núcleo) | "
+                + "frames descartados %d%n",
+                conns, stats.getInt(STATS_MATCHES), stats.getInt(STATS_TICK_P50_NS) / 1e3,
+                stats.getInt(STATS_TICK_P99_NS) / 1e3, stats.getInt(STATS_TICK_MAX_NS) / 1e3, late / 1e6,
+                nsPerMatchTick, matchesPerCore(nsPerMatchTick), skipped);
+    }
+
+    // quantas partidas a 62.5 ticks/s cabem num núcleo com esse custo por partida-tick
+    static String matchesPerCore(int nsPerMatchTick) {
+        if (nsPerMatchTick == 0)
+            return "?";
+        return Long.toString(GameSimulation.TICK_MS * 1_000_000L / nsPerMatchTick);
+    }
+
+    // java BoxingGame --server PORTA [--threads=N]
+    static void main(String[] args) throws IOException {
+        int port = args.length > 1 && !args[1].startsWith("--") ? Integer.parseInt(args[1]) : 7780;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        for (String a : args)
+            if (a.startsWith("--threads="))
+                threads = Integer.parseInt(a.substring("--threads=".length()));
+
+        MatchServer s = new MatchServer(port, threads);
+        System.out.printf("Servidor na porta %d, %d thread(s) de tick%n", port, threads);
+        s.run();
+    }
+}
+
+// ======= TESTE DE CARGA DO SERVIDOR (milhares de clientes simulados numa thread) =======
+// Cada conexão joga contra a IA do servidor com um bot aleatório (troca o movimento de vez em
+// quando, golpeia às vezes), mede o tempo entre mandar um input e receber o primeiro estado que
+// o aplicou e, quando a partida acaba, pede outra. A cada segundo pede ao servidor as latências
+// do tick e imprime as duas pontas.
+final class ServerLoadTest {
+    private static final int RAMP_PER_TICK = 64; // conexões novas por tick, para não estourar o backlog
+    private static final int SENT_RING = 64;
+
+    private static final class Client {
+        final SocketChannel channel;
+        final int difficulty;
+        final ByteBuffer in = ByteBuffer.allocate(MatchServer.FRAME * 32);
+        final ByteBuffer out = ByteBuffer.allocate(MatchServer.MESSAGE * 16).flip();
+        final long[] sentNs = new long[SENT_RING];
+        int seq, lastAck, move, nextMoveTick;
+        boolean connected;
+
+        Client(SocketChannel channel, int difficulty) {
+            this.channel = channel;
+            this.difficulty = difficulty;
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final Selector selector;
+    private final Client[] clients;
+    private final Random random = new Random();
+    private final LatencyHistogram inputToState = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private int opened, connected, failed;
+    private long frames, matchesFinished;
+
+    // última resposta de OP_STATS (só uma conexão pergunta)
+    private int serverMatches, serverThreads, serverP50, serverP99, serverMax, serverNsPerMatchTick;
+
+    private ServerLoadTest(InetSocketAddress address, int count) throws IOException {
+        this.address = address;
+        this.selector = Selector.open();
+        this.clients = new Client[count];
+    }
+
+    private void open() throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        ch.configureBlocking(false);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Client c = new Client(ch, opened % Difficulty.values().length);
+        clients[opened++] = c;
+        if (ch.connect(address))
+            onConnected(c);
+        else
+            ch.register(selector, SelectionKey.OP_CONNECT, c);
+    }
+
+    private void onConnected(Client c) throws IOException {
+        c.connected = true;
+        connected++;
+        c.channel.register(selector, SelectionKey.OP_READ, c);
+        send(c, MatchServer.OP_JOIN, c.difficulty);
+    }
+
+    private void handle(SelectionKey key) {
+        Client c = (Client) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                if (c.channel.finishConnect())
+                    onConnected(c);
+            } else if (key.isReadable()) {
+                read(c);
+            }
+        } catch (IOException e) {
+            drop(c);
+        }
+    }
+
+    private void drop(Client c) {
+        if (c.connected)
+            connected--;
+        c.connected = false;
+        failed++;
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void read(Client c) throws IOException {
+        if (c.channel.read(c.in) < 0) {
+            drop(c);
+            return;
+        }
+        long now = System.nanoTime();
+        ByteBuffer in = c.in.flip();
+        while (in.remaining() >= MatchServer.FRAME) {
+            int at = in.position();
+            if (in.get(at) == MatchServer.FRAME_STATE) {
+                frames++;
+                int ack = in.getShort(at + MatchServer.STATE_ACK) & 0xFFFF;
+                if (ack != c.lastAck && ((c.seq - ack) & 0xFFFF) < SENT_RING) {
+                    inputToState.record(now - c.sentNs[ack % SENT_RING]);
+                    total.record(now - c.sentNs[ack % SENT_RING]);
+                    c.lastAck = ack;
+                }
+                if (MatchServer.state(in, at) == GameState.GAME_OVER) {
+                    matchesFinished++;
+                    send(c, MatchServer.OP_JOIN, c.difficulty);
+                }
+            } else {
+                serverThreads = in.get(at + MatchServer.STATS_THREADS);
+                serverMatches = in.getInt(at + MatchServer.STATS_MATCHES);
+                serverP50 = in.getInt(at + MatchServer.STATS_TICK_P50_NS);
+                serverP99 = in.getInt(at + MatchServer.STATS_TICK_P99_NS);
+                serverMax = in.getInt(at + MatchServer.STATS_TICK_MAX_NS);
+                serverNsPerMatchTick = in.getInt(at + MatchServer.STATS_NS_PER_MATCH_TICK);
+            }
+            in.position(at + MatchServer.FRAME);
+        }
+        in.compact();
+    }
+
+    // mensagem de 4 bytes; se a anterior ainda não saiu, esta é descartada (é só carga)
+    private void send(Client c, int op, int arg) throws IOException {
+        ByteBuffer out = c.out;
+        if (out.hasRemaining() && c.channel.write(out) >= 0 && out.hasRemaining())
+            return;
+        int seq = (c.seq + 1) & 0xFFFF;
+        out.clear();
+        out.put((byte) op).put((byte) arg).putShort((short) seq).flip();
+        c.channel.write(out);
+        c.seq = seq;
+        if (op == MatchServer.OP_INPUT)
+            c.sentNs[seq % SENT_RING] = System.nanoTime();
+    }
+
+    // o bot: muda de direção a cada 0.5-2 s e golpeia em ~1 de cada 20 ticks
+    private void play(Client c, int tick) throws IOException {
+        int punch = 0;
+        if (random.nextInt(20) == 0)
+            punch = GameSimulation.INPUT_JAB << random.nextInt(3);
+        boolean turn = tick >= c.nextMoveTick;
+        if (turn) {
+            int r = random.nextInt(3);
+            c.move = r == 0 ? 0 : r == 1 ? GameSimulation.INPUT_LEFT : GameSimulation.INPUT_RIGHT;
+            c.nextMoveTick = tick + 30 + random.nextInt(95);
+        }
+        if (turn || punch != 0)
+            send(c, MatchServer.OP_INPUT, c.move | punch);
+    }
+
+    private void run(int seconds) throws IOException {
+        Consumer<SelectionKey> handler = this::handle;
+        long tickNs = GameSimulation.TICK_MS * 1_000_000L;
+        long start = System.nanoTime();
+        long next = start, nextReport = start + 1_000_000_000L, end = start + seconds * 1_000_000_000L;
+        int tick = 0;
+        long lastFrames = 0;
+        while (true) {
+            long now = System.nanoTime();
+            if (now - end >= 0)
+                break;
+            if (now - next >= 0) {
+                next += tickNs;
+                tick++;
+                for (int i = 0; i < RAMP_PER_TICK && opened < clients.length; i++) {
+                    try {
+                        open();
+                    } catch (IOException e) {
+                        failed++;
+                        opened++;
+                    }
+                }
+                for (int i = 0; i < opened; i++) {
+                    Client c = clients[i];
+                    if (c != null && c.connected) {
+                        try {
+                            play(c, tick);
+                        } catch (IOException e) {
+                            drop(c);
+                        }
+                    }
+                }
+            }
+            if (now - nextReport >= 0) {
+                nextReport += 1_000_000_000L;
+                Client probe = firstConnected();
+                if (probe != null) {
+                    try {
+                        send(probe, MatchServer.OP_STATS, 0);
+                    } catch (IOException e) {
+                        drop(probe);
+                    }
+                }
+                System.out.printf("%3ds conexões %d (falhas %d) | estados/s %d | input->estado p50 %.1f ms, "
+                        + "p99 %.1f ms | servidor: %d partidas, %d thread(s), tick p50 %.0f µs, p99 %.0f µs, "
+                        + "máx %.0f µs, %d ns por partida-tick%n",
+                        (now - start) / 1_000_000_000L, connected, failed, frames - lastFrames,
+                        inputToState.percentile(0.5) / 1e6, inputToState.percentile(0.99) / 1e6, serverMatches,
+                        serverThreads, serverP50 / 1e3, serverP99 / 1e3, serverMax / 1e3, serverNsPerMatchTick);
+                lastFrames = frames;
+                inputToState.reset();
+            }
+            long wait = Math.min(next, nextReport) - System.nanoTime();
+            if (wait > 1_000_000)
+                selector.select(handler, wait / 1_000_000);
+            else
+                selector.selectNow(handler);
+        }
+
+        System.out.printf("%nFim: %d conexões, %d partidas terminadas, %d estados recebidos%n",
+                connected, matchesFinished, frames);
+        System.out.printf("input->estado (tudo): p50 %.1f ms, p99 %.1f ms, máx %.1f ms%n",
+                total.percentile(0.5) / 1e6, total.percentile(0.99) / 1e6, total.percentile(1.0) / 1e6);
+        System.out.printf("servidor (último segundo): %d partidas em %d thread(s), %d ns por partida-tick "
+                + "-> ~%s partidas por núcleo a %.1f ticks/s%n", serverMatches, serverThreads,
+                serverNsPerMatchTick, MatchServer.matchesPerCore(serverNsPerMatchTick),
+                1000.0 / GameSimulation.TICK_MS);
+        for (int i = 0; i < opened; i++)
+            if (clients[i] != null)
+                clients[i].channel.close();
+    }
+
+    private Client firstConnected() {
+        for (int i = 0; i < opened; i++)
+            if (clients[i] != null && clients[i].connected)
+                return clients[i];
+        return null;
+    }
+
+    // java BoxingGame --server-load HOST:PORTA [CONEXÕES] [--seconds=S]
+    static void main(String[] args) throws IOException {
+        String target = args.length > 1 ? args[1] : "127.0.0.1:7780";
+        int count = args.length > 2 && !args[2].startsWith("--") ? Integer.parseInt(args[2]) : 1000;
+        int seconds = 20;
+        for (String a : args)
+            if (a.startsWith("--seconds="))
+                seconds = Integer.parseInt(a.substring("--seconds=".length()));
+        int colon = target.lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(target.substring(0, colon),
+                Integer.parseInt(target.substring(colon + 1)));
+
+        System.out.printf("Abrindo %d conexões com %s por %d s%n", count, target, seconds);
+        new ServerLoadTest(address, count).run(seconds);
+    }
+}
+
+// ======= TRANSMISSÃO PARA ESPECTADORES: CODEC (campos quantizados, bits empacotados) =======
+// A visão de um tick é um int[] de FIELDS campos já quantizados (tempos em décimos de segundo,
+// intro em ticks). Pacotes UDP (big-endian):
+//   KEYFRAME [1][seq int][id int] + todos os campos com BITS[i] bits
+//   DELTA    [2][seq int][id int] + máscara de FIELDS bits (campos que mudaram em relação ao
+//            keyframe id) + para cada campo mudado: 0 + delta zigzag em DELTA_BITS, ou 1 + valor
+//   ACK      [3][id int] (espectador -> servidor; id -1 = só se inscrever)
+// seq cresce a cada tick transmitido e descarta pacotes fora de ordem.
+final class SpectatorCodec {
+    static final int KEYFRAME = 1;
+    static final int DELTA = 2;
+    static final int ACK = 3;
+    static final int HEADER = 9;
+    static final int MAX_PACKET = 64;
+
+    static final int STATE = 0;
+    static final int DIFFICULTY = 1;
+    static final int ROUND = 2;
+    static final int PLAYER_ROUNDS = 3;
+    static final int AI_ROUNDS = 4;
+    static final int MESSAGE = 5;
+    static final int VERSUS = 6;
+    static final int ROUND_TIME = 7; // décimos de segundo
+    static final int INTRO = 8; // ticks
+    static final int PLAYER_STAMINA = 9;
+    static final int OPPONENT_STAMINA = 10;
+    static final int PLAYER_COOLDOWN = 11; // décimos de segundo
+    static final int OPPONENT_COOLDOWN = 12;
+    static final int PLAYER_ON_COOLDOWN = 13;
+    static final int OPPONENT_ON_COOLDOWN = 14;
+    static final int PLAYER = 15;
+    static final int AI = PLAYER + 6;
+    static final int FIELDS = AI + 6;
+
+    // lutador (relativo a PLAYER / AI)
+    static final int X = 0;
+    static final int HEALTH = 1;
+    static final int PUNCHING = 2;
+    static final int PUNCH_TYPE = 3;
+    static final int PUNCH_FRAME = 4;
+    static final int FACING_RIGHT = 5;
+
+    static final long TIME_UNIT_MS = 100;
+    static final int DELTA_BITS = 4; // -8..7 em relação ao keyframe
+
+    private static final int[] BITS = new int[FIELDS];
+    // faixa válida de cada campo; os que viram índice de array (rótulos do HUD, mensagens, enums)
+    // são os do jogo, não os que cabem nos bits, e o decoder descarta o pacote que sair disso
+    private static final int[] MIN = new int[FIELDS];
+    private static final int[] MAX = new int[FIELDS];
+
+    static {
+        BITS[STATE] = 3;
+        BITS[DIFFICULTY] = 2;
+        BITS[ROUND] = 3;
+        BITS[PLAYER_ROUNDS] = 3;
+        BITS[AI_ROUNDS] = 3;
+        BITS[MESSAGE] = bitsFor(GameSimulation.messageCount() - 1);
+        BITS[VERSUS] = 1;
+        BITS[ROUND_TIME] = bitsFor(GameSimulation.ROUND_MS / TIME_UNIT_MS);
+        BITS[INTRO] = bitsFor(GameSimulation.INTRO_TOTAL_MS / GameSimulation.TICK_MS);
+        BITS[PLAYER_STAMINA] = BITS[OPPONENT_STAMINA] = bitsFor(GameSimulation.MAX_STAMINA);
+        BITS[PLAYER_COOLDOWN] = BITS[OPPONENT_COOLDOWN] = bitsFor(
+                GameSimulation.STAMINA_RECHARGE_COOLDOWN_MS / TIME_UNIT_MS);
+        BITS[PLAYER_ON_COOLDOWN] = BITS[OPPONENT_ON_COOLDOWN] = 1;
+        for (int f : new int[] { PLAYER, AI }) {
+            BITS[f + X] = bitsFor(GameSimulation.ARENA_WIDTH);
+            BITS[f + HEALTH] = bitsFor(Fighter.MAX_HEALTH);
+            BITS[f + PUNCHING] = 1;
+            BITS[f + PUNCH_TYPE] = 2;
+            BITS[f + PUNCH_FRAME] = 4;
+            BITS[f + FACING_RIGHT] = 1;
+        }
+
+        for (int i = 0; i < FIELDS; i++)
+            MAX[i] = (1 << BITS[i]) - 1;
+        // os campos que viram índice têm a mesma faixa do quick-save (MatchSnapshot), na unidade daqui
+        bound(STATE, MatchSnapshot.STATE, 1);
+        bound(DIFFICULTY, MatchSnapshot.OFF_DIFFICULTY, 1);
+        bound(ROUND, MatchSnapshot.CURRENT_ROUND, 1);
+        bound(PLAYER_ROUNDS, MatchSnapshot.PLAYER_ROUNDS_WON, 1);
+        bound(AI_ROUNDS, MatchSnapshot.AI_ROUNDS_WON, 1);
+        bound(MESSAGE, MatchSnapshot.MESSAGE, 1);
+        bound(ROUND_TIME, MatchSnapshot.ROUND_TIME_LEFT_MS, TIME_UNIT_MS);
+        bound(PLAYER_COOLDOWN, MatchSnapshot.STAMINA_COOLDOWN_LEFT_MS, TIME_UNIT_MS);
+        bound(OPPONENT_COOLDOWN, MatchSnapshot.OPPONENT_STAMINA_COOLDOWN_LEFT_MS, TIME_UNIT_MS);
+        bound(PLAYER + PUNCH_TYPE, MatchSnapshot.PLAYER + MatchSnapshot.FIGHTER_PUNCH_TYPE, 1);
+        bound(AI + PUNCH_TYPE, MatchSnapshot.AI + MatchSnapshot.FIGHTER_PUNCH_TYPE, 1);
+        MAX[INTRO] = (int) (GameSimulation.INTRO_TOTAL_MS / GameSimulation.TICK_MS);
+        MAX[PLAYER_STAMINA] = MAX[OPPONENT_STAMINA] = GameSimulation.MAX_STAMINA;
+        for (int f : new int[] { PLAYER, AI }) {
+            MAX[f + X] = GameSimulation.ARENA_WIDTH;
+            MAX[f + HEALTH] = Fighter.MAX_HEALTH;
+        }
+    }
+
+    private static void bound(int field, int snapshotOffset, long unit) {
+        MIN[field] = (int) (MatchSnapshot.min(snapshotOffset) / unit);
+        MAX[field] = (int) (MatchSnapshot.max(snapshotOffset) / unit);
+    }
+
+    // todos os campos na faixa (pacote embaralhado ou forjado não chega ao snapshot)
+    static boolean valid(int[] view) {
+        for (int i = 0; i < FIELDS; i++)
+            if (view[i] < MIN[i] || view[i] > MAX[i])
+                return false;
+        return true;
+    }
+
+    static int min(int field) {
+        return MIN[field];
+    }
+
+    static int max(int field) {
+        return MAX[field];
+    }
+
+    static int bits(int field) {
+        return BITS[field];
+    }
+
+    private static int bitsFor(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    private SpectatorCodec() {
+    }
+
+    static void capture(GameSimulation sim, int[] view) {
+        view[STATE] = sim.getState().ordinal();
+        view[DIFFICULTY] = sim.getDifficulty().ordinal();
+        view[ROUND] = sim.getCurrentRound();
+        view[PLAYER_ROUNDS] = sim.getPlayerRoundsWon();
+        view[AI_ROUNDS] = sim.getAiRoundsWon();
+        view[MESSAGE] = sim.getRoundEndMessageId();
+        view[VERSUS] = sim.isVersus() ? 1 : 0;
+        view[ROUND_TIME] = (int) ((sim.getRoundTimeLeftMs() + TIME_UNIT_MS - 1) / TIME_UNIT_MS);
+        view[INTRO] = (int) (Math.max(0, sim.getIntroMsLeft()) / GameSimulation.TICK_MS);
+        for (int side = 0; side < 2; side++) {
+            view[PLAYER_STAMINA + side] = sim.getStamina(side);
+            view[PLAYER_COOLDOWN + side] = (int) ((sim.getStaminaCooldownLeftMs(side) + TIME_UNIT_MS - 1)
+                    / TIME_UNIT_MS);
+            view[PLAYER_ON_COOLDOWN + side] = sim.isStaminaOnCooldown(side) ? 1 : 0;
+        }
+        captureFighter(sim.getPlayer(), view, PLAYER);
+        captureFighter(sim.getAi(), view, AI);
+    }
+
+    private static void captureFighter(Fighter f, int[] view, int at) {
+        view[at + X] = Math.max(0, Math.min(GameSimulation.ARENA_WIDTH, f.getX()));
+        view[at + HEALTH] = f.getHealth();
+        view[at + PUNCHING] = f.isPunching() ? 1 : 0;
+        view[at + PUNCH_TYPE] = f.getPunchType().ordinal();
+        view[at + PUNCH_FRAME] = f.getPunchFrame();
+        view[at + FACING_RIGHT] = f.isFacingRight() ? 1 : 0;
+    }
+
+    // escreve a visão sobre um snapshot (MatchSnapshot) já inicializado; o x anterior vira prevX,
+    // então o render interpola entre dois pacotes como faz entre dois ticks
+    static void apply(int[] view, ByteBuffer b) {
+        b.put(MatchSnapshot.STATE, (byte) view[STATE]);
+        b.put(MatchSnapshot.OFF_DIFFICULTY, (byte) view[DIFFICULTY]);
+        b.putInt(MatchSnapshot.CURRENT_ROUND, view[ROUND]);
+        b.putInt(MatchSnapshot.PLAYER_ROUNDS_WON, view[PLAYER_ROUNDS]);
+        b.putInt(MatchSnapshot.AI_ROUNDS_WON, view[AI_ROUNDS]);
+        b.putShort(MatchSnapshot.MESSAGE, (short) view[MESSAGE]);
+        b.put(MatchSnapshot.VERSUS, (byte) view[VERSUS]);
+        b.putLong(MatchSnapshot.ROUND_TIME_LEFT_MS, view[ROUND_TIME] * TIME_UNIT_MS);
+        b.putLong(MatchSnapshot.INTRO_MS_LEFT, view[INTRO] * GameSimulation.TICK_MS);
+        b.putInt(MatchSnapshot.PLAYER_STAMINA, view[PLAYER_STAMINA]);
+        b.putInt(MatchSnapshot.OPPONENT_STAMINA, view[OPPONENT_STAMINA]);
+        b.putLong(MatchSnapshot.STAMINA_COOLDOWN_LEFT_MS, view[PLAYER_COOLDOWN] * TIME_UNIT_MS);
+        b.putLong(MatchSnapshot.OPPONENT_STAMINA_COOLDOWN_LEFT_MS, view[OPPONENT_COOLDOWN] * TIME_UNIT_MS);
+        b.put(MatchSnapshot.STAMINA_ON_COOLDOWN, (byte) view[PLAYER_ON_COOLDOWN]);
+        b.put(MatchSnapshot.OPPONENT_STAMINA_ON_COOLDOWN, (byte) view[OPPONENT_ON_COOLDOWN]);
+        applyFighter(view, PLAYER, b, MatchSnapshot.PLAYER);
+        applyFighter(view, AI, b, MatchSnapshot.AI);
+    }
+
+    private static void applyFighter(int[] view, int at, ByteBuffer b, int to) {
+        b.putInt(to + MatchSnapshot.FIGHTER_PREV_X, b.getInt(to + MatchSnapshot.FIGHTER_X));
+        b.putInt(to + MatchSnapshot.FIGHTER_X, view[at + X]);
+        b.putInt(to + MatchSnapshot.FIGHTER_HEALTH, view[at + HEALTH]);
+        b.put(to + MatchSnapshot.FIGHTER_PUNCHING, (byte) view[at + PUNCHING]);
+        b.put(to + MatchSnapshot.FIGHTER_PUNCH_TYPE, (byte) view[at + PUNCH_TYPE]);
+        b.putInt(to + MatchSnapshot.FIGHTER_PUNCH_FRAME, view[at + PUNCH_FRAME]);
+        b.put(to + MatchSnapshot.FIGHTER_FACING_RIGHT, (byte) view[at + FACING_RIGHT]);
+    }
+
+    static void writeKeyframe(ByteBuffer out, int seq, int id, int[] view, BitWriter bits) {
+        out.put((byte) KEYFRAME).putInt(seq).putInt(id);
+        bits.begin(out);
+        for (int i = 0; i < FIELDS; i++)
+            bits.put(view[i], BITS[i]);
+        bits.end();
+    }
+
+    static void writeDelta(ByteBuffer out, int seq, int id, int[] base, int[] view, BitWriter bits) {
+        out.put((byte) DELTA).putInt(seq).putInt(id);
+        bits.begin(out);
+        for (int i = 0; i < FIELDS; i++)
+            bits.put(view[i] != base[i] ? 1 : 0, 1);
+        for (int i = 0; i < FIELDS; i++) {
+            if (view[i] == base[i])
+                continue;
+            int d = view[i] - base[i];
+            int zigzag = (d << 1) ^ (d >> 31);
+            if (zigzag < 1 << DELTA_BITS) {
+                bits.put(0, 1);
+                bits.put(zigzag, DELTA_BITS);
+            } else {
+                bits.put(1, 1);
+                bits.put(view[i], BITS[i]);
+            }
+        }
+        bits.end();
+    }
+
+    // bits MSB primeiro; o acumulador só precisa dos bits ainda não escritos
+    static final class BitWriter {
+        private ByteBuffer out;
+        private long acc;
+        private int count;
+
+        void begin(ByteBuffer out) {
+            this.out = out;
+            acc = 0;
+            count = 0;
+        }
+
+        void put(int value, int n) {
+            acc = (acc << n) | (value & ((1L << n) - 1));
+            count += n;
+            while (count >= 8) {
+                count -= 8;
+                out.put((byte) (acc >>> count));
+            }
+        }
+
+        void end() {
+            if (count > 0)
+                out.put((byte) (acc << (8 - count)));
+            count = 0;
+        }
+    }
+
+    static final class BitReader {
+        private ByteBuffer in;
+        private long acc;
+        private int count;
+
+        void begin(ByteBuffer in) {
+            this.in = in;
+            acc = 0;
+            count = 0;
+        }
+
+        int get(int n) {
+            while (count < n) {
+                acc = (acc << 8) | (in.get() & 0xFF);
+                count += 8;
+            }
+            count -= n;
+            return (int) ((acc >>> count) & ((1L << n) - 1));
+        }
+    }
+
+    // lado do espectador: guarda os dois keyframes mais recentes (o servidor manda delta contra
+    // o último que este espectador confirmou) e a visão mais nova
+    static final class Decoder {
+        final int[] view = new int[FIELDS];
+        private final int[][] bases = new int[2][FIELDS];
+        private final int[] baseIds = { -1, -1 };
+        private final BitReader bits = new BitReader();
+        private final int[] scratch = new int[FIELDS];
+        private int lastSeq = Integer.MIN_VALUE;
+        private int newestKeyframe = -1;
+
+        int newestKeyframe() {
+            return newestKeyframe;
+        }
+
+        boolean hasView() {
+            return lastSeq != Integer.MIN_VALUE;
+        }
+
+        // true se a visão mudou; keyframes antigos (reenviados) só viram base
+        boolean read(ByteBuffer in) {
+            int type = in.get();
+            int seq = in.getInt();
+            int id = in.getInt();
+            bits.begin(in);
+            if (type == KEYFRAME) {
+                for (int i = 0; i < FIELDS; i++)
+                    scratch[i] = bits.get(BITS[i]);
+                if (!valid(scratch))
+                    return false;
+                // mais antigo que todas as bases: o transmissor reiniciou e seq e ids voltaram ao 0
+                if (newestKeyframe >= 0 && id < oldestBase())
+                    reset();
+                int slot = baseIds[0] == id || baseIds[1] == id ? (baseIds[0] == id ? 0 : 1)
+                        : (baseIds[0] < baseIds[1] ? 0 : 1);
+                int[] base = bases[slot];
+                System.arraycopy(scratch, 0, base, 0, FIELDS);
+                baseIds[slot] = id;
+                newestKeyframe = Math.max(newestKeyframe, id);
+                return take(seq, base);
+            }
+            if (type != DELTA)
+                return false;
+            int slot = baseIds[0] == id ? 0 : baseIds[1] == id ? 1 : -1;
+            if (slot < 0)
+                return false; // ainda sem o keyframe desse delta
+            int[] base = bases[slot];
+            int mask = 0;
+            for (int i = 0; i < FIELDS; i++)
+                mask = (mask << 1) | bits.get(1);
+            for (int i = 0; i < FIELDS; i++) {
+                int v = base[i];
+                if ((mask >>> (FIELDS - 1 - i) & 1) != 0) {
+                    if (bits.get(1) == 0) {
+                        int z = bits.get(DELTA_BITS);
+                        v += (z >>> 1) ^ -(z & 1);
+                    } else {
+                        v = bits.get(BITS[i]);
+                    }
+                }
+                scratch[i] = v;
+            }
+            if (!valid(scratch))
+                return false;
+            return take(seq, scratch);
+        }
+
+        private boolean take(int seq, int[] src) {
+            if (seq <= lastSeq && hasView())
+                return false;
+            lastSeq = seq;
+            System.arraycopy(src, 0, view, 0, FIELDS);
+            return true;
+        }
+
+        private int oldestBase() {
+            if (baseIds[0] < 0 || baseIds[1] < 0)
+                return Math.max(baseIds[0], baseIds[1]);
+            return Math.min(baseIds[0], baseIds[1]);
+        }
+
+        // a visão atual fica na tela até o primeiro keyframe do transmissor novo
+        private void reset() {
+            baseIds[0] = baseIds[1] = -1;
+            lastSeq = Integer.MIN_VALUE;
+            newestKeyframe = -1;
+        }
+    }
+}
+
+// ======= TRANSMISSÃO PARA ESPECTADORES: SERVIDOR (um pacote codificado para todos) =======
+// A cada tick codifica no máximo três pacotes: keyframe (a cada KEYFRAME_TICKS), delta contra o
+// keyframe atual e delta contra o anterior, e manda a cada espectador o que ele consegue decodificar
+// (o mesmo buffer para todos, só rebobinado). Quem não confirmou nenhum dos dois recebe de novo o
+// keyframe atual, no máximo a cada RESEND_NS. Na janela, publish() roda na thread do jogo e só copia
+// a visão; o envio é numa thread própria. Sem janela (e no benchmark) broadcast() é chamado direto.
+final class SpectatorBroadcaster {
+    static final int KEYFRAME_TICKS = 30; // ~0,5 s
+    private static final long RESEND_NS = 100_000_000L;
+    private static final long VIEWER_TIMEOUT_NS = 5_000_000_000L;
+    private static final int SOCKET_BUFFER = 4 << 20;
+
+    static final class View {
+        final int[] fields = new int[SpectatorCodec.FIELDS];
+        long tick;
+        long published;
+    }
+
+    private final DatagramChannel channel;
+    private final SpectatorCodec.BitWriter bits = new SpectatorCodec.BitWriter();
+    private final ByteBuffer keyframe = ByteBuffer.allocateDirect(SpectatorCodec.MAX_PACKET);
+    private final ByteBuffer delta = ByteBuffer.allocateDirect(SpectatorCodec.MAX_PACKET);
+    private final ByteBuffer previousDelta = ByteBuffer.allocateDirect(SpectatorCodec.MAX_PACKET);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(SpectatorCodec.MAX_PACKET);
+
+    private int[] base = new int[SpectatorCodec.FIELDS];
+    private int[] previousBase = new int[SpectatorCodec.FIELDS];
+    private int keyframeId = -1, previousId = -1;
+    private long keyframeTick, lastTick;
+    private int seq;
+
+    // espectadores (arrays paralelos; o mapa só é usado quando chega um ACK)
+    private SocketAddress[] addresses = new SocketAddress[64];
+    private int[] acked = new int[64];
+    private long[] lastSeenNs = new long[64];
+    private long[] resentNs = new long[64];
+    private int viewers;
+    private final HashMap<SocketAddress, Integer> index = new HashMap<>();
+    private long nextExpiryNs;
+
+    long packetsSent, bytesSent, keyframesResent, dropped;
+
+    // modo janela
+    private final TripleBuffer<View> views = new TripleBuffer<>(View::new);
+    private long published;
+    private Thread thread;
+
+    SpectatorBroadcaster(InetSocketAddress bind) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(bind);
+        channel.configureBlocking(false);
+        // um tick inteiro de pacotes para milhares de espectadores sai de uma vez
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER);
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER); // rajada de ACKs
+    }
+
+    SocketAddress getLocalAddress() throws IOException {
+        return channel.getLocalAddress();
+    }
+
+    int getViewers() {
+        return viewers;
+    }
+
+    // thread do jogo: copia a visão do tick e acorda a thread de envio
+    void publish(GameSimulation sim) {
+        View v = views.writeSlot();
+        SpectatorCodec.capture(sim, v.fields);
+        v.tick = sim.getTicks();
+        v.published = ++published;
+        views.publish();
+        LockSupport.unpark(thread);
+    }
+
+    void start() {
+        thread = new Thread(this::run, "spectator-broadcast");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        long sent = 0;
+        while (true) {
+            try {
+                View v = views.read();
+                if (v.published != sent) {
+                    sent = v.published;
+                    broadcast(v.fields, v.tick);
+                } else {
+                    receiveAcks(System.nanoTime());
+                }
+            } catch (IOException e) {
+                System.err.println("Erro na transmissão: " + e);
+            }
+            LockSupport.parkNanos(GameSimulation.TICK_MS * 1_000_000L);
+        }
+    }
+
+    void broadcast(int[] view, long tick) throws IOException {
+        long now = System.nanoTime();
+        receiveAcks(now);
+        if (now - nextExpiryNs >= 0) {
+            expire(now);
+            nextExpiryNs = now + 1_000_000_000L;
+        }
+        seq++;
+
+        // partida nova (tick voltou) também começa keyframe
+        if (keyframeId < 0 || tick < lastTick || tick - keyframeTick >= KEYFRAME_TICKS) {
+            int[] t = previousBase;
+            previousBase = base;
+            base = t;
+            previousId = keyframeId;
+            keyframeId++;
+            System.arraycopy(view, 0, base, 0, view.length);
+            keyframeTick = tick;
+            lastTick = tick;
+            keyframe.clear();
+            SpectatorCodec.writeKeyframe(keyframe, seq, keyframeId, view, bits);
+            keyframe.flip();
+            for (int i = 0; i < viewers; i++) {
+                send(keyframe, i);
+                resentNs[i] = now;
+            }
+            return;
+        }
+        lastTick = tick;
+
+        delta.clear();
+        SpectatorCodec.writeDelta(delta, seq, keyframeId, base, view, bits);
+        delta.flip();
+        boolean previousEncoded = false;
+        for (int i = 0; i < viewers; i++) {
+            if (acked[i] == keyframeId) {
+                send(delta, i);
+            } else if (acked[i] == previousId && previousId >= 0) {
+                if (!previousEncoded) {
+                    previousDelta.clear();
+                    SpectatorCodec.writeDelta(previousDelta, seq, previousId, previousBase, view, bits);
+                    previousDelta.flip();
+                    previousEncoded = true;
+                }
+                send(previousDelta, i);
+            } else if (now - resentNs[i] >= RESEND_NS) {
+                send(keyframe, i);
+                resentNs[i] = now;
+                keyframesResent++;
+            }
+        }
+    }
+
+    private void send(ByteBuffer packet, int viewer) throws IOException {
+        packet.rewind();
+        int n = channel.send(packet, addresses[viewer]);
+        if (n == 0) {
+            dropped++;
+            return;
+        }
+        packetsSent++;
+        bytesSent += n;
+    }
+
+    // ACK de quem ainda não está na lista é uma inscrição
+    void receiveAcks(long now) throws IOException {
+        SocketAddress from;
+        while (true) {
+            in.clear();
+            if ((from = channel.receive(in)) == null)
+                return;
+            in.flip();
+            if (in.remaining() < 5 || in.get() != SpectatorCodec.ACK)
+                continue;
+            int id = in.getInt();
+            Integer i = index.get(from);
+            if (i == null) {
+                i = addViewer(from);
+                resentNs[i] = now - RESEND_NS; // recebe o keyframe já no próximo tick
+            }
+            if (id <= keyframeId && id > acked[i])
+                acked[i] = id;
+            lastSeenNs[i] = now;
+        }
+    }
+
+    private int addViewer(SocketAddress from) {
+        if (viewers == addresses.length) {
+            addresses = Arrays.copyOf(addresses, viewers * 2);
+            acked = Arrays.copyOf(acked, viewers * 2);
+            lastSeenNs = Arrays.copyOf(lastSeenNs, viewers * 2);
+            resentNs = Arrays.copyOf(resentNs, viewers * 2);
+        }
+        int i = viewers++;
+        addresses[i] = from;
+        acked[i] = -1;
+        index.put(from, i);
+        return i;
+    }
+
+    // remove quem não manda ACK há VIEWER_TIMEOUT_NS (o último ocupa o lugar)
+    private void expire(long now) {
+        for (int i = 0; i < viewers; i++) {
+            if (now - lastSeenNs[i] < VIEWER_TIMEOUT_NS)
+                continue;
+            index.remove(addresses[i]);
+            int last = --viewers;
+            if (i != last) {
+                addresses[i] = addresses[last];
+                acked[i] = acked[last];
+                lastSeenNs[i] = lastSeenNs[last];
+                resentNs[i] = resentNs[last];
+                index.put(addresses[i], i);
+                i--;
+            }
+            addresses[last] = null;
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    // java BoxingGame --broadcast PORTA: partidas scriptadas em tempo real, uma atrás da outra
+    static void main(String[] args) throws IOException {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7790;
+        SpectatorBroadcaster b = new SpectatorBroadcaster(new InetSocketAddress(port));
+        System.out.printf("Transmitindo na porta %d (espectadores: java BoxingGame --watch HOST:%d)%n", port, port);
+
+        Random random = new Random();
+        int[] view = new int[SpectatorCodec.FIELDS];
+        LatencyHistogram cost = new LatencyHistogram();
+        long tickNs = GameSimulation.TICK_MS * 1_000_000L;
+        long next = System.nanoTime(), nextReport = next + 5_000_000_000L;
+        long lastBytes = 0;
+        while (true) {
+            Difficulty difficulty = Difficulty.values()[random.nextInt(Difficulty.values().length)];
+            GameSimulation sim = new GameSimulation(difficulty, new GameRng(random.nextLong()));
+            ScriptedPlayer script = new ScriptedPlayer(new Random(random.nextLong()));
+            sim.startMatch();
+            // depois do fim, segura a tela de GAME_OVER por ~3 s antes da próxima
+            for (long holdTicks = 3000 / GameSimulation.TICK_MS; holdTicks > 0;) {
+                if (sim.isOver())
+                    holdTicks--;
+                else
+                    sim.tick(script.nextInput(sim));
+                SpectatorCodec.capture(sim, view);
+                long t0 = System.nanoTime();
+                b.broadcast(view, sim.getTicks());
+                cost.record(System.nanoTime() - t0);
+
+                long now = System.nanoTime();
+                if (now - nextReport >= 0) {
+                    double secs = (now - nextReport + 5_000_000_000L) / 1e9;
+                    long bytes = b.bytesSent - lastBytes;
+                    System.out.printf("espectadores %d | %.0f B/s por espectador | envio por tick p50 %.1f µs, "
+                            + "p99 %.1f µs | keyframes reenviados %d, descartados %d%n", b.getViewers(),
+                            b.getViewers() == 0 ? 0.0 : bytes / secs / b.getViewers(), cost.percentile(0.5) / 1e3,
+                            cost.percentile(0.99) / 1e3, b.keyframesResent, b.dropped);
+                    lastBytes = b.bytesSent;
+                    cost.reset();
+                    nextReport = now + 5_000_000_000L;
+                }
+                next += tickNs;
+                long wait = next - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+                else if (wait < -250_000_000L)
+                    next = System.nanoTime();
+            }
+        }
+    }
+}
+
+// ======= TRANSMISSÃO PARA ESPECTADORES: CLIENTE (aplica a visão numa simulação que não roda) =======
+// Cada pacote novo é escrito sobre um snapshot e lido por uma GameSimulation que nunca é avançada:
+// o painel desenha essa simulação com o mesmo código de uma partida local. Golpes que tiram vida
+// viram onHit para as partículas.
+final class SpectatorClient {
+    private static final long ACK_INTERVAL_NS = 1_000_000_000L;
+
+    private final DatagramChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocateDirect(SpectatorCodec.MAX_PACKET);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(8);
+    private final SpectatorCodec.Decoder decoder = new SpectatorCodec.Decoder();
+    private final ByteBuffer snapshot = ByteBuffer.allocate(MatchSnapshot.SIZE);
+    private GameSimulation sim;
+    private GameSimulation.Listener listener;
+    private long lastAckNs;
+    private int lastAcked = -1;
+    long packets, bytes;
+
+    SpectatorClient(InetSocketAddress server) throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(null);
+        channel.connect(server);
+        channel.configureBlocking(false);
+        newSimulation(Difficulty.MEDIUM);
+    }
+
+    static SpectatorClient fromArgs(String[] args) throws IOException {
+        String target = args.length > 1 ? args[1] : "127.0.0.1:7790";
+        int colon = target.lastIndexOf(':');
+        return new SpectatorClient(new InetSocketAddress(target.substring(0, colon),
+                Integer.parseInt(target.substring(colon + 1))));
+    }
+
+    // uma simulação parada por dificuldade (só o HUD a mostra); o snapshot dela dá os campos
+    // que não são transmitidos (y, velocidade, ...)
+    private void newSimulation(Difficulty difficulty) {
+        sim = new GameSimulation(difficulty, new GameRng(0));
+        sim.startMatch();
+        MatchSnapshot.write(sim, 0, snapshot, 0);
+        if (listener != null)
+            sim.setListener(listener);
+    }
+
+    void setListener(GameSimulation.Listener listener) {
+        this.listener = listener;
+        sim.setListener(listener);
+    }
+
+    boolean hasState() {
+        return decoder.hasView();
+    }
+
+    GameSimulation getSimulation() {
+        return sim;
+    }
+
+    int[] view() {
+        return decoder.view;
+    }
+
+    // lê tudo o que chegou; true se a visão mudou
+    boolean poll() throws IOException {
+        long now = System.nanoTime();
+        boolean changed = false;
+        while (true) {
+            in.clear();
+            int n;
+            try {
+                n = channel.read(in);
+            } catch (PortUnreachableException e) {
+                n = 0; // servidor ainda não subiu
+            }
+            if (n <= 0)
+                break;
+            packets++;
+            bytes += n;
+            in.flip();
+            try {
+                changed |= decoder.read(in);
+            } catch (BufferUnderflowException e) {
+                continue; // pacote truncado
+            }
+        }
+        // confirma keyframe novo na hora; fora isso, um ACK por segundo mantém a inscrição
+        int newest = decoder.newestKeyframe();
+        if (newest != lastAcked || now - lastAckNs >= ACK_INTERVAL_NS) {
+            out.clear();
+            out.put((byte) SpectatorCodec.ACK).putInt(newest).flip();
+            try {
+                channel.write(out);
+            } catch (PortUnreachableException ignored) {
+            }
+            lastAcked = newest;
+            lastAckNs = now;
+        }
+        if (changed)
+            apply();
+        return changed;
+    }
+
+    private void apply() {
+        int[] v = decoder.view;
+        if (v[SpectatorCodec.DIFFICULTY] != sim.getDifficulty().ordinal())
+            newSimulation(Difficulty.values()[v[SpectatorCodec.DIFFICULTY]]);
+        Fighter p = sim.getPlayer(), a = sim.getAi();
+        int playerHealth = p.getHealth(), aiHealth = a.getHealth();
+        int round = sim.getCurrentRound();
+
+        SpectatorCodec.apply(v, snapshot);
+        sim.readSnapshot(snapshot, 0);
+
+        if (listener == null)
+            return;
+        if (sim.getCurrentRound() != round)
+            listener.onRoundStart(sim.getCurrentRound());
+        if (p.getHealth() < playerHealth)
+            listener.onHit(a, p, a.getPunchType(), playerHealth - p.getHealth());
+        if (a.getHealth() < aiHealth)
+            listener.onHit(p, a, p.getPunchType(), aiHealth - a.getHealth());
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
+
+// ======= BENCHMARK DA TRANSMISSÃO (banda por espectador e CPU do servidor x espectadores) =======
+// Servidor e espectadores no mesmo processo, em localhost: por tick, o servidor transmite e cada
+// espectador lê, decodifica e confirma keyframes. Só broadcast() entra no tempo do servidor.
+final class SpectatorBench {
+    private static final int TICKS = 1250; // 20 s de jogo
+
+    private SpectatorBench() {
+    }
+
+    // java BoxingGame --broadcast-bench [N...]
+    static void main(String[] args) throws IOException {
+        int[] counts = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[] { 1, 10, 100, 500, 1000 };
+
+        int fullBytes = MatchSnapshot.SIZE + 28;
+        System.out.printf("%d ticks (%.0f s de jogo) por rodada; estado completo a cada tick seria %d B "
+                + "(%.1f kB/s) por espectador%n", TICKS, TICKS * GameSimulation.TICK_MS / 1000.0, fullBytes,
+                fullBytes * 1000.0 / GameSimulation.TICK_MS / 1000);
+        System.out.println("espectadores | B/s por espectador (c/ UDP+IP) | B por pacote | servidor µs/tick p50 "
+                + "p99 | µs por espectador | CPU do servidor | fora de sincronia");
+        for (int n : counts)
+            run(n);
+    }
+
+    // java BoxingGame --broadcast-check: cada campo no mínimo e no máximo da faixa passa por
+    // keyframe, decoder, snapshot e render (como no --watch); um valor além da faixa que ainda cabe
+    // nos bits tem de ser descartado; e um transmissor que reinicia não congela o espectador
+    static void check() {
+        GameSimulation source = new GameSimulation(Difficulty.MEDIUM, new GameRng(1));
+        ScriptedPlayer script = new ScriptedPlayer(new Random(2));
+        source.startMatch();
+        for (int t = 0; t < 600; t++)
+            source.tick(script.nextInput(source));
+        int[] base = new int[SpectatorCodec.FIELDS];
+        SpectatorCodec.capture(source, base);
+        // com recarga ligada o HUD desenha os segundos de cooldown (o do lado direito só no versus)
+        base[SpectatorCodec.PLAYER_ON_COOLDOWN] = base[SpectatorCodec.OPPONENT_ON_COOLDOWN] = 1;
+        base[SpectatorCodec.VERSUS] = 1;
+
+        ByteBuffer packet = ByteBuffer.allocate(SpectatorCodec.MAX_PACKET);
+        SpectatorCodec.BitWriter bits = new SpectatorCodec.BitWriter();
+        ByteBuffer snapshot = ByteBuffer.allocate(MatchSnapshot.SIZE);
+        BufferedImage img = new BufferedImage(GameRenderer.WIDTH, GameRenderer.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        GameRenderer renderer = new GameRenderer(new Random(3));
+        RenderFrame frame = new RenderFrame();
+        ParticleSystem noParticles = new ParticleSystem();
+        int[] view = new int[SpectatorCodec.FIELDS];
+        int rendered = 0, rejected = 0, failures = 0;
+
+        for (int field = 0; field < SpectatorCodec.FIELDS; field++) {
+            int min = SpectatorCodec.min(field), max = SpectatorCodec.max(field);
+            for (int v : new int[] { min, max, min - 1, max + 1 }) {
+                boolean inRange = v >= min && v <= max;
+                if (!inRange && (v < 0 || v >= 1 << SpectatorCodec.bits(field)))
+                    continue; // não cabe no pacote
+                System.arraycopy(base, 0, view, 0, SpectatorCodec.FIELDS);
+                view[field] = v;
+                SpectatorCodec.Decoder decoder = new SpectatorCodec.Decoder();
+                keyframe(packet, 1, 0, view, bits);
+                if (decoder.read(packet) != inRange) {
+                    System.out.printf("FALHA: campo %d = %d %s%n", field, v, inRange ? "descartado" : "aceito");
+                    failures++;
+                    continue;
+                }
+                if (!inRange) {
+                    rejected++;
+                    continue;
+                }
+                try {
+                    GameSimulation sim = new GameSimulation(
+                            Difficulty.values()[decoder.view[SpectatorCodec.DIFFICULTY]], new GameRng(0));
+                    sim.startMatch();
+                    MatchSnapshot.write(sim, 0, snapshot, 0);
+                    SpectatorCodec.apply(decoder.view, snapshot);
+                    sim.readSnapshot(snapshot, 0);
+                    // todas as telas: intro, fim de round e fim de jogo usam outros campos como índice
+                    for (GameState state : GameState.values()) {
+                        frame.capture(state, 0, 0, sim.getDifficulty(), sim, noParticles);
+                        frame.spectator = true;
+                        renderer.render(g, frame, 0.5f);
+                    }
+                    rendered++;
+                } catch (RuntimeException e) {
+                    System.out.printf("FALHA: campo %d = %d: %s%n", field, v, e);
+                    failures++;
+                }
+            }
+        }
+
+        // transmissor reiniciado: seq e ids voltam ao 0 depois de alguns keyframes
+        SpectatorCodec.Decoder decoder = new SpectatorCodec.Decoder();
+        for (int id = 0; id < 3; id++) {
+            keyframe(packet, 100 + id * SpectatorBroadcaster.KEYFRAME_TICKS, id, base, bits);
+            decoder.read(packet);
+        }
+        System.arraycopy(base, 0, view, 0, SpectatorCodec.FIELDS);
+        view[SpectatorCodec.ROUND] = SpectatorCodec.min(SpectatorCodec.ROUND);
+        keyframe(packet, 0, 0, view, bits);
+        if (!decoder.read(packet) || !Arrays.equals(decoder.view, view) || decoder.newestKeyframe() != 0) {
+            System.out.println("FALHA: o decoder não aceitou o transmissor reiniciado");
+            failures++;
+        }
+        g.dispose();
+
+        if (failures > 0) {
+            System.out.printf("%d falha(s)%n", failures);
+            System.exit(1);
+        }
+        System.out.printf("OK: %d visões nos extremos renderizadas, %d fora da faixa descartadas, "
+                + "reinício do transmissor aceito%n", rendered, rejected);
+    }
+
+    private static void keyframe(ByteBuffer packet, int seq, int id, int[] view, SpectatorCodec.BitWriter bits) {
+        packet.clear();
+        SpectatorCodec.writeKeyframe(packet, seq, id, view, bits);
+        packet.flip();
+    }
+
+    private static void run(int count) throws IOException {
+        SpectatorBroadcaster server = new SpectatorBroadcaster(new InetSocketAddress("127.0.0.1", 0));
+        InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        SpectatorClient[] viewers = new SpectatorClient[count];
+        for (int i = 0; i < count; i++)
+            viewers[i] = new SpectatorClient(address);
+
+        Random random = new Random(42);
+        GameSimulation sim = null;
+        ScriptedPlayer script = null;
+        int[] view = new int[SpectatorCodec.FIELDS];
+        LatencyHistogram cost = new LatencyHistogram();
+        long serverNs = 0, stale = 0, checked = 0;
+
+        // inscrição: o primeiro ACK de cada um
+        for (SpectatorClient v : viewers)
+            v.poll();
+
+        for (int t = 0; t < TICKS; t++) {
+            if (sim == null || sim.isOver()) {
+                sim = new GameSimulation(Difficulty.MEDIUM, new GameRng(random.nextLong()));
+                script = new ScriptedPlayer(new Random(random.nextLong()));
+                sim.startMatch();
+            }
+            sim.tick(script.nextInput(sim));
+            SpectatorCodec.capture(sim, view);
+
+            long t0 = System.nanoTime();
+            server.broadcast(view, sim.getTicks());
+            long dt = System.nanoTime() - t0;
+            cost.record(dt);
+            serverNs += dt;
+
+            // em localhost o pacote já está no socket quando send() volta
+            for (SpectatorClient v : viewers) {
+                v.poll();
+                checked++;
+                if (!v.hasState() || !Arrays.equals(v.view(), view))
+                    stale++;
+            }
+        }
+
+        double secs = TICKS * GameSimulation.TICK_MS / 1000.0;
+        long bytes = 0, packets = 0;
+        for (SpectatorClient v : viewers) {
+            bytes += v.bytes;
+            packets += v.packets;
+            v.close();
+        }
+        server.close();
+        double perViewer = bytes / secs / count;
+        double withHeaders = (bytes + packets * 28.0) / secs / count;
+        System.out.printf("%12d | %8.0f (%5.0f) | %12.1f | %9.1f %6.1f | %17.2f | %14.1f%% | %16.2f%%%n",
+                count, perViewer, withHeaders, packets == 0 ? 0.0 : bytes / (double) packets,
+                cost.percentile(0.5) / 1e3, cost.percentile(0.99) / 1e3, serverNs / 1e3 / TICKS / count,
+                100.0 * serverNs / (secs * 1e9), 100.0 * stale / checked);
+    }
+}
+
+// ======= IA DO OPONENTE (estratégias além do thinkAI) =======
+// Com uma OpponentAi a simulação roda com setExternalOpponent(true) e quem avança a partida passa o
+// input dela como p2 a cada tick, como o jogador 2 do versus. A simulação continua determinística;
+// a IA pode não ser (a MCTS depende do relógio), então essas partidas não viram replay.
+interface OpponentAi {
+    // input do lutador da direita neste tick (bits INPUT_*); chamado a cada tick, na thread do jogo
+    int nextInput(GameSimulation sim);
+
+    // --ai=classic|mcts|ngram|bt:NOME; classic (o thinkAI da própria simulação) devolve null
+    static OpponentAi create(String kind, Difficulty difficulty) {
+        if (kind.startsWith("bt:")) {
+            try {
+                return new BehaviorTreeAi(BehaviorTree.load(kind.substring("bt:".length())), difficulty, new Random());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return switch (kind) {
+            case "classic" -> null;
+            case "mcts" -> new MctsAi(difficulty, false);
+            case "ngram" -> new NgramAi(difficulty, PlayerModel.SESSION);
+            default -> throw new IllegalArgumentException("IA desconhecida: " + kind + " (classic, mcts, ngram, bt:NOME)");
+        };
+    }
+}
+
+// ======= IA MCTS (busca em árvore Monte Carlo com rollouts nas regras reais) =======
+// A cada ACTION_TICKS ticks escolhe uma macro-ação (parado, avança, recua, jab, gancho, cruzado).
+// A busca roda nas threads do pool enquanto a ação anterior é executada: a raiz é o snapshot do
+// momento mais a ação em curso, então o resultado vale exatamente para a próxima fronteira. Cada
+// thread monta a sua árvore (paralelização na raiz) numa simulação própria, restaurando o snapshot
+// a cada rollout; o jogador é modelado pelo ScriptedPlayer. A última thread a bater o prazo soma
+// as visitas dos filhos da raiz e publica a ação. A thread do jogo só escreve o snapshot e lê um
+// volátil: nunca espera (a não ser no modo bloqueante, usado sem janela).
+final class MctsAi implements OpponentAi {
+    static final int IDLE = 0;
+    static final int FORWARD = 1;
+    static final int BACK = 2;
+    static final int JAB = 3;
+    static final int HOOK = 4;
+    static final int CROSS = 5;
+    static final int ACTIONS = 6;
+
+    static final int ACTION_TICKS = 8; // 128 ms por decisão
+    private static final double EXPLORATION = 0.7;
+    private static final int MAX_NODES = 1 << 15;
+
+    // por dificuldade (ordinal): prazo de cada decisão e profundidade (em macro-ações) da árvore e
+    // do rollout aleatório depois dela
+    private static final long[] BUDGET_NS = { 2_000_000L, 6_000_000L, 15_000_000L };
+    private static final int[] TREE_DEPTH = { 2, 3, 4 };
+    private static final int[] ROLLOUT_DEPTH = { 1, 2, 3 };
+
+    // deixa um núcleo para o jogo e o render
+    static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static ExecutorService pool;
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            AtomicInteger n = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(THREADS, r -> {
+                Thread t = new Thread(r, "mcts-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    private final boolean blocking;
+    private final long budgetNs;
+    private final int treeDepth;
+    private final int rolloutDepth;
+    private final Worker[] workers = new Worker[THREADS];
+
+    // entrada da busca (escrita antes de submeter) e saída (volátil, -1 = ainda buscando)
+    private final ByteBuffer root = ByteBuffer.allocate(MatchSnapshot.SIZE);
+    private int committed;
+    private long searchStartNs;
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile int result = -1;
+
+    // só a thread do jogo
+    private boolean searching;
+    private int searchRound;
+    private int action = IDLE;
+    private int actionTicksLeft;
+
+    // estatísticas (a thread que fecha a busca escreve; lidas depois dela)
+    final LatencyHistogram decisionNs = new LatencyHistogram();
+    long decisions, lateTicks, rollouts, searchNs;
+
+    MctsAi(Difficulty difficulty, boolean blocking) {
+        this.blocking = blocking;
+        int d = difficulty.ordinal();
+        budgetNs = BUDGET_NS[d];
+        treeDepth = TREE_DEPTH[d];
+        rolloutDepth = ROLLOUT_DEPTH[d];
+        for (int i = 0; i < THREADS; i++)
+            workers[i] = new Worker(difficulty);
+    }
+
+    @Override
+    public int nextInput(GameSimulation sim) {
+        if (sim.getState() != GameState.PLAYING) {
+            actionTicksLeft = 0;
+            return 0;
+        }
+        if (actionTicksLeft == 0) {
+            if (searching && blocking)
+                awaitResult();
+            int r = result;
+            if (searching && r < 0) {
+                lateTicks++; // busca atrasada (máquina ocupada): fica parado e olha de novo no próximo tick
+                action = IDLE;
+                actionTicksLeft = 1;
+            } else {
+                // resultado de outro round (a busca atravessou o intervalo) não vale
+                action = searching && searchRound == sim.getCurrentRound() ? r : IDLE;
+                actionTicksLeft = ACTION_TICKS;
+                startSearch(sim, action);
+            }
+        }
+        int in = input(action, ACTION_TICKS - actionTicksLeft, sim);
+        actionTicksLeft--;
+        return in;
+    }
+
+    private void startSearch(GameSimulation sim, int inProgress) {
+        MatchSnapshot.write(sim, 0, root, 0);
+        committed = inProgress;
+        searchRound = sim.getCurrentRound();
+        searching = true;
+        result = -1;
+        running.set(workers.length);
+        searchStartNs = System.nanoTime();
+        ExecutorService p = pool();
+        for (Worker w : workers)
+            p.execute(w);
+    }
+
+    private void awaitResult() {
+        while (result < 0)
+            LockSupport.parkNanos(100_000L);
+    }
+
+    // input da macro-ação no passo step (0..ACTION_TICKS-1); golpes só no primeiro tick
+    static int input(int action, int step, GameSimulation sim) {
+        int dist = sim.getPlayer().getX() - sim.getAi().getX();
+        int toward = dist > 0 ? GameSimulation.INPUT_RIGHT : GameSimulation.INPUT_LEFT;
+        int away = dist > 0 ? GameSimulation.INPUT_LEFT : GameSimulation.INPUT_RIGHT;
+        return switch (action) {
+            case FORWARD -> toward;
+            case BACK -> away;
+            case JAB -> step == 0 ? GameSimulation.INPUT_JAB : 0;
+            case HOOK -> step == 0 ? GameSimulation.INPUT_HOOK : 0;
+            case CROSS -> step == 0 ? GameSimulation.INPUT_CROSS : 0;
+            default -> 0;
+        };
+    }
+
+    // chamado pela última thread a terminar
+    private void finish() {
+        long rootVisits = 0;
+        int best = IDLE, bestVisits = -1;
+        for (int a = 0; a < ACTIONS; a++) {
+            int v = 0;
+            for (Worker w : workers)
+                v += w.rootVisits[a];
+            if (v > bestVisits) {
+                bestVisits = v;
+                best = a;
+            }
+        }
+        for (Worker w : workers) {
+            rootVisits += w.rollouts;
+            w.rollouts = 0;
+        }
+        long dt = System.nanoTime() - searchStartNs;
+        decisionNs.record(dt);
+        searchNs += dt;
+        rollouts += rootVisits;
+        decisions++;
+        result = best;
+    }
+
+    // uma árvore por thread em arrays planos: os filhos de um nó são ACTIONS nós consecutivos
+    private final class Worker implements Runnable {
+        private final GameSimulation sim;
+        private final Random random = new Random();
+        private final ScriptedPlayer playerModel = new ScriptedPlayer(random);
+        private final int[] visits = new int[MAX_NODES];
+        private final float[] value = new float[MAX_NODES];
+        private final int[] firstChild = new int[MAX_NODES];
+        private final int[] path = new int[TREE_DEPTH[TREE_DEPTH.length - 1] + 1];
+        private int nodes;
+        final int[] rootVisits = new int[ACTIONS];
+        long rollouts;
+
+        Worker(Difficulty difficulty) {
+            sim = new GameSimulation(difficulty, new GameRng(0));
+        }
+
+        @Override
+        public void run() {
+            nodes = 1;
+            visits[0] = 0;
+            value[0] = 0;
+            firstChild[0] = 0;
+            long deadline = searchStartNs + budgetNs;
+            do {
+                iterate();
+                rollouts++;
+            } while (System.nanoTime() - deadline < 0);
+            int first = firstChild[0];
+            for (int a = 0; a < ACTIONS; a++)
+                rootVisits[a] = first == 0 ? 0 : visits[first + a];
+            if (running.decrementAndGet() == 0)
+                finish();
+        }
+
+        private void iterate() {
+            sim.readSnapshot(root, 0);
+            Fighter me = sim.getAi(), opp = sim.getPlayer();
+            int myHealth = me.getHealth(), oppHealth = opp.getHealth();
+            int myRounds = sim.getAiRoundsWon(), oppRounds = sim.getPlayerRoundsWon();
+            int myStamina = sim.getStamina(GameSimulation.SIDE_OPPONENT);
+
+            play(committed);
+
+            // seleção (UCT) e expansão de um nó
+            int node = 0, depth = 0, len = 0;
+            path[len++] = 0;
+            while (depth < treeDepth && sim.getState() == GameState.PLAYING) {
+                int first = firstChild[node];
+                if (first == 0) {
+                    if (nodes + ACTIONS > MAX_NODES)
+                        break;
+                    first = firstChild[node] = nodes;
+                    for (int i = 0; i < ACTIONS; i++) {
+                        visits[first + i] = 0;
+                        value[first + i] = 0;
+                        firstChild[first + i] = 0;
+                    }
+                    nodes += ACTIONS;
+                    int a = random.nextInt(ACTIONS);
+                    node = first + a;
+                    path[len++] = node;
+                    play(a);
+                    depth++;
+                    break;
+                }
+                int a = select(node, first);
+                node = first + a;
+                path[len++] = node;
+                play(a);
+                depth++;
+            }
+
+            // rollout aleatório até o horizonte
+            for (int i = depth; i < treeDepth + rolloutDepth && sim.getState() == GameState.PLAYING; i++)
+                play(random.nextInt(ACTIONS));
+
+            float reward = reward(myHealth - me.getHealth(), oppHealth - opp.getHealth(),
+                    sim.getAiRoundsWon() - myRounds, sim.getPlayerRoundsWon() - oppRounds,
+                    myStamina - sim.getStamina(GameSimulation.SIDE_OPPONENT),
+                    sim.isStaminaOnCooldown(GameSimulation.SIDE_OPPONENT));
+            for (int i = 0; i < len; i++) {
+                visits[path[i]]++;
+                value[path[i]] += reward;
+            }
+        }
+
+        private int select(int parent, int first) {
+            double logN = Math.log(Math.max(1, visits[parent]));
+            int best = 0;
+            double bestScore = -1;
+            for (int a = 0; a < ACTIONS; a++) {
+                int n = visits[first + a];
+                if (n == 0)
+                    return a;
+                double score = value[first + a] / n + EXPLORATION * Math.sqrt(logN / n);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = a;
+                }
+            }
+            return best;
+        }
+
+        private void play(int action) {
+            for (int step = 0; step < ACTION_TICKS && sim.getState() == GameState.PLAYING; step++)
+                sim.tick(playerModel.nextInput(sim), input(action, step, sim));
+        }
+    }
+
+    // 0..1 do ponto de vista da IA: saldo de dano, rounds ganhos/perdidos e stamina gasta/esgotada
+    static float reward(int taken, int dealt, int roundsWon, int roundsLost, int staminaSpent, boolean exhausted) {
+        double score = (dealt - taken) / 40.0 + roundsWon - roundsLost - Math.max(0, staminaSpent) / 200.0
+                - (exhausted ? 0.25 : 0);
+        return (float) (0.5 + 0.5 * Math.max(-1, Math.min(1, score)));
+    }
+}
+
+// ======= BENCHMARK DA MCTS (rollouts/s, latência de decisão e força contra o bot) =======
+// java BoxingGame --mcts-bench [partidas] [segundos em tempo real]
+// Partidas sem janela no modo bloqueante (a busca usa o prazo inteiro) contra o ScriptedPlayer,
+// comparadas ao thinkAI com as mesmas seeds; depois alguns segundos no ritmo do jogo, sem bloquear,
+// medindo quanto nextInput custa à thread do jogo.
+final class MctsBench {
+    private MctsBench() {
+    }
+
+    static void main(String[] args) {
+        int matches = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        System.out.printf("MCTS: %d thread(s) de busca, decisão a cada %d ms%n", MctsAi.THREADS,
+                MctsAi.ACTION_TICKS * GameSimulation.TICK_MS);
+
+        for (Difficulty d : Difficulty.values()) {
+            MctsAi ai = new MctsAi(d, true);
+            int mctsRounds = 0, classicRounds = 0, rounds = 0, classicTotal = 0;
+            long ticks = 0;
+            for (int m = 0; m < matches; m++) {
+                long seed = 1000L * d.ordinal() + m;
+                GameSimulation sim = new GameSimulation(d, new GameRng(seed));
+                sim.setExternalOpponent(true);
+                ScriptedPlayer player = new ScriptedPlayer(new Random(seed));
+                sim.startMatch();
+                while (!sim.isOver())
+                    sim.tick(player.nextInput(sim), ai.nextInput(sim));
+                ticks += sim.getTicks();
+                mctsRounds += sim.getAiRoundsWon();
+                rounds += sim.getAiRoundsWon() + sim.getPlayerRoundsWon();
+
+                GameSimulation classic = new GameSimulation(d, new GameRng(seed));
+                ScriptedPlayer.playMatch(classic, new ScriptedPlayer(new Random(seed)));
+                classicRounds += classic.getAiRoundsWon();
+                classicTotal += classic.getAiRoundsWon() + classic.getPlayerRoundsWon();
+            }
+            System.out.printf("%-6s | %d partidas, rounds da IA: MCTS %d/%d, thinkAI %d/%d | %.0f rollouts/s, "
+                    + "%.0f por decisão "
+                    + "| decisão p50 %.2f ms, p99 %.2f ms, máx %.2f ms (%d decisões, %.0f s de jogo)%n",
+                    d, matches, mctsRounds, rounds, classicRounds, classicTotal, ai.rollouts / (ai.searchNs / 1e9),
+                    ai.rollouts / (double) Math.max(1, ai.decisions), ai.decisionNs.percentile(0.5) / 1e6,
+                    ai.decisionNs.percentile(0.99) / 1e6, ai.decisionNs.percentile(1.0) / 1e6, ai.decisions,
+                    ticks * GameSimulation.TICK_MS / 1000.0);
+        }
+
+        if (seconds <= 0)
+            return;
+        // tempo real, modo da janela: o custo de nextInput é o que a thread do jogo paga
+        MctsAi ai = new MctsAi(Difficulty.HARD, false);
+        GameSimulation sim = new GameSimulation(Difficulty.HARD, new GameRng(7));
+        sim.setExternalOpponent(true);
+        ScriptedPlayer player = new ScriptedPlayer(new Random(7));
+        sim.startMatch();
+        LatencyHistogram call = new LatencyHistogram();
+        long tickNs = GameSimulation.TICK_MS * 1_000_000L;
+        long next = System.nanoTime();
+        long ticks = seconds * 1000L / GameSimulation.TICK_MS;
+        for (long t = 0; t < ticks && !sim.isOver(); t++) {
+            long t0 = System.nanoTime();
+            int p2 = ai.nextInput(sim);
+            call.record(System.nanoTime() - t0);
+            sim.tick(player.nextInput(sim), p2);
+            next += tickNs;
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+        }
+        System.out.printf("tempo real (HARD, %d s): nextInput na thread do jogo p50 %.1f µs, p99 %.1f µs, "
+                + "máx %.1f µs | %d decisões, %d ticks esperando busca atrasada%n", seconds,
+                call.percentile(0.5) / 1e3, call.percentile(0.99) / 1e3, call.percentile(1.0) / 1e3, ai.decisions,
+                ai.lateTicks);
+    }
+}
+
+// ======= IA POR ÁRVORE DE COMPORTAMENTO (definida em arquivo, compilada para um programa plano) =======
+// Formato (.bt, um nó por linha, filhos com mais recuo que o pai, # comenta):
+//   think 320 650                      intervalo entre decisões em ms (opcional; padrão: dificuldade)
+//   selector                           primeiro filho que dá certo
+//     sequence                         todos os filhos, em ordem, até um falhar
+//       if distance close              far (>200) | mid (121..200) | close (<=120)
+//       if stamina >= 22               distance | health | opponent-health | stamina, com < <= > >= ==
+//       if !opponent-punching          opponent-punching, negável com !
+//       cross                          ação: idle | approach | retreat | jab | hook | cross
+//     random                           sorteia um filho pelo peso no início da linha
+//       3 jab
+//       1 approach
+// A primeira ação alcançada é a decisão; se a árvore inteira falhar, fica parado. Ao carregar,
+// cada nó vira instruções num int[]: condição = teste de faixa sobre um atributo, com o índice da
+// próxima instrução no acerto e na falha; sequência e seletor viram só esses saltos. Todo salto vai
+// para uma instrução anterior, então a avaliação sempre termina, sem pilha e sem alocar.
+final class BehaviorTree {
+    // atributos lidos pelas condições (preenchidos por quem avalia, um int cada)
+    static final int F_DISTANCE = 0; // |x do oponente - x próprio|
+    static final int F_HEALTH = 1;
+    static final int F_OPP_HEALTH = 2;
+    static final int F_OPP_PUNCHING = 3; // 0 ou 1
+    static final int F_STAMINA = 4;
+    static final int FEATURES = 5;
+
+    // ações (a decisão)
+    static final int IDLE = 0, APPROACH = 1, RETREAT = 2, JAB = 3, HOOK = 4, CROSS = 5;
+    private static final String[] ACTION_NAMES = { "idle", "approach", "retreat", "jab", "hook", "cross" };
+
+    // instrução: OP, ARG, LO, SPAN, ON_TRUE, ON_FALSE
+    private static final int OP = 0, ARG = 1, LO = 2, SPAN = 3, ON_TRUE = 4, ON_FALSE = 5, STRIDE = 6;
+    private static final int OP_ACT = 0; // ARG = ação; termina
+    private static final int OP_IF = 1; // ARG = atributo; acerto se LO <= valor <= LO + SPAN
+    private static final int OP_RANDOM = 2; // ARG = posição em pool: [n, peso total, (peso acumulado, destino) x n]
+
+    final String name;
+    final int thinkMinMs, thinkMaxMs; // 0 = usa os da dificuldade
+    private final int[] code;
+    private final int[] pool;
+    private final int entry;
+
+    private BehaviorTree(String name, int thinkMinMs, int thinkMaxMs, int[] code, int[] pool, int entry) {
+        this.name = name;
+        this.thinkMinMs = thinkMinMs;
+        this.thinkMaxMs = thinkMaxMs;
+        this.code = code;
+        this.pool = pool;
+        this.entry = entry;
+    }
+
+    int instructions() {
+        return code.length / STRIDE;
+    }
+
+    // features[F_*] -> ação; random só é usado pelos nós random
+    int evaluate(int[] features, Random random) {
+        int[] code = this.code;
+        int pc = entry;
+        while (true) {
+            int at = pc * STRIDE;
+            int op = code[at + OP];
+            if (op == OP_IF) {
+                // faixa sem desvio: valor - LO cai em [0, SPAN] (comparação sem sinal)
+                boolean ok = Integer.compareUnsigned(features[code[at + ARG]] - code[at + LO], code[at + SPAN]) <= 0;
+                pc = code[at + (ok ? ON_TRUE : ON_FALSE)];
+            } else if (op == OP_ACT) {
+                return code[at + ARG];
+            } else {
+                int p = code[at + ARG];
+                int r = random.nextInt(pool[p + 1]);
+                int k = p + 2;
+                while (r >= pool[k])
+                    k += 2;
+                pc = pool[k + 1];
+            }
+        }
+    }
+
+    // ======= CARGA =======
+    // bt:NOME procura ai/NOME.bt ao lado do jogo; um caminho terminado em .bt é usado como está
+    static BehaviorTree load(String spec) throws IOException {
+        String relative = spec.endsWith(".bt") ? spec : "ai/" + spec + ".bt";
+        Path file = Assets.resolve(relative);
+        return parse(file.getFileName().toString(), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    // nó da árvore lida (só existe durante a compilação)
+    private static final class Node {
+        final int line, indent, weight;
+        final String[] words;
+        final List<Node> children = new ArrayList<>();
+
+        Node(int line, int indent, int weight, String[] words) {
+            this.line = line;
+            this.indent = indent;
+            this.weight = weight;
+            this.words = words;
+        }
+
+        String kind() {
+            return words[0];
+        }
+    }
+
+    static BehaviorTree parse(String name, List<String> lines) {
+        int thinkMin = 0, thinkMax = 0;
+        Node root = null;
+        List<Node> open = new ArrayList<>(); // caminho da raiz até o último nó lido
+        for (int n = 0; n < lines.size(); n++) {
+            String raw = lines.get(n);
+            int hash = raw.indexOf('#');
+            String text = (hash >= 0 ? raw.substring(0, hash) : raw).stripTrailing();
+            if (text.isBlank())
+                continue;
+            int line = n + 1;
+            if (text.indexOf('\t') >= 0)
+                throw error(name, line, "use espaços para recuar, não tab");
+            int indent = text.length() - text.stripLeading().length();
+            String[] words = text.trim().split(" +");
+
+            if (words[0].equals("think")) {
+                if (root != null || words.length != 3)
+                    throw error(name, line, "think MIN MAX vem antes da árvore");
+                thinkMin = parseInt(name, line, words[1]);
+                thinkMax = parseInt(name, line, words[2]);
+                if (thinkMin <= 0 || thinkMax < thinkMin)
+                    throw error(name, line, "intervalo de think inválido");
+                continue;
+            }
+
+            while (!open.isEmpty() && open.get(open.size() - 1).indent >= indent)
+                open.remove(open.size() - 1);
+            Node parent = open.isEmpty() ? null : open.get(open.size() - 1);
+            if (parent == null && root != null)
+                throw error(name, line, "só pode haver uma raiz");
+
+            int weight = 0;
+            if (parent != null && parent.kind().equals("random")) {
+                if (words.length < 2)
+                    throw error(name, line, "filho de random começa com o peso");
+                weight = parseInt(name, line, words[0]);
+                if (weight <= 0)
+                    throw error(name, line, "peso deve ser positivo");
+                words = Arrays.copyOfRange(words, 1, words.length);
+            }
+            Node node = new Node(line, indent, weight, words);
+            check(name, node);
+            if (parent == null) {
+                root = node;
+            } else {
+                if (!isComposite(parent.kind()))
+                    throw error(name, line, parent.kind() + " não tem filhos");
+                parent.children.add(node);
+            }
+            open.add(node);
+        }
+        if (root == null)
+            throw error(name, lines.size(), "árvore vazia");
+
+        Compiler c = new Compiler(name);
+        int idle = c.emit(OP_ACT, IDLE, 0, 0, 0, 0);
+        int entry = c.compile(root, idle, idle);
+        return new BehaviorTree(name, thinkMin, thinkMax, Arrays.copyOf(c.code, c.size * STRIDE),
+                Arrays.copyOf(c.pool, c.poolSize), entry);
+    }
+
+    private static boolean isComposite(String kind) {
+        return kind.equals("selector") || kind.equals("sequence") || kind.equals("random");
+    }
+
+    private static void check(String name, Node node) {
+        String kind = node.kind();
+        if (isComposite(kind)) {
+            if (node.words.length != 1)
+                throw error(name, node.line, kind + " não leva argumentos");
+        } else if (kind.equals("if")) {
+            condition(name, node); // só valida
+        } else if (action(kind) < 0 || node.words.length != 1) {
+            throw error(name, node.line, "nó desconhecido: " + String.join(" ", node.words));
+        }
+    }
+
+    private static int action(String word) {
+        for (int a = 0; a < ACTION_NAMES.length; a++)
+            if (ACTION_NAMES[a].equals(word))
+                return a;
+        return -1;
+    }
+
+    // if ... -> { atributo, lo, hi }
+    private static int[] condition(String name, Node node) {
+        String[] w = node.words;
+        if (w.length == 2) {
+            boolean not = w[1].startsWith("!");
+            if (!(not ? w[1].substring(1) : w[1]).equals("opponent-punching"))
+                throw error(name, node.line, "condição desconhecida: " + w[1]);
+            return new int[] { F_OPP_PUNCHING, not ? 0 : 1, not ? 0 : 1 };
+        }
+        if (w.length == 3 && w[1].equals("distance")) {
+            return switch (w[2]) {
+                case "close" -> new int[] { F_DISTANCE, 0, 120 };
+                case "mid" -> new int[] { F_DISTANCE, 121, 200 };
+                case "far" -> new int[] { F_DISTANCE, 201, Integer.MAX_VALUE };
+                default -> throw error(name, node.line, "faixa de distância: far, mid ou close");
+            };
+        }
+        if (w.length != 4)
+            throw error(name, node.line, "esperava: if ATRIBUTO OPERADOR NÚMERO");
+        int feature = switch (w[1]) {
+            case "distance" -> F_DISTANCE;
+            case "health" -> F_HEALTH;
+            case "opponent-health" -> F_OPP_HEALTH;
+            case "stamina" -> F_STAMINA;
+            default -> throw error(name, node.line, "atributo desconhecido: " + w[1]);
+        };
+        int v = parseInt(name, node.line, w[3]);
+        // v - 1 / v + 1 nos limites do int virariam uma faixa sempre verdadeira
+        if (v == Integer.MIN_VALUE || v == Integer.MAX_VALUE)
+            throw error(name, node.line, "número fora da faixa: " + w[3]);
+        return switch (w[2]) {
+            case "<" -> new int[] { feature, Integer.MIN_VALUE, v - 1 };
+            case "<=" -> new int[] { feature, Integer.MIN_VALUE, v };
+            case ">" -> new int[] { feature, v + 1, Integer.MAX_VALUE };
+            case ">=" -> new int[] { feature, v, Integer.MAX_VALUE };
+            case "==" -> new int[] { feature, v, v };
+            default -> throw error(name, node.line, "operador desconhecido: " + w[2]);
+        };
+    }
+
+    private static int parseInt(String name, int line, String word) {
+        try {
+            return Integer.parseInt(word);
+        } catch (NumberFormatException e) {
+            throw error(name, line, "número inválido: " + word);
+        }
+    }
+
+    private static IllegalArgumentException error(String name, int line, String message) {
+        return new IllegalArgumentException(name + ":" + line + ": " + message);
+    }
+
+    // compila de trás para frente: cada nó recebe para onde ir no acerto e na falha
+    private static final class Compiler {
+        final String name;
+        int[] code = new int[64 * STRIDE];
+        int size;
+        int[] pool = new int[64];
+        int poolSize;
+
+        Compiler(String name) {
+            this.name = name;
+        }
+
+        int emit(int op, int arg, int lo, int span, int onTrue, int onFalse) {
+            if ((size + 1) * STRIDE > code.length)
+                code = Arrays.copyOf(code, code.length * 2);
+            int at = size * STRIDE;
+            code[at + OP] = op;
+            code[at + ARG] = arg;
+            code[at + LO] = lo;
+            code[at + SPAN] = span;
+            code[at + ON_TRUE] = onTrue;
+            code[at + ON_FALSE] = onFalse;
+            return size++;
+        }
+
+        int compile(Node node, int success, int failure) {
+            if (node.children.isEmpty() && isComposite(node.kind()))
+                throw error(name, node.line, node.kind() + " sem filhos");
+            List<Node> kids = node.children;
+            switch (node.kind()) {
+                case "sequence": {
+                    int next = success;
+                    for (int k = kids.size() - 1; k >= 0; k--)
+                        next = compile(kids.get(k), next, failure);
+                    return next;
+                }
+                case "selector": {
+                    int next = failure;
+                    for (int k = kids.size() - 1; k >= 0; k--)
+                        next = compile(kids.get(k), success, next);
+                    return next;
+                }
+                case "random": {
+                    int[] targets = new int[kids.size()];
+                    for (int k = 0; k < targets.length; k++)
+                        targets[k] = compile(kids.get(k), success, failure);
+                    int at = poolSize;
+                    ensurePool(2 + 2 * targets.length);
+                    pool[poolSize++] = targets.length;
+                    pool[poolSize++] = 0;
+                    int total = 0;
+                    for (int k = 0; k < targets.length; k++) {
+                        total += kids.get(k).weight;
+                        pool[poolSize++] = total;
+                        pool[poolSize++] = targets[k];
+                    }
+                    pool[at + 1] = total;
+                    return emit(OP_RANDOM, at, 0, 0, 0, 0);
+                }
+                case "if": {
+                    int[] c = condition(name, node);
+                    return emit(OP_IF, c[0], c[1], c[2] - c[1], success, failure);
+                }
+                default:
+                    return emit(OP_ACT, action(node.kind()), 0, 0, 0, 0);
+            }
+        }
+
+        void ensurePool(int more) {
+            if (poolSize + more > pool.length)
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + more));
+        }
+    }
+
+    // ======= PERSONAS SORTEADAS (para simulações em lote) =======
+    // gera o texto de uma árvore aleatória (regras "se ... então sorteia ações") e compila como um arquivo
+    static BehaviorTree random(String name, Random random) {
+        List<String> lines = new ArrayList<>();
+        int thinkMin = 250 + random.nextInt(600);
+        lines.add("think " + thinkMin + " " + (thinkMin + 100 + random.nextInt(400)));
+        lines.add("selector");
+        int rules = 2 + random.nextInt(4);
+        for (int r = 0; r < rules; r++) {
+            lines.add("  sequence");
+            int conditions = 1 + random.nextInt(2);
+            for (int k = 0; k < conditions; k++)
+                lines.add("    if " + randomCondition(random));
+            randomActions(lines, "    ", random);
+        }
+        randomActions(lines, "  ", random);
+        return parse(name, lines);
+    }
+
+    private static String randomCondition(Random random) {
+        return switch (random.nextInt(6)) {
+            case 0 -> "distance " + (random.nextBoolean() ? "close" : random.nextBoolean() ? "mid" : "far");
+            case 1 -> "distance < " + (60 + random.nextInt(200));
+            case 2 -> "health < " + (20 + random.nextInt(70));
+            case 3 -> "opponent-health < " + (20 + random.nextInt(70));
+            case 4 -> "stamina " + (random.nextBoolean() ? "< " : ">= ") + (10 + random.nextInt(60));
+            default -> random.nextBoolean() ? "opponent-punching" : "!opponent-punching";
+        };
+    }
+
+    private static void randomActions(List<String> lines, String indent, Random random) {
+        lines.add(indent + "random");
+        int n = 1 + random.nextInt(3);
+        for (int k = 0; k < n; k++)
+            lines.add(indent + "  " + (1 + random.nextInt(5)) + " " + ACTION_NAMES[random.nextInt(ACTION_NAMES.length)]);
+    }
+}
+
+// ======= OPONENTE POR ÁRVORE (--ai=bt:NOME) =======
+// Decide no ritmo do thinkAI (intervalo sorteado entre decisões, zerado a cada round) e, como
+// ele, age num tick só: um passo para frente/trás ou o início de um golpe. Os golpes gastam a
+// stamina do lutador da direita (a stamina é uma das condições da árvore).
+final class BehaviorTreeAi implements OpponentAi {
+    private final BehaviorTree tree;
+    private final Random random;
+    private final int thinkMinMs, thinkMaxMs;
+    private final int[] features = new int[BehaviorTree.FEATURES];
+
+    private int round = -1;
+    private long elapsedMs, delayMs;
+    long decisions;
+
+    BehaviorTreeAi(BehaviorTree tree, Difficulty difficulty, Random random) {
+        this.tree = tree;
+        this.random = random;
+        thinkMinMs = tree.thinkMinMs > 0 ? tree.thinkMinMs : difficulty.thinkMinMs;
+        thinkMaxMs = tree.thinkMaxMs > 0 ? tree.thinkMaxMs : difficulty.thinkMaxMs;
+    }
+
+    @Override
+    public int nextInput(GameSimulation sim) {
+        if (sim.getState() != GameState.PLAYING)
+            return 0;
+        if (sim.getCurrentRound() != round) {
+            round = sim.getCurrentRound();
+            elapsedMs = 0;
+            delayMs = nextDelay();
+        }
+        elapsedMs += GameSimulation.TICK_MS;
+        if (elapsedMs < delayMs)
+            return 0;
+        elapsedMs = 0;
+        delayMs = nextDelay();
+
+        Fighter me = sim.getAi(), opp = sim.getPlayer();
+        int dist = opp.getX() - me.getX();
+        features[BehaviorTree.F_DISTANCE] = Math.abs(dist);
+        features[BehaviorTree.F_HEALTH] = me.getHealth();
+        features[BehaviorTree.F_OPP_HEALTH] = opp.getHealth();
+        features[BehaviorTree.F_OPP_PUNCHING] = opp.isPunching() ? 1 : 0;
+        features[BehaviorTree.F_STAMINA] = sim.getStamina(GameSimulation.SIDE_OPPONENT);
+        decisions++;
+
+        int toward = dist > 0 ? GameSimulation.INPUT_RIGHT : GameSimulation.INPUT_LEFT;
+        return switch (tree.evaluate(features, random)) {
+            case BehaviorTree.APPROACH -> toward;
+            case BehaviorTree.RETREAT -> toward ^ (GameSimulation.INPUT_LEFT | GameSimulation.INPUT_RIGHT);
+            case BehaviorTree.JAB -> GameSimulation.INPUT_JAB;
+            case BehaviorTree.HOOK -> GameSimulation.INPUT_HOOK;
+            case BehaviorTree.CROSS -> GameSimulation.INPUT_CROSS;
+            default -> 0;
+        };
+    }
+
+    private long nextDelay() {
+        return thinkMinMs + random.nextInt(Math.max(1, thinkMaxMs - thinkMinMs + 1));
+    }
+}
+
+// ======= PERSONAS EM LOTE (centenas de árvores lado a lado, em todos os núcleos) =======
+// java BoxingGame --bt-batch [personas sorteadas | arquivo.bt | pasta] [partidas por persona] [seed]
+// Cada persona joga suas partidas contra o ScriptedPlayer; as árvores compiladas são imutáveis e
+// compartilhadas entre threads, e cada partida tem só o seu BehaviorTreeAi (RNG e relógio).
+final class BehaviorTreeBatch {
+    private static final int SEQUENTIAL_THRESHOLD = 256;
+    private static final int SHOWN = 5; // melhores e piores
+
+    private final BehaviorTree[] trees;
+    private final int matches;
+    private final long seed;
+
+    private BehaviorTreeBatch(BehaviorTree[] trees, int matches, long seed) {
+        this.trees = trees;
+        this.matches = matches;
+        this.seed = seed;
+    }
+
+    // por persona: partidas ganhas, rounds ganhos, rounds perdidos, decisões
+    private static final int WINS = 0, ROUNDS_WON = 1, ROUNDS_LOST = 2, DECISIONS = 3, FIELDS = 4;
+
+    static void main(String[] args) throws IOException {
+        String what = args.length > 1 ? args[1] : "300";
+        int matches = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+
+        BehaviorTree[] trees = personas(what, seed);
+        int instructions = 0;
+        for (BehaviorTree t : trees)
+            instructions += t.instructions();
+        System.out.printf("%d personas (%d instruções no total), %d partidas cada, MEDIUM%n", trees.length,
+                instructions, matches);
+        System.out.println("(os golpes das árvores gastam stamina, os do thinkAI não: as taxas de vitória não se "
+                + "comparam com as dele)");
+        evaluationCost(trees);
+
+        long t0 = System.nanoTime();
+        long[] stats = ForkJoinPool.commonPool().invoke(new BehaviorTreeBatch(trees, matches, seed).new Slice(0,
+                trees.length * matches));
+        double secs = (System.nanoTime() - t0) / 1e9;
+        long decisions = 0;
+        for (int p = 0; p < trees.length; p++)
+            decisions += stats[p * FIELDS + DECISIONS];
+        System.out.printf("%d partidas em %.2f s (%.0f partidas/s, %.0f decisões/s)%n", (long) trees.length * matches,
+                secs, trees.length * matches / secs, decisions / secs);
+
+        Integer[] order = new Integer[trees.length];
+        for (int p = 0; p < order.length; p++)
+            order[p] = p;
+        Arrays.sort(order, (a, b) -> Long.compare(stats[b * FIELDS + ROUNDS_WON] - stats[b * FIELDS + ROUNDS_LOST],
+                stats[a * FIELDS + ROUNDS_WON] - stats[a * FIELDS + ROUNDS_LOST]));
+        int shown = Math.min(SHOWN, order.length);
+        System.out.println("melhores:");
+        for (int k = 0; k < shown; k++)
+            print(trees, stats, order[k], matches);
+        if (order.length > shown) {
+            System.out.println("piores:");
+            for (int k = Math.max(shown, order.length - shown); k < order.length; k++)
+                print(trees, stats, order[k], matches);
+        }
+    }
+
+    private static void print(BehaviorTree[] trees, long[] stats, int p, int matches) {
+        int at = p * FIELDS;
+        System.out.printf("  %-16s vitórias %5.1f%% | rounds %d x %d | %d instruções%n", trees[p].name,
+                100.0 * stats[at + WINS] / matches, stats[at + ROUNDS_WON], stats[at + ROUNDS_LOST],
+                trees[p].instructions());
+    }
+
+    private static BehaviorTree[] personas(String what, long seed) throws IOException {
+        if (what.chars().allMatch(Character::isDigit)) {
+            int n = Integer.parseInt(what);
+            Random random = new Random(seed);
+            BehaviorTree[] trees = new BehaviorTree[n];
+            for (int p = 0; p < n; p++)
+                trees[p] = BehaviorTree.random(String.format("sorteada-%03d", p), random);
+            return trees;
+        }
+        Path path = Assets.resolve(what);
+        if (!Files.isDirectory(path))
+            return new BehaviorTree[] { BehaviorTree.load(path.toString()) };
+        List<BehaviorTree> trees = new ArrayList<>();
+        try (var files = Files.list(path)) {
+            for (Path f : (Iterable<Path>) files.sorted()::iterator)
+                if (f.toString().endsWith(".bt"))
+                    trees.add(BehaviorTree.load(f.toString()));
+        }
+        return trees.toArray(new BehaviorTree[0]);
+    }
+
+    // avaliação isolada: ns e bytes alocados por decisão, com atributos variados
+    private static void evaluationCost(BehaviorTree[] trees) {
+        int[] features = new int[BehaviorTree.FEATURES];
+        Random random = new Random(1);
+        long sink = 0;
+        int rounds = Math.max(1, 2_000_000 / trees.length);
+        for (int pass = 0; pass < 2; pass++) { // a primeira passada só aquece
+            long a = Bench.allocatedBytes();
+            long t0 = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                features[BehaviorTree.F_DISTANCE] = (r * 37) % 600;
+                features[BehaviorTree.F_HEALTH] = 100 - r % 101;
+                features[BehaviorTree.F_OPP_HEALTH] = (r * 7) % 101;
+                features[BehaviorTree.F_OPP_PUNCHING] = r & 1;
+                features[BehaviorTree.F_STAMINA] = (r * 13) % 101;
+                for (BehaviorTree t : trees)
+                    sink += t.evaluate(features, random);
+            }
+            long ns = System.nanoTime() - t0;
+            long bytes = Bench.allocatedBytes() - a;
+            if (pass == 1)
+                System.out.printf("avaliação: %.1f ns por decisão, %d bytes alocados em %d decisões (%d)%n",
+                        ns / (double) rounds / trees.length, bytes, (long) rounds * trees.length, sink & 1);
+        }
+    }
+
+    private final class Slice extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        Slice(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                long[] stats = new long[trees.length * FIELDS];
+                for (int i = from; i < to; i++)
+                    playOne(i / matches, i % matches, stats);
+                return stats;
+            }
+            int mid = (from + to) >>> 1;
+            Slice left = new Slice(from, mid);
+            left.fork();
+            long[] right = new Slice(mid, to).compute();
+            long[] l = left.join();
+            for (int k = 0; k < right.length; k++)
+                right[k] += l[k];
+            return right;
+        }
+    }
+
+    private void playOne(int persona, int index, long[] stats) {
+        long matchSeed = Balancer.mix(seed ^ Balancer.mix(persona + 1L) ^ Balancer.mix(index * 0x9E3779B97F4A7C15L));
+        GameSimulation sim = new GameSimulation(Difficulty.MEDIUM, new GameRng(matchSeed));
+        sim.setExternalOpponent(true);
+        BehaviorTreeAi ai = new BehaviorTreeAi(trees[persona], Difficulty.MEDIUM, new Random(matchSeed + 1));
+        ScriptedPlayer player = new ScriptedPlayer(new Random(Balancer.mix(matchSeed)));
+        sim.startMatch();
+        while (!sim.isOver())
+            sim.tick(player.nextInput(sim), ai.nextInput(sim));
+
+        int at = persona * FIELDS;
+        if (sim.getAiRoundsWon() > sim.getPlayerRoundsWon())
+            stats[at + WINS]++;
+        stats[at + ROUNDS_WON] += sim.getAiRoundsWon();
+        stats[at + ROUNDS_LOST] += sim.getPlayerRoundsWon();
+        stats[at + DECISIONS] += ai.decisions;
+    }
+}
+
+// ======= MODELO DO JOGADOR (n-grama das ações, tabelas fixas com decaimento) =======
+// Cada evento do jogador (avançar, recuar, parar ou começar um jab/gancho/cruzado; movimento só conta
+// quando muda) atualiza contagens de "próximo evento" para três contextos: os dois eventos
+// anteriores + faixa de distância, o anterior + faixa, e só a faixa. Atualizar uma linha é O(1): as 6
+// contagens decaem 1/8 e a do evento visto ganha INCREMENT, então nenhuma passa de INCREMENT * 8 e o
+// modelo segue o jogador quando ele muda de estratégia. As tabelas têm tamanho fixo: a memória não
+// cresce com a sessão.
+final class PlayerModel {
+    static final int IDLE = 0, TOWARD = 1, AWAY = 2, JAB = 3, HOOK = 4, CROSS = 5, SYMBOLS = 6;
+    static final int BANDS = 3; // perto (<=120), meio, longe (>200), como no thinkAI
+
+    private static final int INCREMENT = 1 << 10;
+    private static final int DECAY_SHIFT = 3;
+    private static final int CONFIDENT = 2 * INCREMENT; // linha com menos que isso cede ao contexto menor
+
+    // o modelo das partidas da janela (--ai=ngram): dura a sessão, só a thread do jogo mexe
+    static final PlayerModel SESSION = new PlayerModel();
+
+    private final int[] order2 = new int[BANDS * SYMBOLS * SYMBOLS * SYMBOLS];
+    private final int[] order1 = new int[BANDS * SYMBOLS * SYMBOLS];
+    private final int[] order0 = new int[BANDS * SYMBOLS];
+
+    private int last = IDLE, beforeLast = IDLE;
+
+    static int band(int distance) {
+        return distance <= 120 ? 0 : distance <= 200 ? 1 : 2;
+    }
+
+    // symbol aconteceu agora, a distance do oponente; false se não é um evento novo
+    boolean observe(int symbol, int distance) {
+        if (symbol == last && symbol < JAB)
+            return false; // segurar a mesma direção (ou seguir parado) não conta
+        int b = band(distance);
+        learn(order2, ((b * SYMBOLS + beforeLast) * SYMBOLS + last) * SYMBOLS, symbol);
+        learn(order1, (b * SYMBOLS + last) * SYMBOLS, symbol);
+        learn(order0, b * SYMBOLS, symbol);
+        beforeLast = last;
+        last = symbol;
+        return true;
+    }
+
+    private static void learn(int[] table, int row, int symbol) {
+        for (int k = row; k < row + SYMBOLS; k++)
+            table[k] -= table[k] >> DECAY_SHIFT;
+        table[row + symbol] += INCREMENT;
+    }
+
+    // distribuição do próximo evento em out[SYMBOLS] (soma 1); devolve o mais provável
+    int predict(int distance, float[] out) {
+        int b = band(distance);
+        int[] table = order2;
+        int row = ((b * SYMBOLS + beforeLast) * SYMBOLS + last) * SYMBOLS;
+        int total = sum(table, row);
+        if (total < CONFIDENT) {
+            table = order1;
+            row = (b * SYMBOLS + last) * SYMBOLS;
+            total = sum(table, row);
+        }
+        if (total < CONFIDENT) {
+            table = order0;
+            row = b * SYMBOLS;
+            total = sum(table, row);
+        }
+        if (total == 0) {
+            Arrays.fill(out, 0f);
+            out[IDLE] = 1f;
+            return IDLE;
+        }
+        float scale = 1f / total;
+        int best = IDLE;
+        for (int k = 0; k < SYMBOLS; k++) {
+            out[k] = table[row + k] * scale;
+            if (table[row + k] > table[row + best])
+                best = k;
+        }
+        return best;
+    }
+
+    private static int sum(int[] table, int row) {
+        int s = 0;
+        for (int k = row; k < row + SYMBOLS; k++)
+            s += table[k];
+        return s;
+    }
+
+    int memoryBytes() {
+        return (order2.length + order1.length + order0.length) * Integer.BYTES;
+    }
+}
+
+// ======= OPONENTE ADAPTATIVO (--ai=ngram) =======
+// A cada tick lê o que o jogador fez no tick anterior (posição e início de golpe) e alimenta o
+// PlayerModel. A cada decisão (16/12/8 ticks no fácil/médio/difícil) prevê o próximo evento e escolhe
+// o contra-ataque: sai do alcance se ele vai bater, pune o golpe que passou, encontra com o cruzado
+// quem vem avançando e persegue quem recua. A ação vale até a próxima decisão (MctsAi.input).
+final class NgramAi implements OpponentAi {
+    private static final int[] DECISION_TICKS = { 16, 12, 8 };
+    // distância em que o golpe alcança o corpo: recuo de 10 + alcance + meia largura do corpo
+    private static final int JAB_RANGE = 10 + PunchType.JAB.reach + 15;
+    private static final int HOOK_RANGE = 10 + PunchType.HOOK.reach + 15;
+    private static final int CROSS_RANGE = 10 + PunchType.CROSS.reach + 15;
+
+    private final PlayerModel model;
+    private final int decisionTicks;
+    private final float[] prediction = new float[PlayerModel.SYMBOLS];
+
+    private int action = MctsAi.IDLE;
+    private int actionStep, ticksLeft;
+    private int predicted = -1; // previsão da última decisão, conferida no próximo evento
+
+    long predictions, correct; // acerto da previsão (bench)
+
+    NgramAi(Difficulty difficulty, PlayerModel model) {
+        this.model = model;
+        decisionTicks = DECISION_TICKS[difficulty.ordinal()];
+    }
+
+    @Override
+    public int nextInput(GameSimulation sim) {
+        if (sim.getState() != GameState.PLAYING) {
+            ticksLeft = 0;
+            return 0;
+        }
+        Fighter me = sim.getAi(), opp = sim.getPlayer();
+        int dist = Math.abs(opp.getX() - me.getX());
+        int symbol = observed(opp, me);
+        if (model.observe(symbol, dist) && predicted >= 0) {
+            predictions++;
+            if (symbol == predicted)
+                correct++;
+            predicted = -1;
+        }
+
+        if (ticksLeft == 0) {
+            predicted = model.predict(dist, prediction);
+            action = counter(sim, me, opp, dist);
+            actionStep = 0;
+            ticksLeft = decisionTicks;
+        }
+        ticksLeft--;
+        return MctsAi.input(action, actionStep++, sim);
+    }
+
+    // o que o jogador fez no último tick
+    private static int observed(Fighter opp, Fighter me) {
+        if (opp.isPunching() && opp.getPunchFrame() == 1) // tryPunch + update no mesmo tick
+            return PlayerModel.JAB + opp.getPunchType().ordinal();
+        int dx = opp.getX() - opp.getPrevX();
+        if (dx == 0)
+            return PlayerModel.IDLE;
+        return (dx > 0) == (me.getX() > opp.getX()) ? PlayerModel.TOWARD : PlayerModel.AWAY;
+    }
+
+    private int counter(GameSimulation sim, Fighter me, Fighter opp, int dist) {
+        int side = GameSimulation.SIDE_OPPONENT;
+        if (sim.isStaminaOnCooldown(side) || sim.getStamina(side) < GameSimulation.COST_JAB)
+            return dist < CROSS_RANGE + 40 ? MctsAi.BACK : MctsAi.IDLE;
+
+        // golpe dele já acertou ou está no fim: janela para punir
+        if (opp.isPunching()) {
+            if (opp.isHitRegistered() || opp.getPunchFrame() > 8)
+                return punchFor(sim, dist);
+            return dist < CROSS_RANGE ? MctsAi.BACK : MctsAi.IDLE;
+        }
+
+        float punch = prediction[PlayerModel.JAB] + prediction[PlayerModel.HOOK] + prediction[PlayerModel.CROSS];
+        if (punch > 0.5f && dist < CROSS_RANGE + 10)
+            return MctsAi.BACK; // ele vai bater: faz errar e pune depois
+        if (prediction[PlayerModel.TOWARD] >= prediction[PlayerModel.AWAY]
+                && prediction[PlayerModel.TOWARD] >= prediction[PlayerModel.IDLE])
+            return dist < CROSS_RANGE + 10 ? MctsAi.CROSS : MctsAi.IDLE; // espera e encontra no caminho
+        if (prediction[PlayerModel.AWAY] > prediction[PlayerModel.IDLE])
+            return dist < JAB_RANGE ? MctsAi.JAB : MctsAi.FORWARD;
+        return dist < CROSS_RANGE ? punchFor(sim, dist) : MctsAi.FORWARD;
+    }
+
+    // o golpe mais forte que alcança e cabe na stamina
+    private static int punchFor(GameSimulation sim, int dist) {
+        int stamina = sim.getStamina(GameSimulation.SIDE_OPPONENT);
+        if (dist < HOOK_RANGE && stamina >= GameSimulation.COST_HOOK)
+            return MctsAi.HOOK;
+        if (dist < JAB_RANGE)
+            return MctsAi.JAB;
+        if (dist < CROSS_RANGE && stamina >= GameSimulation.COST_CROSS)
+            return MctsAi.CROSS;
+        return MctsAi.FORWARD;
+    }
+}
+
+// ======= AMBIENTE EM LOTE (milhares de partidas em passo único; estado em arrays por campo) =======
+// Para treinar oponentes: o agente controla o lutador da esquerda (bits INPUT_*) contra o thinkAI,
+// com as mesmas regras e o mesmo RNG de GameSimulation (a mesma seed dá a mesma partida). Cada
+// step é um tick de PLAYING em todas as partidas: intro e pausa entre rounds são só timers e
+// são puladas. Quem termina a partida recomeça no mesmo step com a próxima seed (a observação já
+// é a da partida nova). Nenhum Fighter: cada campo é um array indexado pela partida, e cada fase
+// do tick é um laço sobre todas elas. step não aloca.
+final class BatchEnv {
+    // observação por partida (floats, do ponto de vista do agente)
+    static final int OBS_DISTANCE = 0; // x do oponente - x do agente, / largura da arena
+    static final int OBS_X = 1;
+    static final int OBS_HEALTH = 2;
+    static final int OBS_OPP_HEALTH = 3;
+    static final int OBS_STAMINA = 4;
+    static final int OBS_COOLDOWN = 5; // fração da recarga de stamina que falta
+    static final int OBS_PUNCH = 6; // andamento do próprio golpe (0 = parado)
+    static final int OBS_OPP_PUNCH = 7;
+    static final int OBS_OPP_REACH = 8; // alcance do golpe do oponente (0 = parado)
+    static final int OBS_TIME = 9; // fração do round que falta
+    static final int OBS_ROUND = 10;
+    static final int OBS_SCORE = 11; // rounds ganhos - perdidos
+    static final int OBS = 12;
+
+    // recompensa: saldo de dano do tick / vida máxima, e +-1 por round ganho/perdido
+    static final float ROUND_REWARD = 1f;
+
+    private static final int ARENA = GameSimulation.ARENA_WIDTH;
+    private static final int MIN_X = 100, MAX_X = ARENA - 100;
+    private static final int TICK = (int) GameSimulation.TICK_MS;
+    private static final int ROUND_MS = (int) GameSimulation.ROUND_MS;
+    private static final int COOLDOWN_MS = (int) GameSimulation.STAMINA_RECHARGE_COOLDOWN_MS;
+    private static final int PUNCH_FRAMES = 15; // Fighter.update: termina quando passa disso
+    private static final int BODY_HALF = 15; // metade da largura da hurtbox
+    private static final int PLAYER_SPEED = Fighter.DEFAULT_MOVE_SPEED;
+    private static final int NO_PUNCH = -1;
+    private static final int PUNCH_BITS = GameSimulation.INPUT_JAB | GameSimulation.INPUT_HOOK
+            | GameSimulation.INPUT_CROSS;
+    private static final int[] REACH = { PunchType.JAB.reach, PunchType.HOOK.reach, PunchType.CROSS.reach };
+
+    // GameRng (LCG de java.util.Random) com o estado num long por partida
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    final int size;
+    final Difficulty difficulty;
+    private final int aiSpeed, aiDamageBonus;
+    private final int[] costs; // por PunchType.ordinal()
+
+    // saída de step (e de reset), reaproveitada
+    final float[] observations;
+    final float[] rewards;
+    final boolean[] dones;
+
+    // estado por partida
+    private final long[] rng;
+    private final long[] seeds; // seed da partida atual; a próxima é Balancer.mix dela
+    private final int[] px, ax, ph, ah;
+    private final boolean[] pFacing, aFacing;
+    private final int[] pPunch, aPunch; // PunchType.ordinal() ou NO_PUNCH
+    private final int[] pFrame, aFrame;
+    private final boolean[] pHit, aHit; // golpe atual já acertou
+    private final int[] stamina, cooldownLeft; // só o agente gasta stamina contra o thinkAI
+    private final int[] timeLeft, round, pRounds, aRounds;
+    private final int[] thinkElapsed, thinkDelay;
+
+    // contadores desde a criação (bench/treino)
+    long steps, matches, agentRounds, aiRounds;
+
+    BatchEnv(int size, Difficulty difficulty) {
+        this.size = size;
+        this.difficulty = difficulty;
+        aiSpeed = difficulty.aiSpeed;
+        aiDamageBonus = difficulty.aiDamageBonus;
+        costs = new int[] { GameSimulation.COST_JAB, GameSimulation.COST_HOOK, GameSimulation.COST_CROSS };
+
+        observations = new float[size * OBS];
+        rewards = new float[size];
+        dones = new boolean[size];
+        rng = new long[size];
+        seeds = new long[size];
+        px = new int[size];
+        ax = new int[size];
+        ph = new int[size];
+        ah = new int[size];
+        pFacing = new boolean[size];
+        aFacing = new boolean[size];
+        pPunch = new int[size];
+        aPunch = new int[size];
+        pFrame = new int[size];
+        aFrame = new int[size];
+        pHit = new boolean[size];
+        aHit = new boolean[size];
+        stamina = new int[size];
+        cooldownLeft = new int[size];
+        timeLeft = new int[size];
+        round = new int[size];
+        pRounds = new int[size];
+        aRounds = new int[size];
+        thinkElapsed = new int[size];
+        thinkDelay = new int[size];
+    }
+
+    // começa uma partida nova em cada índice; seeds.length == size
+    void reset(long[] matchSeeds) {
+        if (matchSeeds.length != size)
+            throw new IllegalArgumentException("esperava " + size + " seeds, veio " + matchSeeds.length);
+        for (int i = 0; i < size; i++) {
+            startMatch(i, matchSeeds[i]);
+            rewards[i] = 0f;
+            dones[i] = false;
+            observe(i);
+        }
+    }
+
+    // actions[i]: bits INPUT_* do agente na partida i; preenche observations, rewards e dones
+    void step(int[] actions) {
+        int n = size;
+        int[] px = this.px, ax = this.ax, ph = this.ph, ah = this.ah;
+
+        // golpe e movimento do agente (GameSimulation.update: punchInput, depois os bits de direção)
+        for (int i = 0; i < n; i++) {
+            int input = actions[i];
+            int punch = input & PUNCH_BITS;
+            if (punch != 0) {
+                // o bit mais baixo vence: jab, depois gancho, depois cruzado
+                int type = Integer.numberOfTrailingZeros(punch) - Integer.numberOfTrailingZeros(GameSimulation.INPUT_JAB);
+                tryPunch(i, type, costs[type]);
+            }
+
+            // sem desvio: x já está na faixa, então clampX de um passo zero não muda nada
+            int x = clampX(px[i] - (input & GameSimulation.INPUT_LEFT) * PLAYER_SPEED);
+            px[i] = clampX(x + ((input & GameSimulation.INPUT_RIGHT) >>> 1) * PLAYER_SPEED);
+            rewards[i] = 0f;
+            dones[i] = false;
+        }
+
+        // timers: recarga de stamina, relógio do round, relógio do thinkAI
+        int[] stamina = this.stamina, cooldownLeft = this.cooldownLeft, timeLeft = this.timeLeft;
+        int[] thinkElapsed = this.thinkElapsed;
+        for (int i = 0; i < n; i++) {
+            int cd = cooldownLeft[i];
+            if (cd > 0) {
+                cd -= TICK;
+                if (cd <= 0) {
+                    cd = 0;
+                    stamina[i] = GameSimulation.MAX_STAMINA;
+                }
+                cooldownLeft[i] = cd;
+            }
+            timeLeft[i] = Math.max(0, timeLeft[i] - TICK);
+            thinkElapsed[i] += TICK;
+        }
+
+        // animação dos golpes (Fighter.update) e lado para onde cada um olha
+        advancePunch(pPunch, pFrame, pHit, n);
+        advancePunch(aPunch, aFrame, aHit, n);
+        for (int i = 0; i < n; i++) {
+            pFacing[i] = ax[i] >= px[i];
+            aFacing[i] = px[i] >= ax[i];
+        }
+
+        // thinkAI onde o relógio venceu
+        int[] thinkDelay = this.thinkDelay;
+        for (int i = 0; i < n; i++) {
+            if (thinkElapsed[i] >= thinkDelay[i]) {
+                think(i);
+                thinkElapsed[i] = 0;
+                thinkDelay[i] = randBetween(i, difficulty.thinkMinMs, difficulty.thinkMaxMs);
+            }
+        }
+
+        // golpes (agente primeiro, como checkHits(player, ai) / checkHits(ai, player))
+        for (int i = 0; i < n; i++) {
+            int dealt = 0, taken = 0;
+            if (pPunch[i] != NO_PUNCH && !pHit[i] && hits(px[i], pFacing[i], pPunch[i], ax[i])) {
+                dealt = 5 + nextInt(i, 10);
+                ah[i] = Math.max(0, ah[i] - dealt);
+                pHit[i] = true;
+            }
+            if (aPunch[i] != NO_PUNCH && !aHit[i] && hits(ax[i], aFacing[i], aPunch[i], px[i])) {
+                taken = 5 + nextInt(i, 10) + aiDamageBonus;
+                ph[i] = Math.max(0, ph[i] - taken);
+                aHit[i] = true;
+            }
+            if ((dealt | taken) != 0)
+                rewards[i] = (dealt - taken) / (float) Fighter.MAX_HEALTH;
+        }
+
+        // fim de round (KO ou tempo) e de partida; depois a observação
+        for (int i = 0; i < n; i++) {
+            if (ph[i] <= 0 || ah[i] <= 0 || timeLeft[i] == 0)
+                endRound(i);
+            observe(i);
+        }
+        steps += n;
+    }
+
+    // ======= REGRAS (as mesmas de GameSimulation/Fighter, por índice) =======
+    private void startMatch(int i, long seed) {
+        seeds[i] = seed;
+        rng[i] = (seed ^ MULTIPLIER) & MASK; // GameRng.setSeed
+        round[i] = 1;
+        pRounds[i] = 0;
+        aRounds[i] = 0;
+        startRound(i);
+    }
+
+    // startRound sem a intro: ela não consome RNG, então pular não muda a partida
+    private void startRound(int i) {
+        px[i] = 200;
+        ax[i] = 550;
+        ph[i] = Fighter.MAX_HEALTH;
+        ah[i] = Fighter.MAX_HEALTH;
+        pFacing[i] = true;
+        aFacing[i] = true;
+        pPunch[i] = NO_PUNCH;
+        aPunch[i] = NO_PUNCH;
+        pFrame[i] = 0;
+        aFrame[i] = 0;
+        pHit[i] = false;
+        aHit[i] = false;
+        stamina[i] = GameSimulation.MAX_STAMINA;
+        cooldownLeft[i] = 0;
+        timeLeft[i] = ROUND_MS;
+        thinkElapsed[i] = 0;
+        thinkDelay[i] = randBetween(i, difficulty.thinkMinMs, difficulty.thinkMaxMs);
+    }
+
+    // awardRoundByHealth cobre também o KO: quem caiu tem vida 0
+    private void endRound(int i) {
+        int cmp = Integer.compare(ph[i], ah[i]);
+        if (cmp > 0) {
+            pRounds[i]++;
+            agentRounds++;
+            rewards[i] += ROUND_REWARD;
+        } else if (cmp < 0) {
+            aRounds[i]++;
+            aiRounds++;
+            rewards[i] -= ROUND_REWARD;
+        }
+        boolean over = round[i] >= GameSimulation.ROUNDS_TOTAL
+                || pRounds[i] >= GameSimulation.ROUNDS_TO_WIN || aRounds[i] >= GameSimulation.ROUNDS_TO_WIN;
+        if (over) {
+            dones[i] = true;
+            matches++;
+            startMatch(i, Balancer.mix(seeds[i]));
+        } else {
+            round[i]++; // updateRoundEnd, sem a pausa de ROUND_END_HOLD_MS
+            startRound(i);
+        }
+    }
+
+    private void tryPunch(int i, int type, int cost) {
+        if (cooldownLeft[i] > 0 || pPunch[i] != NO_PUNCH)
+            return;
+        int s = stamina[i];
+        if (s < cost) {
+            if (s <= 0)
+                cooldownLeft[i] = COOLDOWN_MS;
+            return;
+        }
+        s -= cost;
+        if (s <= 0) {
+            s = 0;
+            cooldownLeft[i] = COOLDOWN_MS;
+        }
+        stamina[i] = s;
+        pPunch[i] = type;
+        pFrame[i] = 0;
+    }
+
+    private static void advancePunch(int[] punch, int[] frame, boolean[] hit, int n) {
+        for (int i = 0; i < n; i++) {
+            if (punch[i] != NO_PUNCH && ++frame[i] > PUNCH_FRAMES) {
+                punch[i] = NO_PUNCH;
+                frame[i] = 0;
+                hit[i] = false;
+            }
+        }
+    }
+
+    private void think(int i) {
+        int dist = px[i] - ax[i];
+        int abs = Math.abs(dist);
+        int toward = dist > 0 ? +1 : -1;
+        if (abs > 200) {
+            moveAi(i, toward);
+        } else if (abs > 120) {
+            if (nextDouble(i) < difficulty.attackChanceMid)
+                punchAi(i, nextInt(i, 3));
+            else
+                moveAi(i, nextBoolean(i) ? toward : -toward);
+        } else {
+            if (nextDouble(i) < difficulty.attackChanceClose)
+                punchAi(i, nextInt(i, 3));
+            else
+                moveAi(i, -toward);
+        }
+    }
+
+    private void moveAi(int i, int dir) {
+        ax[i] = clampX(ax[i] + dir * aiSpeed);
+    }
+
+    private void punchAi(int i, int type) {
+        if (aPunch[i] == NO_PUNCH) {
+            aPunch[i] = type;
+            aFrame[i] = 0;
+        }
+    }
+
+    // Fighter.getHitBox x getHurtBox: os dois estão no chão, então a faixa vertical do golpe
+    // sempre cruza o corpo e só o eixo x decide
+    private static boolean hits(int x, boolean facingRight, int type, int defenderX) {
+        int reach = REACH[type];
+        int left = facingRight ? x + 10 : x - 10 - reach;
+        return left < defenderX + BODY_HALF && defenderX - BODY_HALF < left + reach;
+    }
+
+    private static int clampX(int x) {
+        return Math.max(MIN_X, Math.min(MAX_X, x));
+    }
+
+    // escalas das observações (multiplicar em vez de dividir no laço)
+    private static final float PER_ARENA = 1f / ARENA;
+    private static final float PER_HEALTH = 1f / Fighter.MAX_HEALTH;
+    private static final float PER_STAMINA = 1f / GameSimulation.MAX_STAMINA;
+    private static final float PER_COOLDOWN = 1f / COOLDOWN_MS;
+    private static final float PER_FRAME = 1f / (PUNCH_FRAMES + 1);
+    private static final float PER_ROUND_MS = 1f / ROUND_MS;
+    private static final float PER_ROUND = 1f / GameSimulation.ROUNDS_TOTAL;
+    private static final float PER_SCORE = 1f / GameSimulation.ROUNDS_TO_WIN;
+    private static final float[] REACH_OBS = { REACH[0] / (float) PunchType.CROSS.reach,
+            REACH[1] / (float) PunchType.CROSS.reach, REACH[2] / (float) PunchType.CROSS.reach };
+
+    private void observe(int i) {
+        int o = i * OBS;
+        float[] obs = observations;
+        int aPunch = this.aPunch[i];
+        obs[o + OBS_DISTANCE] = (ax[i] - px[i]) * PER_ARENA;
+        obs[o + OBS_X] = px[i] * PER_ARENA;
+        obs[o + OBS_HEALTH] = ph[i] * PER_HEALTH;
+        obs[o + OBS_OPP_HEALTH] = ah[i] * PER_HEALTH;
+        obs[o + OBS_STAMINA] = stamina[i] * PER_STAMINA;
+        obs[o + OBS_COOLDOWN] = cooldownLeft[i] * PER_COOLDOWN;
+        obs[o + OBS_PUNCH] = pPunch[i] == NO_PUNCH ? 0f : (pFrame[i] + 1) * PER_FRAME;
+        obs[o + OBS_OPP_PUNCH] = aPunch == NO_PUNCH ? 0f : (aFrame[i] + 1) * PER_FRAME;
+        obs[o + OBS_OPP_REACH] = aPunch == NO_PUNCH ? 0f : REACH_OBS[aPunch];
+        obs[o + OBS_TIME] = timeLeft[i] * PER_ROUND_MS;
+        obs[o + OBS_ROUND] = round[i] * PER_ROUND;
+        obs[o + OBS_SCORE] = (pRounds[i] - aRounds[i]) * PER_SCORE;
+    }
+
+    // ======= RNG (mesmas contas de java.util.Random sobre rng[i]) =======
+    private int next(int i, int bits) {
+        long s = (rng[i] * MULTIPLIER + ADDEND) & MASK;
+        rng[i] = s;
+        return (int) (s >>> (48 - bits));
+    }
+
+    private int nextInt(int i, int bound) {
+        int r = next(i, 31);
+        int m = bound - 1;
+        if ((bound & m) == 0)
+            return (int) ((bound * (long) r) >> 31);
+        for (int u = r; u - (r = u % bound) + m < 0; u = next(i, 31))
+            ;
+        return r;
+    }
+
+    private double nextDouble(int i) {
+        return (((long) next(i, 26) << 27) + next(i, 27)) * 0x1.0p-53;
+    }
+
+    private boolean nextBoolean(int i) {
+        return next(i, 1) != 0;
+    }
+
+    private int randBetween(int i, int a, int b) {
+        return a + nextInt(i, Math.max(1, b - a + 1));
+    }
+
+    // ======= LEITURA (conferência contra GameSimulation) =======
+    int playerX(int i) {
+        return px[i];
+    }
+
+    int aiX(int i) {
+        return ax[i];
+    }
+
+    int playerHealth(int i) {
+        return ph[i];
+    }
+
+    int aiHealth(int i) {
+        return ah[i];
+    }
+
+    int stamina(int i) {
+        return stamina[i];
+    }
+
+    int round(int i) {
+        return round[i];
+    }
+
+    int playerRoundsWon(int i) {
+        return pRounds[i];
+    }
+
+    int aiRoundsWon(int i) {
+        return aRounds[i];
+    }
+
+    long rngState(int i) {
+        return rng[i];
+    }
+}
+
+// ======= BENCHMARK DO AMBIENTE EM LOTE (passos/s em todos os núcleos; conferência com a simulação) =======
+// java BoxingGame --env-bench [partidas por lote] [segundos] [threads]
+// Primeiro confere, passo a passo, algumas partidas do lote contra GameSimulation com as mesmas seeds
+// e as mesmas ações; depois cada thread roda o seu BatchEnv com ações aleatórias pré-sorteadas.
+final class EnvBench {
+    private static final int VERIFY_MATCHES = 64;
+    private static final int VERIFY_STEPS = 20_000;
+    private static final int ACTION_TABLE = 1 << 16; // ações sorteadas uma vez, lidas em rodízio
+    private static final int WARMUP_STEPS = (int) (GameSimulation.ROUNDS_TOTAL * GameSimulation.ROUND_MS
+            / GameSimulation.TICK_MS) + 1000;
+
+    private EnvBench() {
+    }
+
+    static void main(String[] args) {
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        for (Difficulty d : Difficulty.values())
+            verify(d);
+
+        int[] table = actionTable(new Random(1));
+        BatchEnv[] envs = new BatchEnv[threads];
+        long[] allocated = new long[threads];
+        long[] stepNs = new long[threads];
+        Thread[] workers = new Thread[threads];
+        long duration = seconds * 1_000_000_000L;
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            envs[t] = new BatchEnv(size, Difficulty.MEDIUM);
+            workers[t] = new Thread(() -> run(envs[id], table, id, duration, allocated, stepNs), "env-bench-" + t);
+            workers[t].start();
+        }
+        long steps = 0, matches = 0, agentRounds = 0, aiRounds = 0, bytes = 0;
+        for (int t = 0; t < threads; t++) {
+            try {
+                workers[t].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            steps += envs[t].steps;
+            matches += envs[t].matches;
+            agentRounds += envs[t].agentRounds;
+            aiRounds += envs[t].aiRounds;
+            bytes += allocated[t];
+        }
+        double secs = seconds;
+        System.out.printf("%d thread(s) x %d partidas (MEDIUM, ações aleatórias): %.1f M passos/s "
+                + "(%.1f M por thread), %.0f partidas/s, rounds agente/IA %d/%d%n", threads, size,
+                steps / secs / 1e6, steps / secs / 1e6 / threads, matches / secs, agentRounds, aiRounds);
+        System.out.printf("step(%d): %.1f ns por passo de partida, %d bytes alocados em todos os steps medidos%n",
+                size, stepNs[0] / (double) Math.max(1, envs[0].steps), bytes);
+    }
+
+    private static void run(BatchEnv env, int[] table, int id, long duration, long[] allocated, long[] stepNs) {
+        int n = env.size;
+        long[] seeds = new long[n];
+        for (int i = 0; i < n; i++)
+            seeds[i] = Balancer.mix(id * 0x9E3779B97F4A7C15L + i);
+        env.reset(seeds);
+        int[] actions = new int[n];
+        int cursor = 0;
+
+        // o mesmo laço aquece e mede: uma partida inteira por tempo passa por todos os caminhos do
+        // step antes de zerar as contas, e o JIT não recompila (nem aloca) durante a medida
+        long bytes = 0, ns = 0, baseline = AllocationCheck.baseline();
+        long deadline = Long.MAX_VALUE;
+        for (long s = 0; System.nanoTime() < deadline; s++) {
+            if (s == WARMUP_STEPS) {
+                env.steps = env.matches = env.agentRounds = env.aiRounds = 0;
+                bytes = ns = 0;
+                deadline = System.nanoTime() + duration;
+            }
+            cursor = fill(actions, table, cursor);
+            long a = Bench.allocatedBytes();
+            long t0 = System.nanoTime();
+            env.step(actions);
+            ns += System.nanoTime() - t0;
+            bytes += Bench.allocatedBytes() - a - baseline;
+        }
+        allocated[id] = Math.max(0, bytes);
+        stepNs[id] = ns;
+    }
+
+    private static int fill(int[] actions, int[] table, int cursor) {
+        int n = actions.length;
+        if (cursor + n > table.length)
+            cursor = 0;
+        System.arraycopy(table, cursor, actions, 0, n);
+        return cursor + n;
+    }
+
+    // um passo do agente: direção e, de vez em quando, um golpe
+    private static int[] actionTable(Random random) {
+        int[] table = new int[ACTION_TABLE];
+        for (int i = 0; i < table.length; i++) {
+            int a = switch (random.nextInt(3)) {
+                case 0 -> GameSimulation.INPUT_LEFT;
+                case 1 -> GameSimulation.INPUT_RIGHT;
+                default -> 0;
+            };
+            if (random.nextInt(8) == 0)
+                a |= switch (random.nextInt(3)) {
+                    case 0 -> GameSimulation.INPUT_JAB;
+                    case 1 -> GameSimulation.INPUT_HOOK;
+                    default -> GameSimulation.INPUT_CROSS;
+                };
+            table[i] = a;
+        }
+        return table;
+    }
+
+    // mesmas seeds e ações nas duas implementações; GameSimulation anda pelos ticks de intro e
+    // pausa até o próximo PLAYING, que o lote pula
+    private static void verify(Difficulty d) {
+        BatchEnv env = new BatchEnv(VERIFY_MATCHES, d);
+        long[] seeds = new long[VERIFY_MATCHES];
+        GameSimulation[] sims = new GameSimulation[VERIFY_MATCHES];
+        for (int i = 0; i < VERIFY_MATCHES; i++) {
+            seeds[i] = 7000L * d.ordinal() + i;
+            sims[i] = new GameSimulation(d, new GameRng(seeds[i]));
+            sims[i].startMatch();
+            toPlaying(sims[i]);
+        }
+        env.reset(seeds);
+
+        Random random = new Random(d.ordinal());
+        int[] table = actionTable(random);
+        int[] actions = new int[VERIFY_MATCHES];
+        int cursor = 0;
+        for (int s = 0; s < VERIFY_STEPS; s++) {
+            cursor = fill(actions, table, cursor);
+            env.step(actions);
+            for (int i = 0; i < VERIFY_MATCHES; i++) {
+                GameSimulation sim = sims[i];
+                sim.tick(actions[i]);
+                if (sim.isOver()) {
+                    if (!env.dones[i])
+                        fail(d, s, i, "a simulação terminou e o lote não");
+                    seeds[i] = Balancer.mix(seeds[i]);
+                    sim = sims[i] = new GameSimulation(d, new GameRng(seeds[i]));
+                    sim.startMatch();
+                } else if (env.dones[i]) {
+                    fail(d, s, i, "o lote terminou e a simulação não");
+                }
+                toPlaying(sim);
+                if (sim.getPlayer().getX() != env.playerX(i) || sim.getAi().getX() != env.aiX(i)
+                        || sim.getPlayer().getHealth() != env.playerHealth(i)
+                        || sim.getAi().getHealth() != env.aiHealth(i)
+                        || sim.getStamina(GameSimulation.SIDE_PLAYER) != env.stamina(i)
+                        || sim.getCurrentRound() != env.round(i)
+                        || sim.getPlayerRoundsWon() != env.playerRoundsWon(i)
+                        || sim.getAiRoundsWon() != env.aiRoundsWon(i)
+                        || sim.getRngState() != env.rngState(i))
+                    fail(d, s, i, "estado diferente");
+            }
+        }
+        System.out.printf("%-6s | conferido contra GameSimulation: %d partidas x %d passos iguais (%d partidas completas)%n",
+                d, VERIFY_MATCHES, VERIFY_STEPS, env.matches);
+    }
+
+    private static void toPlaying(GameSimulation sim) {
+        while (sim.getState() == GameState.ROUND_INTRO || sim.getState() == GameState.ROUND_END)
+            sim.tick(0);
+    }
+
+    private static void fail(Difficulty d, int step, int match, String what) {
+        System.out.printf("FALHOU (%s): passo %d, partida %d: %s%n", d, step, match, what);
+        System.exit(1);
+    }
+}
+
+// ======= JOGADOR SCRIPTADO (partidas headless) =======
+// Mantém distância enquanto a stamina recarrega; fora disso, entra no alcance,
+// bate com o golpe que alcança e sai quando o oponente ataca.
+final class ScriptedPlayer {
+    private final Random random;
+    private final int side; // GameSimulation.SIDE_*: qual lutador controla (o da direita só no versus)
+
+    ScriptedPlayer(Random random) {
+        this(random, GameSimulation.SIDE_PLAYER);
+    }
+
+    ScriptedPlayer(Random random, int side) {
+        this.random = random;
+        this.side = side;
+    }
+
+    int nextInput(GameSimulation sim) {
+        if (sim.getState() != GameState.PLAYING)
+            return 0;
+
+        boolean left = side == GameSimulation.SIDE_PLAYER;
+        Fighter me = left ? sim.getPlayer() : sim.getAi();
+        Fighter opp = left ? sim.getAi() : sim.getPlayer();
+        int dist = opp.getX() - me.getX();
+        int abs = Math.abs(dist);
+        int toward = dist > 0 ? GameSimulation.INPUT_RIGHT : GameSimulation.INPUT_LEFT;
+        int away = dist > 0 ? GameSimulation.INPUT_LEFT : GameSimulation.INPUT_RIGHT;
+
+        if (sim.isStaminaOnCooldown(side))
+            return abs < 220 ? away : 0;
+
+        if (abs > 80)
+            return toward;
+
+        if (!me.isPunching() && random.nextInt(4) == 0) {
+            // gancho só alcança de perto
+            if (abs <= 60 && random.nextBoolean())
+                return GameSimulation.INPUT_HOOK;
+            return random.nextBoolean() ? GameSimulation.INPUT_JAB : GameSimulation.INPUT_CROSS;
+        }
+
+        if (opp.isPunching())
+            return away;
+        return 0;
+    }
+
+    // joga uma partida inteira e devolve o número de ticks
+    static long playMatch(GameSimulation sim, ScriptedPlayer script) {
+        sim.startMatch();
+        while (!sim.isOver())
+            sim.tick(script.nextInput(sim));
+        return sim.getTicks();
+    }
+}
+
+// ======= BALANCEAMENTO (Monte Carlo em paralelo) =======
+// java BoxingGame --balance [partidas por preset] [seed] [custoJab custoHook custoCross]
+// Cada partida tem seed derivada de (seed, preset, índice), então o resultado
+// é o mesmo em qualquer número de núcleos e em qualquer ordem de execução.
+final class Balancer {
+    private static final int SEQUENTIAL_THRESHOLD = 1024;
+    static final int DAMAGE_BUCKET = 10;
+    static final int DAMAGE_BUCKETS = 60; // 0..590+ de dano por partida
+
+    // acumulador por preset (só somas inteiras: o merge não depende da ordem)
+    static final class Stats {
+        long matches, playerWins, aiWins, draws;
+        long rounds, koRounds;
+        long roundMsSum, roundMsSqSum;
+        long playerDamageSum, playerDamageSqSum, aiDamageSum, aiDamageSqSum;
+        final long[] playerDamageHist = new long[DAMAGE_BUCKETS];
+        final long[] aiDamageHist = new long[DAMAGE_BUCKETS];
+
+        void merge(Stats o) {
+            matches += o.matches;
+            playerWins += o.playerWins;
+            aiWins += o.aiWins;
+            draws += o.draws;
+            rounds += o.rounds;
+            koRounds += o.koRounds;
+            roundMsSum += o.roundMsSum;
+            roundMsSqSum += o.roundMsSqSum;
+            playerDamageSum += o.playerDamageSum;
+            playerDamageSqSum += o.playerDamageSqSum;
+            aiDamageSum += o.aiDamageSum;
+            aiDamageSqSum += o.aiDamageSqSum;
+            for (int i = 0; i < DAMAGE_BUCKETS; i++) {
+                playerDamageHist[i] += o.playerDamageHist[i];
+                aiDamageHist[i] += o.aiDamageHist[i];
+            }
+        }
+    }
+
+    // coleta os eventos de uma partida
+    private static final class MatchProbe implements GameSimulation.Listener {
+        final Stats stats;
+        int playerDamage, aiDamage;
+
+        MatchProbe(Stats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public void onHit(Fighter attacker, Fighter defender, PunchType type, int damage) {
+            if (attacker.isPlayer())
+                playerDamage += damage;
+            else
+                aiDamage += damage;
+        }
+
+        @Override
+        public void onRoundEnd(int round, int winner, boolean ko, long roundElapsedMs) {
+            stats.rounds++;
+            if (ko)
+                stats.koRounds++;
+            stats.roundMsSum += roundElapsedMs;
+            stats.roundMsSqSum += roundElapsedMs * roundElapsedMs;
+        }
+    }
+
+    private final Difficulty difficulty;
+    private final long seed;
+    private final int[] costs;
+
+    Balancer(Difficulty difficulty, long seed, int[] costs) {
+        this.difficulty = difficulty;
+        this.seed = seed;
+        this.costs = costs;
+    }
+
+    Stats run(ForkJoinPool pool, int matches) {
+        return pool.invoke(new Slice(0, matches));
+    }
+
+    private final class Slice extends RecursiveTask<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        Slice(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Stats compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                Stats stats = new Stats();
+                for (int i = from; i < to; i++)
+                    playOne(i, stats);
+                return stats;
+            }
+            int mid = (from + to) >>> 1;
+            Slice left = new Slice(from, mid);
+            left.fork();
+            Stats right = new Slice(mid, to).compute();
+            right.merge(left.join());
+            return right;
+        }
+    }
+
+    private void playOne(int index, Stats stats) {
+        long matchSeed = mix(seed ^ mix(difficulty.ordinal() + 1L) ^ mix(index * 0x9E3779B97F4A7C15L));
+        GameSimulation sim = new GameSimulation(difficulty, new GameRng(matchSeed));
+        if (costs != null)
+            sim.setStaminaCosts(costs[0], costs[1], costs[2]);
+        MatchProbe probe = new MatchProbe(stats);
+        sim.setListener(probe);
+
+        ScriptedPlayer.playMatch(sim, new ScriptedPlayer(new Random(mix(matchSeed))));
+
+        stats.matches++;
+        int pr = sim.getPlayerRoundsWon(), ar = sim.getAiRoundsWon();
+        if (pr > ar)
+            stats.playerWins++;
+        else if (ar > pr)
+            stats.aiWins++;
+        else
+            stats.draws++;
+
+        stats.playerDamageSum += probe.playerDamage;
+        stats.playerDamageSqSum += (long) probe.playerDamage * probe.playerDamage;
+        stats.aiDamageSum += probe.aiDamage;
+        stats.aiDamageSqSum += (long) probe.aiDamage * probe.aiDamage;
+        stats.playerDamageHist[Math.min(DAMAGE_BUCKETS - 1, probe.playerDamage / DAMAGE_BUCKET)]++;
+        stats.aiDamageHist[Math.min(DAMAGE_BUCKETS - 1, probe.aiDamage / DAMAGE_BUCKET)]++;
+    }
+
+    // finalizador do SplitMix64
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // ======= RELATÓRIO =======
+    static void main(String[] args) {
+        int matches = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42L;
+        int[] costs = null;
+        if (args.length > 5)
+            costs = new int[] { Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]) };
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        System.out.printf("Balanceamento: %d partidas por preset, seed %d, %d threads, custos %s%n",
+                matches, seed, pool.getParallelism(),
+                costs == null ? "padrão" : costs[0] + "/" + costs[1] + "/" + costs[2]);
+
+        long total = System.nanoTime();
+        for (Difficulty d : Difficulty.values()) {
+            long t0 = System.nanoTime();
+            Stats st = new Balancer(d, seed, costs).run(pool, matches);
+            double secs = (System.nanoTime() - t0) / 1e9;
+            report(d, st, secs);
+        }
+        System.out.printf("Total: %.1f s%n", (System.nanoTime() - total) / 1e9);
+    }
+
+    private static void report(Difficulty d, Stats st, double secs) {
+        System.out.printf("%n== %s (%d partidas, %.1f s, %.0f partidas/s) ==%n", d, st.matches, secs, st.matches / secs);
+        printRate("Vitória jogador", st.playerWins, st.matches);
+        printRate("Vitória IA", st.aiWins, st.matches);
+        printRate("Empate", st.draws, st.matches);
+        printRate("Rounds por KO", st.koRounds, st.rounds);
+        printMean("Duração do round (s)", st.roundMsSum / 1000.0, st.roundMsSqSum / 1e6, st.rounds);
+        printMean("Dano do jogador/partida", st.playerDamageSum, st.playerDamageSqSum, st.matches);
+        printPercentiles(st.playerDamageHist, st.matches);
+        printMean("Dano da IA/partida", st.aiDamageSum, st.aiDamageSqSum, st.matches);
+        printPercentiles(st.aiDamageHist, st.matches);
+    }
+
+    // proporção com intervalo de Wilson (95%)
+    private static void printRate(String label, long k, long n) {
+        if (n == 0)
+            return;
+        double z = 1.96, p = k / (double) n;
+        double den = 1 + z * z / n;
+        double center = (p + z * z / (2.0 * n)) / den;
+        double half = z * Math.sqrt(p * (1 - p) / n + z * z / (4.0 * n * n)) / den;
+        System.out.printf("  %-26s %6.2f%%  [%.2f%%, %.2f%%]%n", label, 100 * p, 100 * (center - half), 100 * (center + half));
+    }
+
+    // média com intervalo normal (95%)
+    private static void printMean(String label, double sum, double sqSum, long n) {
+        if (n == 0)
+            return;
+        double mean = sum / n;
+        double var = Math.max(0, sqSum / n - mean * mean);
+        double half = 1.96 * Math.sqrt(var / n);
+        System.out.printf("  %-26s %8.2f  ±%.2f  (dp %.2f)%n", label, mean, half, Math.sqrt(var));
+    }
+
+    private static void printPercentiles(long[] hist, long n) {
+        System.out.printf("  %-26s p10 %d  p50 %d  p90 %d  p99 %d%n", "",
+                percentile(hist, n, 0.10), percentile(hist, n, 0.50), percentile(hist, n, 0.90), percentile(hist, n, 0.99));
+    }
+
+    private static int percentile(long[] hist, long n, double q) {
+        long target = (long) Math.ceil(q * n);
+        long acc = 0;
+        for (int i = 0; i < hist.length; i++) {
+            acc += hist[i];
+            if (acc >= target)
+                return i * DAMAGE_BUCKET;
+        }
+        return (hist.length - 1) * DAMAGE_BUCKET;
+    }
+}
+
+// ======= BENCHMARKS (caminhos quentes do tick e do render) =======
+// java BoxingGame --bench [filtro] [--save=arquivo] [--compare=arquivo]
+// Aquecimento + medição em iterações de tempo fixo, no estilo do JMH. A alocação
+// por operação vem do contador de bytes alocados da própria thread (o mesmo dado
+// que o perfilador de GC do JMH mostra como gc.alloc.rate.norm).
+final class Bench {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 10;
+    private static final long ITERATION_NS = 200_000_000L;
+    private static final double SLOWDOWN_TOLERANCE = 1.10; // +10% conta como regressão
+    private static final double T_999 = 3.29; // ~99.9% (intervalo de erro do JMH)
+
+    private static volatile long sink; // impede que o JIT descarte o resultado
+
+    interface Op {
+        long run();
+    }
+
+    static final class Result {
+        final String name;
+        final double nsPerOp, errorNs, bytesPerOp, allocMBs;
+
+        Result(String name, double nsPerOp, double errorNs, double bytesPerOp, double allocMBs) {
+            this.name = name;
+            this.nsPerOp = nsPerOp;
+            this.errorNs = errorNs;
+            this.bytesPerOp = bytesPerOp;
+            this.allocMBs = allocMBs;
+        }
+    }
+
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static Result measure(String name, Op op) {
+        // calibra um lote que leve ~1 ms, para o custo de ler o relógio não pesar
+        int batch = 1;
+        while (true) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < batch; i++)
+                sink += op.run();
+            if (System.nanoTime() - t0 > 1_000_000L || batch >= (1 << 24))
+                break;
+            batch *= 2;
+        }
+
+        double[] nsPerOp = new double[MEASURE_ITERATIONS];
+        double bytes = 0, allocSecs = 0;
+        long allocTotal = 0;
+        for (int it = -WARMUP_ITERATIONS; it < MEASURE_ITERATIONS; it++) {
+            long ops = 0;
+            long a0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            long t1;
+            do {
+                for (int i = 0; i < batch; i++)
+                    sink += op.run();
+                ops += batch;
+                t1 = System.nanoTime();
+            } while (t1 - t0 < ITERATION_NS);
+            long a1 = allocatedBytes();
+
+            if (it >= 0) {
+                nsPerOp[it] = (t1 - t0) / (double) ops;
+                bytes += (a1 - a0) / (double) ops;
+                allocTotal += a1 - a0;
+                allocSecs += (t1 - t0) / 1e9;
+            }
+        }
+
+        double mean = 0;
+        for (double v : nsPerOp)
+            mean += v;
+        mean /= MEASURE_ITERATIONS;
+        double var = 0;
+        for (double v : nsPerOp)
+            var += (v - mean) * (v - mean);
+        double sd = Math.sqrt(var / (MEASURE_ITERATIONS - 1));
+
+        return new Result(name, mean, T_999 * sd / Math.sqrt(MEASURE_ITERATIONS),
+                bytes / MEASURE_ITERATIONS, allocTotal / allocSecs / (1024 * 1024));
+    }
+
+    // ======= FIXTURES =======
+    private static GameSimulation simIn(GameState target, long seed) {
+        GameSimulation sim = new GameSimulation(Difficulty.MEDIUM, new GameRng(seed));
+        ScriptedPlayer script = new ScriptedPlayer(new Random(seed + 1));
+        sim.startMatch();
+        while (sim.getState() != target && !sim.isOver())
+            sim.tick(script.nextInput(sim));
+        return sim;
+    }
+
+    private static ParticleSystem liveParticles(int n, Random random) {
+        ParticleSystem system = new ParticleSystem(n);
+        system.spawnBurst(400, 300, n, random);
+        return system;
+    }
+
+    private static final List<String> names = new ArrayList<>();
+    private static final List<Op> ops = new ArrayList<>();
+
+    private static void add(String name, Op op) {
+        names.add(name);
+        ops.add(op);
+    }
+
+    private static void registerAll() {
+        // tick completo em PLAYING (partida reinicia quando acaba)
+        GameSimulation tickSim = simIn(GameState.PLAYING, 1);
+        ScriptedPlayer tickScript = new ScriptedPlayer(new Random(2));
+        add("sim.tick", () -> {
+            if (tickSim.isOver())
+                tickSim.startMatch();
+            tickSim.tick(tickScript.nextInput(tickSim));
+            return tickSim.getPlayer().getX();
+        });
+
+        // o mesmo tick com o oponente adaptativo (--ai=ngram) no lugar do thinkAI: modelo + contra-ataque
+        GameSimulation ngramSim = new GameSimulation(Difficulty.MEDIUM, new GameRng(1));
+        ngramSim.setExternalOpponent(true);
+        ngramSim.startMatch();
+        ScriptedPlayer ngramScript = new ScriptedPlayer(new Random(2));
+        NgramAi ngram = new NgramAi(Difficulty.MEDIUM, new PlayerModel());
+        // partidas inteiras antes de medir: o perfil do JIT já vê os dois caminhos do tick (thinkAI e
+        // oponente de fora), senão os dois ops se desotimizam um ao outro no meio da medida
+        for (int m = 0; m < 20; m++) {
+            do
+                ngramSim.tick(ngramScript.nextInput(ngramSim), ngram.nextInput(ngramSim));
+            while (!ngramSim.isOver());
+            ngramSim.startMatch();
+        }
+        add("sim.tick/ngram", () -> {
+            if (ngramSim.isOver())
+                ngramSim.startMatch();
+            ngramSim.tick(ngramScript.nextInput(ngramSim), ngram.nextInput(ngramSim));
+            return ngramSim.getAi().getX();
+        });
+
+        // colisão: atacante socando fora do alcance (caminho comum: calcula as duas caixas e erra)
+        GameSimulation hitSim = simIn(GameState.PLAYING, 3);
+        hitSim.getPlayer().setX(200);
+        hitSim.getAi().setX(550);
+        hitSim.getPlayer().punch(PunchType.CROSS);
+        add("sim.checkHits", () -> {
+            hitSim.checkHits(hitSim.getPlayer(), hitSim.getAi());
+            hitSim.checkHits(hitSim.getAi(), hitSim.getPlayer());
+            return hitSim.getAi().getHealth();
+        });
+
+        // IA: alterna entre as três faixas de distância
+        GameSimulation aiSim = simIn(GameState.PLAYING, 4);
+        int[] band = { 0 };
+        int[] aiX = { 500, 360, 280 }; // longe, meio, perto do jogador em 200
+        add("sim.thinkAI", () -> {
+            aiSim.getPlayer().setX(200);
+            aiSim.getAi().setX(aiX[band[0]]);
+            band[0] = (band[0] + 1) % aiX.length;
+            aiSim.thinkAI();
+            return aiSim.getAi().getX();
+        });
+
+        // snapshot: estado completo da partida num buffer reaproveitado (heap e direto)
+        GameSimulation snapSim = simIn(GameState.PLAYING, 5);
+        GameSimulation snapTarget = new GameSimulation(Difficulty.MEDIUM, new GameRng(0));
+        ByteBuffer heap = ByteBuffer.allocate(MatchSnapshot.SIZE);
+        ByteBuffer direct = ByteBuffer.allocateDirect(MatchSnapshot.SIZE);
+        MatchSnapshot.write(snapSim, 0, heap, 0);
+        MatchSnapshot.write(snapSim, 0, direct, 0);
+        add("snapshot.write/heap", () -> {
+            MatchSnapshot.write(snapSim, 0, heap, 0);
+            return heap.getLong(MatchSnapshot.TICKS);
+        });
+        add("snapshot.read/heap", () -> {
+            MatchSnapshot.read(heap, 0, snapTarget);
+            return snapTarget.getTicks();
+        });
+        add("snapshot.write/direct", () -> {
+            MatchSnapshot.write(snapSim, 0, direct, 0);
+            return direct.getLong(MatchSnapshot.TICKS);
+        });
+        add("snapshot.read/direct", () -> {
+            MatchSnapshot.read(direct, 0, snapTarget);
+            return snapTarget.getTicks();
+        });
+
+        // partículas: mantém N vivas, repondo as que morrem (como nos golpes)
+        for (int n : new int[] { 15, 150, 1500, 4000 }) {
+            Random pr = new Random(5);
+            ParticleSystem system = liveParticles(n, pr);
+            add("particles.update/" + n, () -> {
+                system.beginTick();
+                system.update();
+                system.spawnBurst(400, 300, n - system.size(), pr);
+                return system.size();
+            });
+        }
+
+        // render completo num BufferedImage, um por GameState
+        BufferedImage img = new BufferedImage(GameRenderer.WIDTH, GameRenderer.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        GameRenderer renderer = new GameRenderer(new Random(6));
+        ParticleSystem hitParticles = liveParticles(15, new Random(7));
+        ParticleSystem noParticles = new ParticleSystem();
+        for (GameState st : GameState.values()) {
+            RenderFrame f = new RenderFrame();
+            GameSimulation sim = switch (st) {
+                case MENU, HOW_TO_PLAY, SETUP -> null;
+                case PAUSED -> simIn(GameState.PLAYING, 8);
+                default -> simIn(st, 8);
+            };
+            f.capture(st, 1, 1, Difficulty.MEDIUM, sim, st == GameState.PLAYING ? hitParticles : noParticles);
+            add("render/" + st, () -> {
+                renderer.render(g, f, 0.5f);
+                return img.getRGB(400, 300);
+            });
+        }
+
+        // vitória: partida acabada com a tela cheia de confete
+        RenderFrame confetti = new RenderFrame();
+        ParticleSystem confettiParticles = new ParticleSystem();
+        confettiParticles.spawnConfetti(3000, GameRenderer.WIDTH, new Random(9));
+        for (int i = 0; i < 60; i++) {
+            confettiParticles.beginTick();
+            confettiParticles.update();
+        }
+        confetti.capture(GameState.GAME_OVER, 1, 1, Difficulty.MEDIUM, simIn(GameState.GAME_OVER, 8),
+                confettiParticles);
+        add("render/GAME_OVER+confetti", () -> {
+            renderer.render(g, confetti, 0.5f);
+            return img.getRGB(400, 300);
+        });
+    }
+
+    // ======= MAIN =======
+    static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        Pattern filter = null; // casa em qualquer parte do nome: "sim|snapshot", "^render/"
+        Path save = null, compare = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--save="))
+                save = Paths.get(args[i].substring("--save=".length()));
+            else if (args[i].startsWith("--compare="))
+                compare = Paths.get(args[i].substring("--compare=".length()));
+            else {
+                try {
+                    filter = Pattern.compile(args[i]);
+                } catch (PatternSyntaxException e) {
+                    System.err.println("Filtro inválido (expressão regular): " + e.getDescription());
+                    System.exit(1);
+                }
+            }
+        }
+
+        registerAll();
+
+        System.out.printf("%-26s %5s %12s %10s  %-6s %12s %12s%n",
+                "Benchmark", "Cnt", "Score", "Error", "Units", "alloc B/op", "alloc MB/s");
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            if (filter != null && !filter.matcher(names.get(i)).find())
+                continue;
+            Result r = measure(names.get(i), ops.get(i));
+            results.add(r);
+            System.out.printf("%-26s %5d %12.1f %10.1f  %-6s %12.1f %12.1f%n",
+                    r.name, MEASURE_ITERATIONS, r.nsPerOp, r.errorNs, "ns/op", r.bytesPerOp, r.allocMBs);
+        }
+
+        if (save != null) {
+            StringBuilder sb = new StringBuilder();
+            for (Result r : results)
+                sb.append(r.name).append('\t').append(r.nsPerOp).append('\t').append(r.bytesPerOp).append('\n');
+            Files.writeString(save, sb.toString());
+            System.out.println("Resultados salvos em " + save);
+        }
+
+        if (compare != null && !compareWith(compare, results))
+            System.exit(1);
+    }
+
+    // false se algum benchmark ficou mais lento (além do erro) ou passou a alocar mais
+    private static boolean compareWith(Path baseline, List<Result> results) throws IOException {
+        Map<String, double[]> base = new HashMap<>();
+        for (String line : Files.readAllLines(baseline)) {
+            String[] c = line.split("\t");
+            if (c.length == 3)
+                base.put(c[0], new double[] { Double.parseDouble(c[1]), Double.parseDouble(c[2]) });
+        }
+
+        boolean ok = true;
+        System.out.println();
+        for (Result r : results) {
+            double[] b = base.get(r.name);
+            if (b == null)
+                continue;
+            boolean slower = r.nsPerOp - r.errorNs > b[0] * SLOWDOWN_TOLERANCE;
+            boolean allocs = r.bytesPerOp > b[1] + 1;
+            String verdict = slower ? "REGRESSÃO (tempo)" : allocs ? "REGRESSÃO (alocação)" : "ok";
+            System.out.printf("%-26s %10.1f -> %10.1f ns/op  %8.1f -> %8.1f B/op  %s%n",
+                    r.name, b[0], r.nsPerOp, b[1], r.bytesPerOp, verdict);
+            ok &= !slower && !allocs;
+        }
+        return ok;
+    }
+}
+
+// ======= ALLOCATION CHECK =======
+// garante que o caminho quente (tick + efeitos + captura do frame) não aloca:
+// java BoxingGame --alloc-check [ticks] [EASY|MEDIUM|HARD]
+final class AllocationCheck {
+    // passadas idênticas (mesmas sementes) antes da medida: o JIT já viu todos os
+    // caminhos medidos, e uma desotimização não aparece como alocação falsa
+    private static final int WARMUP_PASSES = 2;
+    private static final int MAX_REPORTED = 20;
+    private static final int GAME_OVER_HOLD_TICKS = 300; // tela final antes de reiniciar, como na janela
+
+    static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        Difficulty difficulty = args.length > 2 ? Difficulty.valueOf(args[2]) : Difficulty.MEDIUM;
+
+        long[] bytes = new long[ticks];
+        GameState[] states = new GameState[ticks];
+        Run run = null;
+        for (int pass = 0; pass <= WARMUP_PASSES; pass++) {
+            run = new Run(difficulty);
+            run.measure(bytes, states, baseline());
+        }
+
+        int failures = 0;
+        long worst = 0;
+        for (int i = 0; i < ticks; i++) {
+            if (bytes[i] > 0) {
+                if (failures < MAX_REPORTED)
+                    System.out.printf("tick %d (%s): %d bytes%n", i, states[i], bytes[i]);
+                failures++;
+                worst = Math.max(worst, bytes[i]);
+            }
+        }
+
+        if (failures > 0) {
+            System.out.printf("FALHOU: %d de %d ticks alocaram (pior: %d bytes)%n", failures, ticks, worst);
+            System.exit(1);
+        }
+        ParticleSystem particles = run.particles;
+        System.out.printf("OK: %d ticks sem alocação (partículas: pico %d de %d, descartadas %d)%n",
+                ticks, particles.getPeak(), particles.capacity(), particles.getOverflow());
+    }
+
+    // custo da própria leitura do contador
+    static long baseline() {
+        long baseline = Long.MAX_VALUE;
+        for (int i = 0; i < 1000; i++) {
+            long a = Bench.allocatedBytes();
+            baseline = Math.min(baseline, Bench.allocatedBytes() - a);
+        }
+        return baseline;
+    }
+
+    // uma sequência de partidas reproduzível: o mesmo que GamePanel.tick + publishFrame fazem a cada passo
+    private static final class Run {
+        final ParticleSystem particles = new ParticleSystem();
+        final MatchEffects effects = new MatchEffects(particles, new Random(2));
+        final GameSimulation sim;
+        final ScriptedPlayer script = new ScriptedPlayer(new Random(3));
+        final RenderFrame frame = new RenderFrame();
+        int overTicks = 0;
+
+        Run(Difficulty difficulty) {
+            sim = new GameSimulation(difficulty, new GameRng(1));
+            sim.setListener(effects);
+        }
+
+        void measure(long[] bytes, GameState[] states, long baseline) {
+            for (int i = 0; i < bytes.length; i++) {
+                if (i == 0 || (sim.isOver() && ++overTicks > GAME_OVER_HOLD_TICKS)) {
+                    sim.startMatch(); // fora da medição: início de partida pode alocar
+                    overTicks = 0;
+                }
+                states[i] = sim.getState();
+                long a = Bench.allocatedBytes();
+                step();
+                bytes[i] = Bench.allocatedBytes() - a - baseline;
+            }
+        }
+
+        private void step() {
+            particles.beginTick();
+            sim.tick(script.nextInput(sim));
+            effects.afterTick(sim);
+            frame.capture(sim.getState(), 0, 0, sim.getDifficulty(), sim, particles);
+        }
+    }
+}
+
+// ======= FIGHTER / HITBOX =======
+enum PunchType {
+    JAB(60, 10),
+    HOOK(45, 15),
+    CROSS(70, 12);
+
+    final int reach;
+    final int thickness;
+
+    PunchType(int reach, int thickness) {
+        this.reach = reach;
+        this.thickness = thickness;
+    }
+}
+
+// retângulo de colisão sem AWT (mesma regra de Rectangle.intersects); reutilizável
+final class Box {
+    int x, y, w, h;
+
+    Box set(int x, int y, int w, int h) {
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.h = h;
+        return this;
+    }
+
+    boolean intersects(Box o) {
+        if (w <= 0 || h <= 0 || o.w <= 0 || o.h <= 0)
+            return false;
+        return x < o.x + o.w && o.x < x + w && y < o.y + o.h && o.y < y + h;
+    }
+}
+
+class Fighter {
+    public static final int MAX_HEALTH = 100;
+
+    private int x;
+    private int prevX; // posição no tick anterior (interpolação)
+    private int y;
+    private int health = MAX_HEALTH;
+
+    private boolean isPlayer;
+
+    private boolean facingRight = true;
+
+    private boolean punching = false;
+    private boolean hitRegistered = false;
+    private PunchType punchType = PunchType.JAB;
+    private int punchFrame = 0;
+
+    static final int DEFAULT_MOVE_SPEED = 5;
+
+    private int moveSpeed = DEFAULT_MOVE_SPEED;
+    private int damageBonus = 0;
+
+    private static final int BODY_W = 30;
+    private static final int BODY_H = 90;
+
+    public Fighter(int x, int y, boolean isPlayer) {
+        this.x = x;
+        this.prevX = x;
+        this.y = y;
+        this.isPlayer = isPlayer;
+    }
+
+    // volta ao estado de início de round (reaproveita o objeto)
+    public void reset(int x) {
+        this.x = x;
+        this.prevX = x;
+        health = MAX_HEALTH;
+        facingRight = true;
+        punching = false;
+        hitRegistered = false;
+        punchType = PunchType.JAB;
+        punchFrame = 0;
+    }
+
+    public void setMoveSpeed(int speed) {
+        this.moveSpeed = speed;
+    }
+
+    public void setDamageBonus(int bonus) {
+        this.damageBonus = bonus;
+    }
+
+    public int getDamageBonus() {
+        return damageBonus;
+    }
+
+    public void beginTick() {
+        prevX = x;
+    }
+
+    // posiciona sem interpolar (fixtures de benchmark)
+    void setX(int x) {
+        this.x = x;
+        this.prevX = x;
+    }
+
+    // cópia completa do estado (usada nos frames de render)
+    public void copyFrom(Fighter o) {
+        x = o.x;
+        prevX = o.prevX;
+        y = o.y;
+        health = o.health;
+        isPlayer = o.isPlayer;
+        facingRight = o.facingRight;
+        punching = o.punching;
+        hitRegistered = o.hitRegistered;
+        punchType = o.punchType;
+        punchFrame = o.punchFrame;
+        moveSpeed = o.moveSpeed;
+        damageBonus = o.damageBonus;
+    }
+
+    // layout em MatchSnapshot (FIGHTER_*); isPlayer é fixo para o objeto
+    void writeSnapshot(ByteBuffer b, int at) {
+        b.putInt(at + MatchSnapshot.FIGHTER_X, x);
+        b.putInt(at + MatchSnapshot.FIGHTER_PREV_X, prevX);
+        b.putInt(at + MatchSnapshot.FIGHTER_Y, y);
+        b.putInt(at + MatchSnapshot.FIGHTER_HEALTH, health);
+        b.putInt(at + MatchSnapshot.FIGHTER_PUNCH_FRAME, punchFrame);
+        b.putInt(at + MatchSnapshot.FIGHTER_MOVE_SPEED, moveSpeed);
+        b.putInt(at + MatchSnapshot.FIGHTER_DAMAGE_BONUS, damageBonus);
+        b.put(at + MatchSnapshot.FIGHTER_FACING_RIGHT, (byte) (facingRight ? 1 : 0));
+        b.put(at + MatchSnapshot.FIGHTER_PUNCHING, (byte) (punching ? 1 : 0));
+        b.put(at + MatchSnapshot.FIGHTER_HIT_REGISTERED, (byte) (hitRegistered ? 1 : 0));
+        b.put(at + MatchSnapshot.FIGHTER_PUNCH_TYPE, (byte) punchType.ordinal());
+    }
+
+    void readSnapshot(ByteBuffer b, int at) {
+        x = b.getInt(at + MatchSnapshot.FIGHTER_X);
+        prevX = b.getInt(at + MatchSnapshot.FIGHTER_PREV_X);
+        y = b.getInt(at + MatchSnapshot.FIGHTER_Y);
+        health = b.getInt(at + MatchSnapshot.FIGHTER_HEALTH);
+        punchFrame = b.getInt(at + MatchSnapshot.FIGHTER_PUNCH_FRAME);
+        moveSpeed = b.getInt(at + MatchSnapshot.FIGHTER_MOVE_SPEED);
+        damageBonus = b.getInt(at + MatchSnapshot.FIGHTER_DAMAGE_BONUS);
+        facingRight = b.get(at + MatchSnapshot.FIGHTER_FACING_RIGHT) != 0;
+        punching = b.get(at + MatchSnapshot.FIGHTER_PUNCHING) != 0;
+        hitRegistered = b.get(at + MatchSnapshot.FIGHTER_HIT_REGISTERED) != 0;
+        punchType = PUNCH_TYPES[b.get(at + MatchSnapshot.FIGHTER_PUNCH_TYPE)];
+    }
+
+    private static final PunchType[] PUNCH_TYPES = PunchType.values();
+
+    // mistura o estado de jogo no hash da simulação (prevX é só visual)
+    long hash(long h) {
+        h = GameSimulation.mix(h, x);
+        h = GameSimulation.mix(h, y);
+        h = GameSimulation.mix(h, health);
+        h = GameSimulation.mix(h, facingRight ? 1 : 0);
+        h = GameSimulation.mix(h, punching ? 1 : 0);
+        h = GameSimulation.mix(h, hitRegistered ? 1 : 0);
+        h = GameSimulation.mix(h, punchType.ordinal());
+        h = GameSimulation.mix(h, punchFrame);
+        h = GameSimulation.mix(h, moveSpeed);
+        return GameSimulation.mix(h, damageBonus);
+    }
+
+    public void update() {
+        if (punching) {
+            punchFrame++;
+            if (punchFrame > 15) {
+                punching = false;
+                hitRegistered = false;
+                punchFrame = 0;
+            }
+        }
+    }
+
+    public void move(int dir, int panelWidth) {
+        int newX = x + dir * moveSpeed;
+        int minX = 100;
+        int maxX = panelWidth - 100;
+        x = Math.max(minX, Math.min(maxX, newX));
+    }
+
+    public void punch(PunchType type) {
+        if (!punching) {
+            punching = true;
+            punchType = type;
+            punchFrame = 0;
+        }
+    }
+
+    public void takeDamage(int damage) {
+        health -= damage;
+        if (health < 0)
+            health = 0;
+    }
+
+    public boolean isPlayer() {
+        return isPlayer;
+    }
+
+    public boolean isDead() {
+        return health <= 0;
+    }
+
+    public int getHealth() {
+        return health;
+    }
+
+    // preenchem a caixa de quem chama (sem alocar)
+    public Box getHurtBox(Box out) {
+        int top = y - 110;
+        int left = x - (BODY_W / 2);
+        return out.set(left, top, BODY_W, BODY_H);
+    }
+
+    public Box getHitBox(Box out) {
+        int top = y - 85;
+        int height = 40;
+
+        int reach = punchType.reach;
+        int thick = punchType.thickness;
+
+        int left;
+        int width = reach;
+
+        if (facingRight)
+            left = x + 10;
+        else
+            left = x - 10 - reach;
+
+        top -= thick;
+        height += thick * 2;
+
+        return out.set(left, top, width, height);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getPrevX() {
+        return prevX;
+    }
+
+    public boolean isFacingRight() {
+        return facingRight;
+    }
+
+    public PunchType getPunchType() {
+        return punchType;
+    }
+
+    public int getPunchFrame() {
+        return punchFrame;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public boolean isPunching() {
+        return punching;
+    }
+
+    public boolean isHitRegistered() {
+        return hitRegistered;
+    }
+
+    public void setHitRegistered(boolean v) {
+        hitRegistered = v;
+    }
+
+    public void setFacing(boolean facingRight) {
+        this.facingRight = facingRight;
+    }
+}
+
+// ======= MATCH EFFECTS =======
+// traduz eventos da simulação em partículas: faíscas nos golpes, explosão no KO, confete na vitória
+class MatchEffects implements GameSimulation.Listener {
+    private static final int HIT_PARTICLES = 15;
+    private static final int KO_PARTICLES = 400;
+    private static final int CONFETTI_PER_TICK = 25;
+    private static final int CONFETTI_TICKS = 90;
+
+    private final ParticleSystem particles;
+    private final Random random;
+
+    private int koWinner = 2; // 2 = nenhum KO pendente
+    private boolean wasOver = false;
+    private int confettiTicksLeft = 0;
+
+    MatchEffects(ParticleSystem particles, Random random) {
+        this.particles = particles;
+        this.random = random;
+    }
+
+    @Override
+    public void onRoundStart(int round) {
+        particles.clear();
+        koWinner = 2;
+        wasOver = false;
+        confettiTicksLeft = 0;
+    }
+
+    // depois de um salto no replay: descarta os efeitos e assume o estado atual da partida
+    void resync(GameSimulation sim) {
+        onRoundStart(sim.getCurrentRound());
+        wasOver = sim.isOver();
+    }
+
+    @Override
+    public void onHit(Fighter attacker, Fighter defender, PunchType type, int damage) {
+        particles.spawnBurst(defender.getX(), defender.getY() - 50, HIT_PARTICLES, random);
+    }
+
+    @Override
+    public void onRoundEnd(int round, int winner, boolean ko, long roundElapsedMs) {
+        if (ko)
+            koWinner = winner;
+    }
+
+    // chamado depois de cada sim.tick (fora de pausa)
+    void afterTick(GameSimulation sim) {
+        if (koWinner != 2) {
+            // winner <= 0: o jogador caiu (0 = double KO, caíram os dois)
+            if (koWinner <= 0)
+                koBurst(sim.getPlayer());
+            if (koWinner >= 0)
+                koBurst(sim.getAi());
+            koWinner = 2;
+        }
+
+        boolean over = sim.isOver();
+        if (over && !wasOver && sim.getPlayerRoundsWon() > sim.getAiRoundsWon())
+            confettiTicksLeft = CONFETTI_TICKS;
+        wasOver = over;
+
+        if (confettiTicksLeft > 0) {
+            confettiTicksLeft--;
+            particles.spawnConfetti(CONFETTI_PER_TICK, GameSimulation.ARENA_WIDTH, random);
+        }
+
+        particles.update();
+    }
+
+    private void koBurst(Fighter f) {
+        particles.spawnKoBurst(f.getX(), f.getY() - 60, KO_PARTICLES, random);
+    }
+}
+
+// ======= PARTICLES (struct-of-arrays, capacidade fixa) =======
+// cada partícula é um índice nos arrays paralelos; mortas saem trocando com a última viva
+class ParticleSystem {
+    static final int CAPACITY = 4096;
+
+    // efeitos: faísca de golpe, explosão de KO, confete de vitória
+    static final int FX_HIT = 0;
+    static final int FX_KO = 1;
+    static final int FX_CONFETTI = 2;
+
+    private static final float[] GRAVITY = { 0.3f, 0.25f, 0.04f };
+    private static final int[] SIZE = { 6, 8, 5 };
+
+    // prontos por [efeito][tom] e [nível de alpha]: o draw não cria Color nem forma.
+    // faíscas e KO são sprites redondos; confete é retângulo (fillRect não aloca)
+    private static final int SHADES = 16;
+    private static final int ALPHA_LEVELS = 22; // life * 12 satura em 255 a partir de 22
+    private static final BufferedImage[][] SPRITES = new BufferedImage[2][SHADES];
+    private static final Color[][] CONFETTI_COLORS = new Color[SHADES][ALPHA_LEVELS];
+    private static final AlphaComposite[] FADE = new AlphaComposite[ALPHA_LEVELS];
+
+    static {
+        for (int s = 0; s < SHADES; s++) {
+            SPRITES[FX_HIT][s] = RenderResources.ovalSprite(SIZE[FX_HIT], new Color(255, 155 + s * 100 / SHADES, 0));
+            SPRITES[FX_KO][s] = RenderResources.ovalSprite(SIZE[FX_KO], new Color(255, 60 + s * 12, 40 + s * 10));
+            Color confetti = Color.getHSBColor(s / (float) SHADES, 0.8f, 1f);
+            for (int a = 0; a < ALPHA_LEVELS; a++)
+                CONFETTI_COLORS[s][a] = new Color(confetti.getRed(), confetti.getGreen(), confetti.getBlue(),
+                        Math.min(255, a * 12));
+        }
+        for (int a = 0; a < ALPHA_LEVELS; a++)
+            FADE[a] = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, Math.min(255, a * 12) / 255f);
+    }
+
+    private final int capacity;
+    private final float[] x, y, prevX, prevY, vx, vy;
+    private final short[] life;
+    private final byte[] fx, shade;
+    private int count = 0;
+    private int peak = 0;
+    private long overflow = 0; // partículas descartadas por falta de espaço
 
-        // cor muda se estiver em cooldown
-        if (staminaOnCooldown)
-            g.setColor(new Color(255, 190, 70));
-        else
-            g.setColor(new Color(80, 170, 255));
+    public ParticleSystem() {
+        this(CAPACITY);
+    }
 
-        g.fillRect(x, y, fill, h);
+    public ParticleSystem(int capacity) {
+        this.capacity = capacity;
+        x = new float[capacity];
+        y = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        vx = new float[capacity];
+        vy = new float[capacity];
+        life = new short[capacity];
+        fx = new byte[capacity];
+        shade = new byte[capacity];
+    }
 
-        g.setColor(Color.WHITE);
-        g.drawRect(x, y, w, h);
+    // faíscas do golpe
+    public void spawnBurst(int px, int py, int n, Random r) {
+        for (int i = 0; i < n; i++)
+            add(FX_HIT, px, py, (float) ((r.nextDouble() - 0.5) * 8), (float) ((r.nextDouble() - 0.5) * 8),
+                    20, r.nextInt(SHADES));
+    }
 
-        // texto cooldown
-        if (staminaOnCooldown) {
-            g.setFont(new Font("Arial", Font.BOLD, 12));
-            g.setColor(Color.WHITE);
-            long sec = (long) Math.ceil(staminaCooldownLeftMs / 1000.0);
-            g.drawString("Recarregando: " + sec + "s", x + 70, y + 11);
+    // explosão radial no lutador nocauteado
+    public void spawnKoBurst(int px, int py, int n, Random r) {
+        for (int i = 0; i < n; i++) {
+            double angle = r.nextDouble() * Math.PI * 2;
+            double speed = 2 + r.nextDouble() * 8;
+            add(FX_KO, px, py, (float) (Math.cos(angle) * speed), (float) (Math.sin(angle) * speed - 3),
+                    30 + r.nextInt(20), r.nextInt(SHADES));
         }
     }
 
-    private void drawIntroOverlay(Graphics2D g) {
-        g.setColor(new Color(0, 0, 0, 170));
-        g.fillRect(0, 0, WIDTH, HEIGHT);
+    // confete caindo do topo ao longo da largura
+    public void spawnConfetti(int n, int width, Random r) {
+        for (int i = 0; i < n; i++)
+            add(FX_CONFETTI, r.nextInt(width), -r.nextInt(100), (float) ((r.nextDouble() - 0.5) * 2),
+                    (float) (1 + r.nextDouble() * 2), 150 + r.nextInt(60), r.nextInt(SHADES));
+    }
 
-        String text = (introMsLeft > 900) ? ("ROUND " + currentRound) : "FIGHT!";
+    private void add(int effect, float px, float py, float pvx, float pvy, int ticks, int tone) {
+        if (count == capacity) {
+            overflow++;
+            return;
+        }
+        int i = count++;
+        x[i] = prevX[i] = px;
+        y[i] = prevY[i] = py;
+        vx[i] = pvx;
+        vy[i] = pvy;
+        life[i] = (short) ticks;
+        fx[i] = (byte) effect;
+        shade[i] = (byte) tone;
+        if (count > peak)
+            peak = count;
+    }
 
-        g.setColor(Color.YELLOW);
-        g.setFont(new Font("Arial", Font.BOLD, 70));
-        g.drawString(text, WIDTH / 2 - (text.length() * 18), HEIGHT / 2);
+    public void beginTick() {
+        System.arraycopy(x, 0, prevX, 0, count);
+        System.arraycopy(y, 0, prevY, 0, count);
     }
 
-    private void drawPauseOverlay(Graphics2D g) {
-        g.setColor(new Color(0, 0, 0, 160));
-        g.fillRect(0, 0, WIDTH, HEIGHT);
+    public void update() {
+        for (int i = count - 1; i >= 0; i--) {
+            x[i] += vx[i];
+            y[i] += vy[i];
+            vy[i] += GRAVITY[fx[i]];
+            if (--life[i] <= 0)
+                removeAt(i);
+        }
+    }
 
-        g.setColor(Color.YELLOW);
-        g.setFont(new Font("Arial", Font.BOLD, 60));
-        g.drawString("PAUSADO", WIDTH / 2 - 150, HEIGHT / 2 - 20);
+    private void removeAt(int i) {
+        int last = --count;
+        x[i] = x[last];
+        y[i] = y[last];
+        prevX[i] = prevX[last];
+        prevY[i] = prevY[last];
+        vx[i] = vx[last];
+        vy[i] = vy[last];
+        life[i] = life[last];
+        fx[i] = fx[last];
+        shade[i] = shade[last];
+    }
 
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.PLAIN, 20));
-        g.drawString("Pressione P para voltar", WIDTH / 2 - 120, HEIGHT / 2 + 30);
-        g.drawString("ESC para sair ao menu", WIDTH / 2 - 120, HEIGHT / 2 + 60);
+    public void draw(Graphics2D g, float t) {
+        Composite saved = g.getComposite();
+        for (int i = 0; i < count; i++) {
+            int effect = fx[i];
+            int px = (int) (prevX[i] + (x[i] - prevX[i]) * t);
+            int py = (int) (prevY[i] + (y[i] - prevY[i]) * t);
+            int level = Math.min(ALPHA_LEVELS - 1, life[i]);
+            if (effect == FX_CONFETTI) {
+                g.setColor(CONFETTI_COLORS[shade[i]][level]);
+                g.fillRect(px, py, SIZE[effect], SIZE[effect] - 2);
+            } else {
+                g.setComposite(FADE[level]);
+                g.drawImage(SPRITES[effect][shade[i]], px, py, null);
+                g.setComposite(saved);
+            }
+        }
     }
 
-    private void drawRoundEndOverlay(Graphics2D g) {
-        g.setColor(new Color(0, 0, 0, 170));
-        g.fillRect(0, 0, WIDTH, HEIGHT);
+    // o destino precisa ter capacidade >= a da origem
+    public void copyFrom(ParticleSystem o) {
+        int n = o.count;
+        System.arraycopy(o.x, 0, x, 0, n);
+        System.arraycopy(o.y, 0, y, 0, n);
+        System.arraycopy(o.prevX, 0, prevX, 0, n);
+        System.arraycopy(o.prevY, 0, prevY, 0, n);
+        System.arraycopy(o.vx, 0, vx, 0, n);
+        System.arraycopy(o.vy, 0, vy, 0, n);
+        System.arraycopy(o.life, 0, life, 0, n);
+        System.arraycopy(o.fx, 0, fx, 0, n);
+        System.arraycopy(o.shade, 0, shade, 0, n);
+        count = n;
+        peak = o.peak;
+        overflow = o.overflow;
+    }
 
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.BOLD, 34));
-        g.drawString(roundEndMessage, 70, HEIGHT / 2 - 10);
+    public void clear() {
+        count = 0;
+    }
 
-        g.setFont(new Font("Arial", Font.PLAIN, 18));
-        g.setColor(new Color(230, 230, 230));
-        g.drawString("Próximo round em instantes...", WIDTH / 2 - 140, HEIGHT / 2 + 40);
+    public int size() {
+        return count;
     }
 
-    private void drawGameOverOverlay(Graphics2D g) {
-        g.setColor(new Color(0, 0, 0, 190));
-        g.fillRect(0, 0, WIDTH, HEIGHT);
+    public int capacity() {
+        return capacity;
+    }
 
-        g.setColor(Color.WHITE);
-        g.setFont(new Font("Arial", Font.BOLD, 48));
-        g.drawString(roundEndMessage, 70, HEIGHT / 2 - 40);
+    public int getPeak() {
+        return peak;
+    }
 
-        g.setFont(new Font("Arial", Font.PLAIN, 22));
-        g.setColor(new Color(220, 220, 220));
-        g.drawString("Placar final (Você x IA): " + playerRoundsWon + " x " + aiRoundsWon, 220, HEIGHT / 2 + 10);
-        g.drawString("ENTER para voltar ao menu", 250, HEIGHT / 2 + 55);
-        g.drawString("ESC para voltar ao menu", 260, HEIGHT / 2 + 85);
+    public long getOverflow() {
+        return overflow;
     }
+}
 
-    private String formatTime(long ms) {
-        long sec = ms / 1000;
-        long s = sec % 60;
-        return String.format("%02d", s);
+// ======= TRIPLE BUFFER (uma thread escreve, outra lê, sem locks) =======
+class TripleBuffer<T> {
+    private static final int DIRTY = 4;
+
+    private final Object[] slots = new Object[3];
+    // índice do slot do meio + flag DIRTY (há frame novo ainda não lido)
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int writeIndex = 0; // só a thread escritora mexe
+    private int readIndex = 2; // só a thread leitora mexe
+
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < slots.length; i++)
+            slots[i] = factory.get();
     }
 
-    private void generateSpectators() {
-        spectators.clear();
-        for (int row = 0; row < 3; row++) {
-            for (int i = 0; i < 20; i++) {
-                int x = i * 40 + (row % 2) * 20;
-                int y = 50 + row * 30;
-                Color c = new Color(
-                        random.nextInt(100) + 100,
-                        random.nextInt(100) + 50,
-                        random.nextInt(100) + 50);
-                spectators.add(new Spectator(x, y, c));
-            }
-        }
+    @SuppressWarnings("unchecked")
+    public T writeSlot() {
+        return (T) slots[writeIndex];
     }
 
-    private static class Spectator {
-        final int x, y;
-        final Color color;
+    public void publish() {
+        writeIndex = middle.getAndSet(writeIndex | DIRTY) & 3;
+    }
 
-        Spectator(int x, int y, Color color) {
-            this.x = x;
-            this.y = y;
-            this.color = color;
-        }
+    // devolve o frame mais recente; se não houver novo, repete o anterior
+    @SuppressWarnings("unchecked")
+    public T read() {
+        if ((middle.get() & DIRTY) != 0)
+            readIndex = middle.getAndSet(readIndex) & 3;
+        return (T) slots[readIndex];
     }
 }
 
-// ======= FIGHTER / HITBOX =======
-enum PunchType {
-    JAB(60, 10),
-    HOOK(45, 15),
-    CROSS(70, 12);
+// ======= FILA DE INPUT (um produtor, um consumidor, sem locks) =======
+class InputQueue {
+    static final int EMPTY = Integer.MIN_VALUE;
 
-    final int reach;
-    final int thickness;
+    private final int[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
 
-    PunchType(int reach, int thickness) {
-        this.reach = reach;
-        this.thickness = thickness;
+    public InputQueue(int capacityPow2) {
+        buffer = new int[capacityPow2];
+        mask = capacityPow2 - 1;
     }
-}
 
-class Fighter {
-    public static final int MAX_HEALTH = 100;
+    // false se a fila estiver cheia (o comando é descartado)
+    public boolean offer(int value) {
+        long t = tail.get();
+        if (t - head.get() >= buffer.length)
+            return false;
+        buffer[(int) (t & mask)] = value;
+        tail.lazySet(t + 1);
+        return true;
+    }
 
-    private int x;
-    private final int y;
-    private int health = MAX_HEALTH;
+    public int poll() {
+        long h = head.get();
+        if (h == tail.get())
+            return EMPTY;
+        int v = buffer[(int) (h & mask)];
+        head.lazySet(h + 1);
+        return v;
+    }
+}
 
-    private final Color shortColor;
-    private final boolean isPlayer;
+// ======= EVENTOS JFR (ticks, golpes, decisões da IA, estados, sons) =======
+// o flag só fica ligado enquanto há gravação rodando; com o JFR parado nenhum evento é criado
+final class GameEvents {
+    static volatile boolean enabled = false;
+
+    static final String PLAYER = "player";
+    static final String AI = "ai";
+
+    // Hit e AiDecision saem do listener da partida mostrada (painel, --headless), não de dentro da
+    // simulação: rollouts da MCTS, re-simulação do rollback e lotes não têm esse listener
+    static final GameSimulation.Listener MATCH = new GameSimulation.Listener() {
+        @Override
+        public void onHit(Fighter attacker, Fighter defender, PunchType type, int damage) {
+            if (enabled)
+                hit(attacker.isPlayer(), type, damage, defender.getHealth());
+        }
 
-    private boolean facingRight = true;
+        @Override
+        public void onAiDecision(String band, String action, int distance) {
+            if (enabled)
+                aiDecision(band, action, distance);
+        }
+    };
 
-    private boolean punching = false;
-    private boolean hitRegistered = false;
-    private PunchType punchType = PunchType.JAB;
-    private int punchFrame = 0;
+    private GameEvents() {
+    }
 
-    private int moveSpeed = 5;
-    private int damageBonus = 0;
+    static void install() {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                refresh();
+            }
 
-    private static final int BODY_W = 30;
-    private static final int BODY_H = 90;
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                refresh();
+            }
+        });
+    }
 
-    public Fighter(int x, int y, Color shortColor, boolean isPlayer) {
-        this.x = x;
-        this.y = y;
-        this.shortColor = shortColor;
-        this.isPlayer = isPlayer;
+    private static void refresh() {
+        boolean running = false;
+        for (Recording r : FlightRecorder.getFlightRecorder().getRecordings())
+            running |= r.getState() == RecordingState.RUNNING;
+        enabled = running;
     }
 
-    public void setMoveSpeed(int speed) {
-        this.moveSpeed = speed;
+    // gravação contínua (buffer circular em disco) despejada no arquivo ao sair: --jfr[=arquivo]
+    static void startContinuousRecording(Path file) throws IOException {
+        try {
+            Recording r = new Recording(Configuration.getConfiguration("default"));
+            r.setName("boxing-game");
+            r.setToDisk(true);
+            r.setMaxAge(Duration.ofMinutes(10));
+            r.setMaxSize(100L * 1024 * 1024);
+            r.setDestination(file);
+            r.setDumpOnExit(true);
+            r.start();
+            System.out.println("JFR gravando; despejo ao sair em " + file.toAbsolutePath());
+        } catch (ParseException e) {
+            throw new IOException("Configuração JFR inválida", e);
+        }
     }
 
-    public void setDamageBonus(int bonus) {
-        this.damageBonus = bonus;
+    // duração medida entre beginTick() e endTick()
+    static TickEvent beginTick() {
+        TickEvent e = new TickEvent();
+        e.begin();
+        return e;
     }
 
-    public int getDamageBonus() {
-        return damageBonus;
+    static void endTick(TickEvent e, long tick, GameState state) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.tick = tick;
+            e.state = state.name();
+            e.commit();
+        }
     }
 
-    public void update() {
-        if (punching) {
-            punchFrame++;
-            if (punchFrame > 15) {
-                punching = false;
-                hitRegistered = false;
-                punchFrame = 0;
-            }
+    static void hit(boolean byPlayer, PunchType type, int damage, int defenderHealth) {
+        HitEvent e = new HitEvent();
+        if (e.shouldCommit()) {
+            e.attacker = byPlayer ? PLAYER : AI;
+            e.punchType = type.name();
+            e.damage = damage;
+            e.defenderHealth = defenderHealth;
+            e.commit();
         }
     }
 
-    public void move(int dir, int panelWidth) {
-        int newX = x + dir * moveSpeed;
-        int minX = 100;
-        int maxX = panelWidth - 100;
-        x = Math.max(minX, Math.min(maxX, newX));
+    static void aiDecision(String band, String action, int distance) {
+        AiDecisionEvent e = new AiDecisionEvent();
+        if (e.shouldCommit()) {
+            e.band = band;
+            e.action = action;
+            e.distance = distance;
+            e.commit();
+        }
     }
 
-    public void punch(PunchType type) {
-        if (!punching) {
-            punching = true;
-            punchType = type;
-            punchFrame = 0;
+    static void stateChange(GameState from, GameState to) {
+        StateTransitionEvent e = new StateTransitionEvent();
+        if (e.shouldCommit()) {
+            e.from = from.name();
+            e.to = to.name();
+            e.commit();
         }
     }
 
-    public void takeDamage(int damage) {
-        health -= damage;
-        if (health < 0)
-            health = 0;
+    static void sound(Sound sound, float gain, float pan) {
+        SoundEvent e = new SoundEvent();
+        if (e.shouldCommit()) {
+            e.sound = sound.name();
+            e.gain = gain;
+            e.pan = pan;
+            e.commit();
+        }
     }
 
-    public boolean isDead() {
-        return health <= 0;
+    @Name("boxing.Tick")
+    @Label("Tick")
+    @Category("Boxing Game")
+    @StackTrace(false)
+    static final class TickEvent extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Estado")
+        String state;
     }
 
-    public int getHealth() {
-        return health;
+    @Name("boxing.Hit")
+    @Label("Golpe acertado")
+    @Category("Boxing Game")
+    @StackTrace(false)
+    static final class HitEvent extends Event {
+        @Label("Atacante")
+        String attacker;
+        @Label("Golpe")
+        String punchType;
+        @Label("Dano")
+        int damage;
+        @Label("Vida do defensor")
+        int defenderHealth;
     }
 
-    public Rectangle getHurtBox() {
-        int top = y - 110;
-        int left = x - (BODY_W / 2);
-        return new Rectangle(left, top, BODY_W, BODY_H);
+    @Name("boxing.AiDecision")
+    @Label("Decisão da IA")
+    @Category("Boxing Game")
+    @StackTrace(false)
+    static final class AiDecisionEvent extends Event {
+        @Label("Faixa de distância")
+        String band;
+        @Label("Ação")
+        String action;
+        @Label("Distância")
+        int distance;
     }
 
-    public Rectangle getHitBox() {
-        int top = y - 85;
-        int height = 40;
+    @Name("boxing.StateTransition")
+    @Label("Troca de estado")
+    @Category("Boxing Game")
+    @StackTrace(false)
+    static final class StateTransitionEvent extends Event {
+        @Label("De")
+        String from;
+        @Label("Para")
+        String to;
+    }
 
-        int reach = punchType.reach;
-        int thick = punchType.thickness;
+    @Name("boxing.Sound")
+    @Label("Som")
+    @Category("Boxing Game")
+    @StackTrace(false)
+    static final class SoundEvent extends Event {
+        @Label("Som")
+        String sound;
+        @Label("Ganho")
+        float gain;
+        @Label("Pan")
+        float pan;
+    }
+}
 
-        int left;
-        int width = reach;
+// ======= SONS =======
+enum Sound {
+    PUNCH(1, "sounds/punch.wav", 4),
+    BELL(2, "sounds/bell.wav", 1),
+    KO(3, "sounds/ko.wav", 1);
 
-        if (facingRight)
-            left = x + 10;
-        else
-            left = x - 10 - reach;
+    final int id; // id no asset bundle (estável, não depende da ordem do enum)
+    final String path; // WAV de origem, usado pelo packer e como fallback
+    final int voices;
 
-        top -= thick;
-        height += thick * 2;
+    Sound(int id, String path, int voices) {
+        this.id = id;
+        this.path = path;
+        this.voices = voices;
+    }
+}
 
-        return new Rectangle(left, top, width, height);
+// ======= ASSETS (resolvidos pela pasta do jogo, não pelo diretório atual) =======
+class Assets {
+    private static Path baseDir;
+
+    static synchronized Path baseDir() {
+        if (baseDir == null) {
+            try {
+                Path p = Paths.get(BoxingGame.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+                baseDir = Files.isDirectory(p) ? p : p.getParent();
+            } catch (Exception e) {
+                baseDir = Paths.get("").toAbsolutePath();
+            }
+        }
+        return baseDir;
     }
 
-    public void draw(Graphics2D g) {
-        g.setColor(new Color(255, 220, 177));
-        g.fillOval(x - 15, y - 110, 30, 30);
+    // procura primeiro ao lado das classes/jar, depois no diretório atual
+    static Path resolve(String relative) {
+        Path p = baseDir().resolve(relative);
+        if (Files.exists(p))
+            return p;
+        return Paths.get(relative).toAbsolutePath();
+    }
+}
 
-        g.fillRect(x - 15, y - 80, 30, 50);
+// ======= ASSET BUNDLE (arquivo único mapeado em memória) =======
+// Layout (little endian):
+//   int magic, int version, int count
+//   count x { int id, int type, int param0, int param1, int offset, int length }
+//   dados (alinhados em 8 bytes)
+// PCM: param0 = sample rate, param1 = canais, dados = shorts intercalados no formato do mixer.
+class AssetBundle {
+    static final String DEFAULT_NAME = "assets.bxa";
+
+    static final int MAGIC = 0x42584142; // "BXAB"
+    static final int VERSION = 1;
+
+    static final int TYPE_PCM = 1;
+    static final int TYPE_IMAGE = 2; // reservado para sprites
+
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_BYTES = 24;
+
+    private final ByteBuffer map;
+    private final int count;
+
+    private AssetBundle(ByteBuffer map) throws IOException {
+        this.map = map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.capacity() < HEADER_BYTES || map.getInt(0) != MAGIC)
+            throw new IOException("Bundle inválido");
+        if (map.getInt(4) != VERSION)
+            throw new IOException("Versão de bundle não suportada: " + map.getInt(4));
+        this.count = map.getInt(8);
+
+        // arquivo truncado ou corrompido falha aqui (IOException: o jogo cai no WAV), não no pcm()
+        int capacity = map.capacity();
+        if (count < 0 || count > (capacity - HEADER_BYTES) / ENTRY_BYTES)
+            throw new IOException("Bundle corrompido: " + count + " entradas");
+        for (int i = 0; i < count; i++) {
+            int e = HEADER_BYTES + i * ENTRY_BYTES;
+            int offset = map.getInt(e + 16);
+            int length = map.getInt(e + 20);
+            // o mixer lê quadros estéreo inteiros (dois shorts): comprimento que não fecha um quadro
+            // faria a última leitura passar do limite
+            if (offset < 0 || length < 0 || length % (SoundBank.CHANNELS * Short.BYTES) != 0
+                    || offset > capacity - length)
+                throw new IOException("Bundle corrompido: entrada " + i);
+        }
+    }
 
-        g.setColor(shortColor);
-        g.fillRect(x - 20, y - 30, 40, 35);
+    // null se o bundle não existir ou estiver corrompido (o jogo cai no WAV)
+    static AssetBundle openDefault() {
+        Path p = Assets.resolve(DEFAULT_NAME);
+        if (!Files.exists(p))
+            return null;
+        try {
+            return open(p);
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
-        g.setColor(new Color(255, 220, 177));
-        g.fillRect(x - 15, y + 5, 12, 50);
-        g.fillRect(x + 3, y + 5, 12, 50);
+    static AssetBundle open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            // o mapeamento continua válido depois de fechar o canal
+            return new AssetBundle(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
 
-        int leftArmX = x - 30;
-        int rightArmX = x + 30;
-        int armY = y - 70;
+    private int find(int id, int type) {
+        for (int i = 0; i < count; i++) {
+            int e = HEADER_BYTES + i * ENTRY_BYTES;
+            if (map.getInt(e) == id && map.getInt(e + 4) == type)
+                return e;
+        }
+        return -1;
+    }
 
-        if (punching) {
-            int t = Math.min(punchFrame, 8);
-            int push = t * 5;
+    // visão direta (sem cópia) das amostras; null se o id não estiver no bundle
+    ShortBuffer pcm(int id) {
+        int e = find(id, TYPE_PCM);
+        if (e < 0)
+            return null;
+        if (map.getInt(e + 8) != (int) SoundBank.SAMPLE_RATE || map.getInt(e + 12) != SoundBank.CHANNELS)
+            return null;
+        int offset = map.getInt(e + 16);
+        int length = map.getInt(e + 20);
+        return map.duplicate().position(offset).limit(offset + length).slice()
+                .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
 
-            if (punchType == PunchType.JAB) {
-                if (facingRight)
-                    rightArmX = x + 30 + push;
-                else
-                    leftArmX = x - 30 - push;
-            } else if (punchType == PunchType.HOOK) {
-                armY = y - 80;
-                if (facingRight)
-                    rightArmX = x + 25 + push;
-                else
-                    leftArmX = x - 25 - push;
-            } else if (punchType == PunchType.CROSS) {
-                armY = y - 60;
-                if (facingRight)
-                    rightArmX = x + 35 + push;
-                else
-                    leftArmX = x - 35 - push;
-            }
+    // packer: decodifica os WAV uma vez e grava o PCM pronto para o mixer
+    static void pack(Path out) throws IOException {
+        Sound[] sounds = Sound.values();
+        short[][] data = new short[sounds.length][];
+        for (Sound s : sounds) {
+            data[s.ordinal()] = SoundBank.decode(Assets.resolve(s.path));
+            if (data[s.ordinal()].length == 0)
+                throw new IOException("Não foi possível decodificar " + s.path);
         }
 
-        g.setColor(new Color(255, 220, 177));
-        g.setStroke(new BasicStroke(8));
-        g.drawLine(x - 10, y - 75, leftArmX, armY);
-        g.drawLine(x + 10, y - 75, rightArmX, armY);
+        int offset = align(HEADER_BYTES + sounds.length * ENTRY_BYTES);
+        int total = offset;
+        for (short[] d : data)
+            total = align(total + d.length * 2);
+
+        ByteBuffer buf = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(sounds.length);
+        for (Sound s : sounds) {
+            short[] d = data[s.ordinal()];
+            buf.putInt(s.id).putInt(TYPE_PCM)
+                    .putInt((int) SoundBank.SAMPLE_RATE).putInt(SoundBank.CHANNELS)
+                    .putInt(offset).putInt(d.length * 2);
+            buf.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(offset).asShortBuffer().put(d);
+            offset = align(offset + d.length * 2);
+        }
 
-        g.setColor(Color.RED);
-        g.fillOval(leftArmX - 8, armY - 8, 16, 16);
-        g.fillOval(rightArmX - 8, armY - 8, 16, 16);
+        Files.write(out, buf.array());
     }
 
-    public int getX() {
-        return x;
+    private static int align(int n) {
+        return (n + 7) & ~7;
     }
+}
 
-    public int getY() {
-        return y;
+// ======= SOUND BANK (WAV decodificado uma vez em PCM) =======
+class SoundBank {
+    // formato de saída do mixer: 44.1 kHz, 16 bits, estéreo
+    static final float SAMPLE_RATE = 44100f;
+    static final int CHANNELS = 2;
+
+    private final ShortBuffer[] pcm = new ShortBuffer[Sound.values().length];
+
+    public SoundBank() {
+        // com bundle: só mapeia, nada é decodificado; sem bundle: decodifica os WAV
+        AssetBundle bundle = AssetBundle.openDefault();
+        for (Sound s : Sound.values()) {
+            ShortBuffer data = bundle != null ? bundle.pcm(s.id) : null;
+            if (data == null)
+                data = ShortBuffer.wrap(decode(Assets.resolve(s.path)));
+            pcm[s.ordinal()] = data;
+        }
     }
 
-    public boolean isPunching() {
-        return punching;
+    // amostras intercaladas L/R já no formato do mixer (vazio se faltar o arquivo)
+    public ShortBuffer get(Sound s) {
+        return pcm[s.ordinal()];
     }
 
-    public boolean isHitRegistered() {
-        return hitRegistered;
+    static short[] decode(Path path) {
+        try {
+            File file = path.toFile();
+            if (!file.exists())
+                return new short[0];
+
+            try (AudioInputStream src = AudioSystem.getAudioInputStream(file)) {
+                AudioFormat in = src.getFormat();
+                AudioFormat pcm16 = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED,
+                        in.getSampleRate(), 16, in.getChannels(), in.getChannels() * 2, in.getSampleRate(), false);
+                try (AudioInputStream ais = AudioSystem.getAudioInputStream(pcm16, src)) {
+                    byte[] data = ais.readAllBytes();
+                    return toMixerFormat(data, in.getChannels(), in.getSampleRate());
+                }
+            }
+        } catch (Exception ignored) {
+            return new short[0];
+        }
     }
 
-    public void setHitRegistered(boolean v) {
-        hitRegistered = v;
-    }
+    // mono/estéreo 16 bits LE -> estéreo a 44.1 kHz (reamostragem linear)
+    static short[] toMixerFormat(byte[] data, int channels, float rate) {
+        int inFrames = data.length / (channels * 2);
+        if (inFrames == 0)
+            return new short[0];
+
+        short[] l = new short[inFrames];
+        short[] r = new short[inFrames];
+        for (int f = 0; f < inFrames; f++) {
+            int o = f * channels * 2;
+            l[f] = (short) ((data[o] & 0xFF) | (data[o + 1] << 8));
+            r[f] = channels > 1 ? (short) ((data[o + 2] & 0xFF) | (data[o + 3] << 8)) : l[f];
+        }
 
-    public void setFacing(boolean facingRight) {
-        this.facingRight = facingRight;
+        double step = rate / SAMPLE_RATE;
+        int outFrames = (int) ((inFrames - 1) / step) + 1;
+        short[] out = new short[outFrames * CHANNELS];
+        for (int f = 0; f < outFrames; f++) {
+            double pos = f * step;
+            int i0 = (int) pos;
+            int i1 = Math.min(i0 + 1, inFrames - 1);
+            double t = pos - i0;
+            out[f * 2] = (short) Math.round(l[i0] + (l[i1] - l[i0]) * t);
+            out[f * 2 + 1] = (short) Math.round(r[i0] + (r[i1] - r[i0]) * t);
+        }
+        return out;
     }
 }
 
-// ======= PARTICLE =======
-class Particle {
-    private double x, y;
-    private double vx, vy;
-    private int life = 20;
-    private final Color color;
+// ======= MIXER (uma SourceDataLine, vozes mixadas por software) =======
+class AudioMixer {
+    private static final int MAX_VOICES = 8;
+    private static final int BUFFER_FRAMES = 256; // ~5.8 ms por bloco
+    private static final int LINE_BUFFERS = 3;
+    private static final int FRAME_BYTES = SoundBank.CHANNELS * 2;
+
+    private final SoundBank bank;
+    private final SourceDataLine line;
+
+    // vozes (protegidas por "this")
+    private final ShortBuffer[] voiceData = new ShortBuffer[MAX_VOICES];
+    private final Sound[] voiceSound = new Sound[MAX_VOICES];
+    private final int[] voicePos = new int[MAX_VOICES];
+    private final float[] voiceGainL = new float[MAX_VOICES];
+    private final float[] voiceGainR = new float[MAX_VOICES];
+    private final long[] voiceStartSeq = new long[MAX_VOICES];
+    private final long[] voiceTriggerNs = new long[MAX_VOICES];
+    private long startSeq = 0;
+
+    // latência disparo -> saída (inclui o que já estava na fila da linha)
+    private volatile long lastLatencyNs = 0;
+    private volatile long avgLatencyNs = 0;
+
+    public AudioMixer(SoundBank bank) {
+        this.bank = bank;
+        this.line = openLine();
+        if (line != null) {
+            Thread t = new Thread(this::run, "audio-mixer");
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            t.start();
+        }
+    }
 
-    public Particle(int x, int y, Random r) {
-        this.x = x;
-        this.y = y;
-        this.vx = (r.nextDouble() - 0.5) * 8;
-        this.vy = (r.nextDouble() - 0.5) * 8;
-        this.color = new Color(255, r.nextInt(100) + 155, 0);
+    private static SourceDataLine openLine() {
+        try {
+            AudioFormat fmt = new AudioFormat(SoundBank.SAMPLE_RATE, 16, SoundBank.CHANNELS, true, false);
+            SourceDataLine l = AudioSystem.getSourceDataLine(fmt);
+            l.open(fmt, BUFFER_FRAMES * FRAME_BYTES * LINE_BUFFERS);
+            l.start();
+            return l;
+        } catch (Exception ignored) {
+            return null;
+        }
     }
 
-    public void update() {
-        x += vx;
-        y += vy;
-        vy += 0.3;
-        life--;
+    /**
+     * Dispara um som. pan: -1 (esquerda) .. +1 (direita).
+     * Se o limite de vozes do som (ou do mixer) estiver cheio, rouba a voz mais antiga.
+     */
+    public void play(Sound s, float gain, float pan) {
+        if (line == null)
+            return;
+        ShortBuffer data = bank.get(s);
+        if (data.limit() == 0)
+            return;
+
+        pan = Math.max(-1f, Math.min(1f, pan));
+        float gl = gain * Math.min(1f, 1f - pan);
+        float gr = gain * Math.min(1f, 1f + pan);
+
+        synchronized (this) {
+            int free = -1, oldest = -1, oldestSame = -1, sameCount = 0;
+            for (int v = 0; v < MAX_VOICES; v++) {
+                if (voiceData[v] == null) {
+                    if (free < 0)
+                        free = v;
+                    continue;
+                }
+                if (oldest < 0 || voiceStartSeq[v] < voiceStartSeq[oldest])
+                    oldest = v;
+                if (voiceSound[v] == s) {
+                    sameCount++;
+                    if (oldestSame < 0 || voiceStartSeq[v] < voiceStartSeq[oldestSame])
+                        oldestSame = v;
+                }
+            }
+
+            int v;
+            if (sameCount >= s.voices)
+                v = oldestSame;
+            else
+                v = free >= 0 ? free : oldest;
+
+            voiceData[v] = data;
+            voiceSound[v] = s;
+            voicePos[v] = 0;
+            voiceGainL[v] = gl;
+            voiceGainR[v] = gr;
+            voiceStartSeq[v] = ++startSeq;
+            voiceTriggerNs[v] = System.nanoTime();
+        }
+    }
+
+    public long getLastLatencyNs() {
+        return lastLatencyNs;
     }
 
-    public boolean isAlive() {
-        return life > 0;
+    public long getAverageLatencyNs() {
+        return avgLatencyNs;
     }
 
-    public void draw(Graphics2D g) {
-        int alpha = Math.max(0, Math.min(255, life * 12));
-        g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), alpha));
-        g.fillOval((int) x, (int) y, 6, 6);
+    private void run() {
+        int samples = BUFFER_FRAMES * SoundBank.CHANNELS;
+        int[] mix = new int[samples];
+        byte[] out = new byte[samples * 2];
+        long frameNs = (long) (1_000_000_000L / SoundBank.SAMPLE_RATE);
+
+        while (true) {
+            Arrays.fill(mix, 0);
+
+            synchronized (this) {
+                for (int v = 0; v < MAX_VOICES; v++) {
+                    ShortBuffer data = voiceData[v];
+                    if (data == null)
+                        continue;
+
+                    if (voiceTriggerNs[v] != 0) {
+                        long queuedFrames = (line.getBufferSize() - line.available()) / FRAME_BYTES;
+                        long lat = System.nanoTime() - voiceTriggerNs[v] + queuedFrames * frameNs;
+                        lastLatencyNs = lat;
+                        avgLatencyNs = avgLatencyNs == 0 ? lat : (avgLatencyNs * 7 + lat) / 8;
+                        voiceTriggerNs[v] = 0;
+                    }
+
+                    int pos = voicePos[v];
+                    int n = Math.min(samples, data.limit() - pos);
+                    float gl = voiceGainL[v], gr = voiceGainR[v];
+                    for (int i = 0; i < n; i += 2) {
+                        mix[i] += (int) (data.get(pos + i) * gl);
+                        mix[i + 1] += (int) (data.get(pos + i + 1) * gr);
+                    }
+
+                    pos += n;
+                    if (pos >= data.limit()) {
+                        voiceData[v] = null;
+                        voiceSound[v] = null;
+                    } else {
+                        voicePos[v] = pos;
+                    }
+                }
+            }
+
+            for (int i = 0; i < samples; i++) {
+                int m = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+                out[i * 2] = (byte) m;
+                out[i * 2 + 1] = (byte) (m >> 8);
+            }
+
+            // bloqueia até haver espaço na linha: é isso que dá o ritmo da thread
+            line.write(out, 0, out.length);
+        }
     }
 }
 
-// ======= SOUND PLAYER (WAV) =======
+// ======= SOUND PLAYER =======
 class SoundPlayer {
-    public void play(String path) {
-        new Thread(() -> {
-            try {
-                File file = new File(path);
-                if (!file.exists())
-                    return;
+    private final AudioMixer mixer = new AudioMixer(new SoundBank());
 
-                AudioInputStream ais = AudioSystem.getAudioInputStream(file);
-                Clip clip = AudioSystem.getClip();
-                clip.open(ais);
-                clip.start();
-            } catch (Exception ignored) {
-            }
-        }).start();
+    public void play(Sound s) {
+        play(s, 1f, 0f);
+    }
+
+    public void play(Sound s, float gain, float pan) {
+        if (GameEvents.enabled)
+            GameEvents.sound(s, gain, pan);
+        mixer.play(s, gain, pan);
+    }
+
+    public long getLastLatencyNs() {
+        return mixer.getLastLatencyNs();
+    }
+
+    public long getAverageLatencyNs() {
+        return mixer.getAverageLatencyNs();
     }
 }